@@ -0,0 +1,9 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Example: ./batch.sh commands.txt results.ndjson
+java -cp lib/*:bin/ BatchRunner $dbname $PGPORT $(logname) "$@"
@@ -0,0 +1,12 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Example: ./bench.sh StatementBench 20000
+bench=$1
+shift
+javac -cp "lib/*:bin/" bench/*.java -d bin/
+java -cp lib/*:bin/ $bench $dbname $PGPORT $(logname) "$@"
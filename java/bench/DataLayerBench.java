@@ -0,0 +1,217 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * This class measures the data access paths of Ticketmaster with Harness:
+ * the executeQuery* helpers and their result decoding, the AddBooking and
+ * ChangeSeatsForBooking flows, and the list operations (9 to 14), against
+ * whatever database is loaded.  For a given size, load one first with e.g.
+ *
+ *   ./generate.sh /tmp/$(logname)/data 10 && ./load.sh /tmp/$(logname)/data
+ *
+ * Calls cycle through 1,000 shows and the 100 users with the most
+ * bookings.  Bookings the flows make are removed again after each call,
+ * outside the timing, so the data stays the same from run to run.
+ *
+ * Usage: ./bench.sh DataLayerBench [benchmark name regex]
+ *        (e.g. -Dticketmaster.bench.threads=8 in JAVA_TOOL_OPTIONS)
+ *
+ */
+
+public class DataLayerBench {
+	private static final String SHOW_SEATS =
+		"SELECT SS.ssid, SS.csid, SS.bid, SS.price, CS.tid, CS.sno FROM Showseats SS, Cinemaseats CS WHERE SS.sid = ? AND SS.csid = CS.csid;";
+	private static final String THEATERS_OF_SHOW =
+		"SELECT T.tid, T.tname, C.cname FROM Theaters T, Plays P, Cinemas C WHERE T.tid = P.tid AND P.sid = ? AND T.cid = C.cid;";
+	// seat prices are raised by this before a change so cheaper seats exist
+	private static final int PRICE_BUMP = 1000;
+
+	private final Ticketmaster esql;
+	private final Operations ops;
+	private long[] sids;
+	private long[] mvids;
+	private String[] dates;
+	private String[] times;
+	private String[] emails;
+	private long[] targetSids;
+	private long[] targetTids;
+
+	/*
+	 * A benchmark whose call only depends on how many calls came before.
+	 */
+	private interface Call {
+		Object call(int i) throws Exception;
+	}
+
+	private static Harness.Factory each(final Call call) {
+		return thread -> new Harness.Benchmark() {
+			private int i = thread * 7919;
+
+			public Object run() throws Exception {
+				return call.call(i++ & Integer.MAX_VALUE);
+			}
+		};
+	}
+
+	private static final Ticketmaster.RowHandler READ_FIRST = new Ticketmaster.RowHandler() {
+		public void handle(ResultSet rs) throws SQLException {
+			rs.getString(1);
+		}
+	};
+
+	public DataLayerBench(Ticketmaster esql) {
+		this.esql = esql;
+		this.ops = esql.getOperations();
+	}
+
+	private void loadParameters(int threads) throws SQLException {
+		TypedResult shows = esql.executeQueryAndReturnTyped(
+			"SELECT sid, mvid, sdate::text, sttime::text FROM Shows ORDER BY md5(sid::text) LIMIT 1000;");
+		if (shows.size() == 0) {
+			throw new IllegalStateException("There are no shows to benchmark with.");
+		}
+		sids = Arrays.copyOf(shows.getLongColumn(0), shows.size());
+		mvids = Arrays.copyOf(shows.getLongColumn(1), shows.size());
+		dates = new String[shows.size()];
+		times = new String[shows.size()];
+		for (int i = 0; i < shows.size(); ++i) {
+			dates[i] = shows.getString(i, 2);
+			times[i] = shows.getString(i, 3);
+		}
+		TypedResult users = esql.executeQueryAndReturnTyped(
+			"SELECT email FROM Bookings GROUP BY email ORDER BY count(*) DESC, email LIMIT 100;");
+		if (users.size() == 0) {
+			users = esql.executeQueryAndReturnTyped("SELECT email FROM Users ORDER BY email LIMIT 100;");
+		}
+		emails = new String[users.size()];
+		for (int i = 0; i < users.size(); ++i) {
+			emails[i] = users.getString(i, 0);
+		}
+		// the flows book in the emptiest theaters, one per thread where possible
+		TypedResult targets = esql.executeQueryAndReturnTyped(
+			"SELECT SS.sid, CS.tid FROM Showseats SS, Cinemaseats CS WHERE SS.csid = CS.csid AND SS.bid IS NULL\n"
+			+ "GROUP BY SS.sid, CS.tid ORDER BY count(*) DESC LIMIT ?;", threads);
+		targetSids = Arrays.copyOf(targets.getLongColumn(0), targets.size());
+		targetTids = Arrays.copyOf(targets.getLongColumn(1), targets.size());
+	}
+
+	private Map<String, Harness.Factory> benchmarks() {
+		Map<String, Harness.Factory> benchmarks = new LinkedHashMap<String, Harness.Factory>();
+
+		// the helpers, on the seats of one show
+		benchmarks.put("executeQuery", each(i -> esql.executeQuery(THEATERS_OF_SHOW, sids[i % sids.length])));
+		benchmarks.put("executeQueryAndReturnResult", each(i -> esql.executeQueryAndReturnResult(SHOW_SEATS, sids[i % sids.length])));
+		benchmarks.put("executeQueryAndReturnTyped", each(i -> esql.executeQueryAndReturnTyped(SHOW_SEATS, sids[i % sids.length])));
+		benchmarks.put("executeQueryForEach", each(i -> esql.executeQueryForEach(SHOW_SEATS, READ_FIRST, sids[i % sids.length])));
+
+		benchmarks.put("add-booking", thread -> new Harness.Benchmark() {
+			private final long sid = targetSids[thread % targetSids.length];
+			private final long tid = targetTids[thread % targetTids.length];
+			private final String email = emails[thread % emails.length];
+
+			public Object run() throws Exception {
+				return ops.addBooking(email, sid, tid, 2);
+			}
+
+			public void after(Object result) throws Exception {
+				deleteBooking(sid, (Long) ((Map<?, ?>) result).get("bid"));
+			}
+		});
+
+		benchmarks.put("change-seats", thread -> new Harness.Benchmark() {
+			private final long sid = targetSids[thread % targetSids.length];
+			private final long tid = targetTids[thread % targetTids.length];
+			private long bid;
+
+			public void setUp() throws Exception {
+				bid = (Long) ops.addBooking(emails[thread % emails.length], sid, tid, 2).get("bid");
+			}
+
+			public void before() throws Exception {
+				esql.executeUpdate("UPDATE Showseats SET price = price + ? WHERE bid = ?;", PRICE_BUMP, bid);
+			}
+
+			public Object run() throws Exception {
+				return ops.changeSeats(bid, 2);
+			}
+
+			public void after(Object result) throws Exception {
+				esql.executeUpdate("UPDATE Showseats SET price = price - ? WHERE sid = ? AND price >= ?;", PRICE_BUMP, sid, PRICE_BUMP);
+			}
+
+			public void tearDown() throws Exception {
+				esql.executeUpdate("UPDATE Showseats SET price = price - ? WHERE sid = ? AND price >= ?;", PRICE_BUMP, sid, PRICE_BUMP);
+				deleteBooking(sid, bid);
+			}
+		});
+
+		benchmarks.put("op9-theaters-playing-show", each(i -> ops.listTheatersPlayingShow(sids[i % sids.length], READ_FIRST)));
+		benchmarks.put("op10-shows-at-time", each(i -> ops.listShowsStartingOnTimeAndDate(dates[i % dates.length], times[i % times.length])));
+		benchmarks.put("op11-love-movies", each(i -> ops.listMovieTitlesContainingLoveReleasedAfter2010(READ_FIRST)));
+		benchmarks.put("op12-pending-users", each(i -> ops.listUsersWithPendingBooking(READ_FIRST)));
+		benchmarks.put("op13-movie-shows-in-range", each(i -> ops.listMovieAndShowInfoAtCinemaInDateRange(mvids[i % mvids.length],
+			"2019-01-01", "2019-12-31", null)));
+		benchmarks.put("op14-booking-info", each(i -> ops.listBookingInfoForUser(emails[i % emails.length], Long.MIN_VALUE,
+			Integer.getInteger("ticketmaster.pageSize", 20))));
+		return benchmarks;
+	}
+
+	/*
+	 * Gives a booking's seats back and deletes it, in one transaction.
+	 */
+	private void deleteBooking(long sid, long bid) throws SQLException {
+		TypedResult released;
+		esql.beginTransaction();
+		try {
+			released = esql.executeQueryAndReturnTyped(
+				"UPDATE Showseats SS SET bid = NULL FROM Cinemaseats CS WHERE SS.bid = ? AND SS.csid = CS.csid RETURNING CS.tid, CS.sno;", bid);
+			esql.executeUpdate("DELETE FROM Bookings WHERE bid = ?;", bid);
+			esql.commitTransaction();
+		} catch (SQLException | RuntimeException e) {
+			esql.rollbackTransaction();
+			throw e;
+		}
+		esql.getSeatInventory().markFree(sid, released, 0, 1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java DataLayerBench <dbname> <port> <user> [benchmark name regex]");
+			return;
+		}
+		Pattern only = Pattern.compile(args.length > 3 ? args[3] : ".*");
+		Harness harness = new Harness();
+		// one connection per benchmark thread, and one for the parameters
+		System.setProperty("ticketmaster.pool.max", Integer.toString(harness.getThreads() + 1));
+		Ticketmaster esql = new Ticketmaster(args[0], args[1], args[2], "");
+		try {
+			DataLayerBench bench = new DataLayerBench(esql);
+			bench.loadParameters(harness.getThreads());
+			for (Map.Entry<String, Harness.Factory> benchmark : bench.benchmarks().entrySet()) {
+				if (only.matcher(benchmark.getKey()).find()) {
+					harness.run(benchmark.getKey(), benchmark.getValue());
+				}
+			}
+			System.out.println(esql.getPoolStats());
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class measures the time and heap allocation of decoding a ShowSeats
+ * scan two ways: the old path, where every cell becomes a String in a per-row
+ * ArrayList and IDs are parsed back with Long.parseLong, and TypedResult,
+ * which reads the numeric columns straight into primitive arrays.
+ *
+ * When ShowSeats holds fewer rows than requested the scan is synthesized
+ * with generate_series in the same shape (ssid, sid, csid, bid, price).
+ *
+ * Usage: ./bench.sh DecodeBench [rows]
+ *
+ */
+
+public class DecodeBench {
+	private static final String TABLE_SCAN = "SELECT ssid, sid, csid, bid, price FROM ShowSeats LIMIT ?";
+	private static final String SYNTHETIC_SCAN =
+		"SELECT g::bigint AS ssid, (g % 200 + 1)::bigint AS sid, (g % 7992 + 1)::bigint AS csid,"
+		+ " NULLIF(g % 3, 0)::bigint AS bid, (g % 20 + 5)::real AS price FROM generate_series(1, ?) g";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java DecodeBench <dbname> <port> <user> [rows]");
+			return;
+		}
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		int rows = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+
+		try (Connection conn = DriverManager.getConnection(url, args[2], "")) {
+			conn.setAutoCommit(false);
+			String query = countShowSeats(conn) >= rows ? TABLE_SCAN : SYNTHETIC_SCAN;
+			System.out.println("Scanning " + rows + " rows with: " + query);
+
+			// warm up both decoders
+			decodeStrings(conn, query, rows / 10);
+			decodeTyped(conn, query, rows / 10);
+
+			for (int round = 0; round < 3; ++round) {
+				measure("List<List<String>> + parse", () -> decodeStrings(conn, query, rows));
+				measure("TypedResult", () -> decodeTyped(conn, query, rows));
+			}
+		}
+	}
+
+	interface Scan {
+		long run() throws SQLException;
+	}
+
+	private static void measure(String name, Scan scan) throws SQLException {
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+		System.gc();
+		long bytesBefore = threads.getThreadAllocatedBytes(tid);
+		long start = System.nanoTime();
+		long checksum = scan.run();
+		long nanos = System.nanoTime() - start;
+		long bytes = threads.getThreadAllocatedBytes(tid) - bytesBefore;
+		System.out.printf("%-28s %8.1f ms %10.1f MB allocated   (checksum %d)%n",
+			name, nanos / 1e6, bytes / 1048576.0, checksum);
+	}
+
+	private static long countShowSeats(Connection conn) throws SQLException {
+		try (PreparedStatement stmt = conn.prepareStatement("SELECT count(*) FROM ShowSeats");
+				ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+
+	/*
+	 * The decoding executeQueryAndReturnResult does, followed by the parsing
+	 * the operations did on the IDs and prices.
+	 */
+	private static long decodeStrings(Connection conn, String query, int rows) throws SQLException {
+		List<List<String>> result = new ArrayList<List<String>>();
+		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+			stmt.setFetchSize(10000);
+			stmt.setInt(1, rows);
+			try (ResultSet rs = stmt.executeQuery()) {
+				ResultSetMetaData rsmd = rs.getMetaData();
+				int numCol = rsmd.getColumnCount();
+				while (rs.next()) {
+					List<String> record = new ArrayList<String>();
+					for (int i = 1; i <= numCol; ++i)
+						record.add(rs.getString(i));
+					result.add(record);
+				}
+			}
+		}
+		conn.commit();
+		long checksum = 0;
+		for (List<String> record : result) {
+			checksum += Long.parseLong(record.get(0)) + Long.parseLong(record.get(2));
+			if (record.get(3) != null) {
+				checksum += Long.parseLong(record.get(3));
+			}
+			checksum += (long) Double.parseDouble(record.get(4));
+		}
+		return checksum;
+	}
+
+	private static long decodeTyped(Connection conn, String query, int rows) throws SQLException {
+		TypedResult result;
+		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+			stmt.setFetchSize(10000);
+			stmt.setInt(1, rows);
+			try (ResultSet rs = stmt.executeQuery()) {
+				result = new TypedResult(rs.getMetaData());
+				while (rs.next()) {
+					result.add(rs);
+				}
+			}
+		}
+		conn.commit();
+		long checksum = 0;
+		long[] ssids = result.getLongColumn(0);
+		long[] csids = result.getLongColumn(2);
+		for (int i = 0; i < result.size(); ++i) {
+			checksum += ssids[i] + csids[i] + result.getLong(i, 3) + (long) result.getDouble(i, 4);
+		}
+		return checksum;
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class runs a benchmark the way JMH does, without needing JMH on the
+ * class path: warmup iterations whose numbers are thrown away, then
+ * measurement iterations of fixed length, each on every benchmark thread
+ * at once.  For the measurement it reports
+ *
+ *   - throughput: calls per second, mean and spread over the iterations;
+ *   - latency: percentiles of every timed call, from a LatencyHistogram;
+ *   - allocation: bytes allocated per call and MB/s by the benchmark
+ *     threads (like JMH's gc profiler), and the collections that happened.
+ *
+ * Only run() is timed; before() and after() prepare and undo each call.
+ * Allocation is counted over the whole loop, so it includes theirs.
+ *
+ * Settings (system properties):
+ *   ticketmaster.bench.warmupIterations  (3)
+ *   ticketmaster.bench.iterations        measured iterations (5)
+ *   ticketmaster.bench.iterationMs       length of an iteration (2000)
+ *   ticketmaster.bench.threads           threads calling at once (1)
+ *
+ */
+
+public class Harness {
+	/**
+	 * One benchmark thread's state.  setUp() and tearDown() run once on the
+	 * thread, before() and after() around every call, none of them timed.
+	 */
+	public static abstract class Benchmark {
+		public void setUp() throws Exception { }
+		public void before() throws Exception { }
+		public abstract Object run() throws Exception;
+		public void after(Object result) throws Exception { }
+		public void tearDown() throws Exception { }
+	}
+
+	public interface Factory {
+		Benchmark create(int thread) throws Exception;
+	}
+
+	private final int warmupIterations = Integer.getInteger("ticketmaster.bench.warmupIterations", 3);
+	private final int iterations = Integer.getInteger("ticketmaster.bench.iterations", 5);
+	private final long iterationNanos = Long.getLong("ticketmaster.bench.iterationMs", 2000L) * 1000000L;
+	private final int threads = Integer.getInteger("ticketmaster.bench.threads", 1);
+
+	// results are folded in here so the JIT cannot drop the calls
+	private volatile int sink;
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/*
+	 * What one thread did in one iteration.
+	 */
+	private static final class Sample {
+		long calls;
+		long allocated;
+		final LatencyHistogram latency = new LatencyHistogram();
+	}
+
+	/**
+	 * Method to run one benchmark and print its results.
+	 *
+	 * @param name what is printed in front of the results
+	 * @param factory makes the state of each benchmark thread
+	 * @throws java.lang.Exception the first failure of a benchmark thread
+	 */
+	public void run(String name, Factory factory) throws Exception {
+		final int total = warmupIterations + iterations;
+		final Sample[][] samples = new Sample[total][threads];
+		final long[] wall = new long[total];
+		final long[] gcCount = new long[2];
+		final long[] gcMillis = new long[2];
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		// set between iterations, so every thread stops after the same one
+		final boolean[] stopped = new boolean[1];
+		final CyclicBarrier barrier = new CyclicBarrier(threads, new Runnable() {
+			private int iteration = -1;
+			private long start;
+
+			public void run() {
+				// runs when every thread reached the barrier: between iterations
+				stopped[0] = failure.get() != null;
+				long now = System.nanoTime();
+				if (iteration >= 0) {
+					wall[iteration] = now - start;
+				}
+				if (iteration == warmupIterations - 1) {
+					gcTotals(gcCount, gcMillis, 0);
+				} else if (iteration == total - 1) {
+					gcTotals(gcCount, gcMillis, 1);
+				}
+				++iteration;
+				start = System.nanoTime();
+			}
+		});
+
+		System.out.println("# " + name + ": " + threads + " thread(s), " + warmupIterations + " warmup and " + iterations
+			+ " measured iterations of " + iterationNanos / 1000000 + " ms");
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; ++t) {
+			final int thread = t;
+			Thread worker = new Thread(() -> {
+				com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+				long tid = Thread.currentThread().getId();
+				Benchmark benchmark = null;
+				try {
+					// a thread that fails keeps meeting the others at the barrier
+					// until they all stop there, so none waits for it forever
+					try {
+						benchmark = factory.create(thread);
+						benchmark.setUp();
+					} catch (Exception e) {
+						failure.compareAndSet(null, e);
+					}
+					barrier.await();
+					for (int i = 0; i < total && !stopped[0]; ++i) {
+						Sample sample = new Sample();
+						samples[i][thread] = sample;
+						long allocatedBefore = mx.getThreadAllocatedBytes(tid);
+						long end = System.nanoTime() + iterationNanos;
+						try {
+							while (System.nanoTime() < end && failure.get() == null) {
+								benchmark.before();
+								long start = System.nanoTime();
+								Object result = benchmark.run();
+								sample.latency.record(System.nanoTime() - start);
+								sink ^= System.identityHashCode(result);
+								benchmark.after(result);
+								++sample.calls;
+							}
+						} catch (Exception e) {
+							failure.compareAndSet(null, e);
+						}
+						sample.allocated = mx.getThreadAllocatedBytes(tid) - allocatedBefore;
+						barrier.await();
+					}
+				} catch (InterruptedException | BrokenBarrierException e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					if (benchmark != null) {
+						try {
+							benchmark.tearDown();
+						} catch (Exception e) {
+							System.err.println("tearDown failed: " + e.getMessage());
+						}
+					}
+				}
+			}, "bench-" + t);
+			workers.add(worker);
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		LatencyHistogram latency = new LatencyHistogram();
+		double[] throughput = new double[iterations];
+		long calls = 0;
+		long allocated = 0;
+		long nanos = 0;
+		for (int i = 0; i < total; ++i) {
+			long iterationCalls = 0;
+			for (Sample sample : samples[i]) {
+				iterationCalls += sample.calls;
+				if (i >= warmupIterations) {
+					latency.add(sample.latency);
+					allocated += sample.allocated;
+				}
+			}
+			double rate = iterationCalls / Math.max(wall[i] / 1e9, 1e-9);
+			System.out.println(String.format("%s %d: %,.1f calls/s", i < warmupIterations ? "Warmup" : "Iteration",
+				i < warmupIterations ? i + 1 : i - warmupIterations + 1, rate));
+			if (i >= warmupIterations) {
+				throughput[i - warmupIterations] = rate;
+				calls += iterationCalls;
+				nanos += wall[i];
+			}
+		}
+		double mean = 0;
+		for (double rate : throughput) {
+			mean += rate / iterations;
+		}
+		double variance = 0;
+		for (double rate : throughput) {
+			variance += (rate - mean) * (rate - mean) / Math.max(1, iterations - 1);
+		}
+		System.out.println(String.format("%-24s throughput %,.1f calls/s (+- %,.1f)", name, mean, Math.sqrt(variance)));
+		System.out.println(String.format("%-24s latency    %s", name, latency.summarize()));
+		System.out.println(String.format("%-24s allocation %,.0f B/call, %.1f MB/s; %d GCs taking %d ms", name,
+			allocated / (double) Math.max(1, calls), allocated / 1e6 / Math.max(nanos / 1e9, 1e-9),
+			gcCount[1] - gcCount[0], gcMillis[1] - gcMillis[0]));
+		System.out.println();
+	}
+
+	private static void gcTotals(long[] count, long[] millis, int slot) {
+		count[slot] = 0;
+		millis[slot] = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count[slot] += Math.max(0, gc.getCollectionCount());
+			millis[slot] += Math.max(0, gc.getCollectionTime());
+		}
+	}
+}
@@ -0,0 +1,480 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class puts a ticket sale's load on the database: N virtual users,
+ * each in a loop of pick an operation, run it, think.  Operations are
+ * picked by weight from ticketmaster.load.mix, and shows and users by Zipf
+ * popularity, so a few hot shows get most of the bookings and sell out,
+ * as when a blockbuster goes on sale.
+ *
+ * Every virtual user keeps a schedule: its next operation is due one think
+ * time after the previous one was due.  When an operation runs late, the
+ * next ones start late too, and their response time is counted from when
+ * they were due, not from when they started (coordinated omission
+ * correction).  Both that response time and the plain service time are
+ * reported, per operation, as p50/p99/p99.9.
+ *
+ * A failure is a conflict when the operation was refused because of other
+ * buyers (sold out, seat already taken, lock or serialization failure) and
+ * an error otherwise.  Every second, the throughput, errors, conflicts,
+ * response time p99 and seats sold so far are printed and kept; the whole
+ * report is written as JSON to the output file, for comparing runs.
+ *
+ * The operations change the data: bookings are added and moved, and
+ * payments removed.  Reload the data set between runs that are compared.
+ *
+ * Settings (system properties):
+ *   ticketmaster.load.mix        operation weights ("book=50,change-seats=10,
+ *                                remove-payment=5,list-theaters=10,list-shows=10,
+ *                                list-movie-shows=10,list-bookings=5")
+ *   ticketmaster.load.thinkMs    mean think time, exponentially distributed (500)
+ *   ticketmaster.load.hotShows   shows taking part in the sale (1000)
+ *   ticketmaster.load.showSkew   Zipf exponent of show popularity (1.2)
+ *   ticketmaster.load.userSkew   Zipf exponent of user activity (0.8)
+ *   ticketmaster.load.seed       seed of the users' random choices (42)
+ *   ticketmaster.pool.max        connections shared by the users (8)
+ *
+ * Usage: ./bench.sh LoadGenerator [virtual users] [seconds] [output file]
+ *
+ */
+
+public class LoadGenerator {
+	private static final String[] OPERATIONS = { "book", "change-seats", "remove-payment", "list-theaters", "list-shows",
+		"list-movie-shows", "list-bookings" };
+
+	private static final Ticketmaster.RowHandler READ_FIRST = new Ticketmaster.RowHandler() {
+		public void handle(ResultSet rs) throws SQLException {
+			rs.getString(1);
+		}
+	};
+
+	private final Ticketmaster esql;
+	private final Operations ops;
+	private final int users;
+	private final long seconds;
+	private final double thinkMillis;
+	private final long seed;
+	private final int[] weights = new int[OPERATIONS.length];
+	private int totalWeight = 0;
+
+	// the shows on sale, one row per theater playing them, and the buyers
+	private long[] sids;
+	private long[] tids;
+	private long[] mvids;
+	private String[] dates;
+	private String[] times;
+	private String[] emails;
+	private final ArrayDeque<Long> payments = new ArrayDeque<Long>();
+	private DataGenerator.Zipf showZipf;
+	private DataGenerator.Zipf userZipf;
+
+	private final Stats stats = new Stats();
+
+	/*
+	 * What happened, by operation and by second.  The users share it, so it
+	 * is locked; an operation takes far longer than recording it.
+	 */
+	private final class Stats {
+		final long[] ok = new long[OPERATIONS.length];
+		final long[] conflicts = new long[OPERATIONS.length];
+		final long[] errors = new long[OPERATIONS.length];
+		final LatencyHistogram[] service = new LatencyHistogram[OPERATIONS.length];
+		final LatencyHistogram[] response = new LatencyHistogram[OPERATIONS.length];
+		final List<Map<String, Object>> timeline = new ArrayList<Map<String, Object>>();
+		final Map<String, Long> failures = new LinkedHashMap<String, Long>();
+		long seatsSold = 0;
+
+		// the current second
+		long secondOps = 0;
+		long secondConflicts = 0;
+		long secondErrors = 0;
+		final LatencyHistogram secondResponse = new LatencyHistogram();
+
+		Stats() {
+			for (int i = 0; i < OPERATIONS.length; ++i) {
+				service[i] = new LatencyHistogram();
+				response[i] = new LatencyHistogram();
+			}
+		}
+
+		synchronized void record(int op, int outcome, long serviceNanos, long responseNanos, int seats, String failure) {
+			service[op].record(serviceNanos);
+			response[op].record(responseNanos);
+			secondResponse.record(responseNanos);
+			++secondOps;
+			seatsSold += seats;
+			if (outcome == 0) {
+				++ok[op];
+			} else {
+				if (outcome == 1) {
+					++conflicts[op];
+					++secondConflicts;
+				} else {
+					++errors[op];
+					++secondErrors;
+				}
+				// the first words tell the kinds of failure apart well enough
+				String kind = OPERATIONS[op] + ": " + failure.replaceAll("[0-9]+", "N");
+				failures.merge(kind.length() > 120 ? kind.substring(0, 120) : kind, 1L, Long::sum);
+			}
+		}
+
+		synchronized Map<String, Object> tick(int second) {
+			Map<String, Object> point = new LinkedHashMap<String, Object>();
+			point.put("second", second);
+			point.put("ops", secondOps);
+			point.put("conflicts", secondConflicts);
+			point.put("errors", secondErrors);
+			point.put("p99Ms", secondResponse.getValueAtPercentile(99) / 1e6);
+			point.put("seatsSold", seatsSold);
+			timeline.add(point);
+			secondOps = 0;
+			secondConflicts = 0;
+			secondErrors = 0;
+			secondResponse.reset();
+			return point;
+		}
+	}
+
+	public LoadGenerator(Ticketmaster esql, int users, long seconds) {
+		this.esql = esql;
+		this.ops = esql.getOperations();
+		this.users = users;
+		this.seconds = seconds;
+		this.thinkMillis = Double.parseDouble(System.getProperty("ticketmaster.load.thinkMs", "500"));
+		this.seed = Long.getLong("ticketmaster.load.seed", 42L);
+		String mix = System.getProperty("ticketmaster.load.mix",
+			"book=50,change-seats=10,remove-payment=5,list-theaters=10,list-shows=10,list-movie-shows=10,list-bookings=5");
+		for (String entry : mix.split(",")) {
+			String[] pair = entry.trim().split("=");
+			int op = indexOf(pair[0].trim());
+			if (op < 0 || pair.length != 2) {
+				throw new IllegalArgumentException("Unknown entry in ticketmaster.load.mix: " + entry
+					+ " (operations are " + String.join(", ", OPERATIONS) + ")");
+			}
+			weights[op] = Integer.parseInt(pair[1].trim());
+			totalWeight += weights[op];
+		}
+		if (totalWeight <= 0) {
+			throw new IllegalArgumentException("ticketmaster.load.mix has no operation with a positive weight");
+		}
+	}
+
+	private static int indexOf(String name) {
+		for (int i = 0; i < OPERATIONS.length; ++i) {
+			if (OPERATIONS[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void loadParameters() throws SQLException {
+		TypedResult shows = esql.executeQueryAndReturnTyped(
+			"SELECT P.sid, P.tid, S.mvid, S.sdate::text, S.sttime::text FROM Plays P JOIN Shows S ON S.sid = P.sid\n"
+			+ "ORDER BY md5(P.sid::text || ':' || P.tid::text) LIMIT ?;", Integer.getInteger("ticketmaster.load.hotShows", 1000));
+		if (shows.size() == 0) {
+			throw new IllegalStateException("There are no shows to sell.");
+		}
+		sids = new long[shows.size()];
+		tids = new long[shows.size()];
+		mvids = new long[shows.size()];
+		dates = new String[shows.size()];
+		times = new String[shows.size()];
+		for (int i = 0; i < shows.size(); ++i) {
+			sids[i] = shows.getLong(i, 0);
+			tids[i] = shows.getLong(i, 1);
+			mvids[i] = shows.getLong(i, 2);
+			dates[i] = shows.getString(i, 3);
+			times[i] = shows.getString(i, 4);
+		}
+		TypedResult buyers = esql.executeQueryAndReturnTyped("SELECT email FROM Users ORDER BY md5(email) LIMIT 100000;");
+		emails = new String[buyers.size()];
+		for (int i = 0; i < buyers.size(); ++i) {
+			emails[i] = buyers.getString(i, 0);
+		}
+		if (weights[indexOf("remove-payment")] > 0) {
+			TypedResult pids = esql.executeQueryAndReturnTyped("SELECT pid FROM Payments ORDER BY md5(pid::text) LIMIT 100000;");
+			for (int i = 0; i < pids.size(); ++i) {
+				payments.add(pids.getLong(i, 0));
+			}
+		}
+		showZipf = new DataGenerator.Zipf(sids.length, Double.parseDouble(System.getProperty("ticketmaster.load.showSkew", "1.2")));
+		userZipf = new DataGenerator.Zipf(emails.length, Double.parseDouble(System.getProperty("ticketmaster.load.userSkew", "0.8")));
+	}
+
+	/*
+	 * One virtual user: its random choices and the bookings it made, which
+	 * it later changes seats of.
+	 */
+	private final class VirtualUser implements Runnable {
+		final SplittableRandom random;
+		final String email;
+		final ArrayDeque<Long> bookings = new ArrayDeque<Long>();
+		final long deadline;
+
+		VirtualUser(int number, long deadline) {
+			this.random = new SplittableRandom(seed + number);
+			this.email = emails[userZipf.sample(random) - 1];
+			this.deadline = deadline;
+		}
+
+		public void run() {
+			long due = System.nanoTime();
+			while (due < deadline) {
+				long now = System.nanoTime();
+				if (due > now) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(due - now);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				int op = pick();
+				long start = System.nanoTime();
+				int outcome = 0;
+				int seats = 0;
+				String failure = null;
+				try {
+					seats = runOperation(op);
+				} catch (Exception e) {
+					outcome = isConflict(e) ? 1 : 2;
+					failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+				}
+				long end = System.nanoTime();
+				stats.record(op, outcome, end - start, end - due, seats, failure);
+				// exponential think time, as between independent arrivals
+				due += (long) (-Math.log(1 - random.nextDouble()) * thinkMillis * 1e6);
+			}
+		}
+
+		private int pick() {
+			int r = random.nextInt(totalWeight);
+			for (int op = 0; op < weights.length; ++op) {
+				r -= weights[op];
+				if (r < 0) {
+					return op;
+				}
+			}
+			return 0;
+		}
+
+		/*
+		 * Runs one operation and returns the change in seats sold.
+		 */
+		private int runOperation(int op) throws SQLException {
+			int show = showZipf.sample(random) - 1;
+			switch (OPERATIONS[op]) {
+			case "book":
+				int wanted = 1 + random.nextInt(4);
+				Map<String, Object> booking = ops.addBooking(email, sids[show], tids[show], wanted);
+				bookings.add((Long) booking.get("bid"));
+				if (bookings.size() > 16) {
+					bookings.poll();
+				}
+				return (Integer) booking.get("seats");
+			case "change-seats":
+				Long bid = bookings.peekLast();
+				if (bid == null) {
+					// nothing booked yet, look instead
+					ops.listTheatersPlayingShow(sids[show], READ_FIRST);
+					return 0;
+				}
+				ops.changeSeats(bid, 1);
+				return 0;
+			case "remove-payment":
+				Long pid;
+				synchronized (payments) {
+					pid = payments.poll();
+				}
+				if (pid == null) {
+					throw new IllegalStateException("No payments left to remove");
+				}
+				ops.removePayment(pid);
+				return 0;
+			case "list-theaters":
+				ops.listTheatersPlayingShow(sids[show], READ_FIRST);
+				return 0;
+			case "list-shows":
+				ops.listShowsStartingOnTimeAndDate(dates[show], times[show]);
+				return 0;
+			case "list-movie-shows":
+				ops.listMovieAndShowInfoAtCinemaInDateRange(mvids[show], dates[show], dates[show], null);
+				return 0;
+			default:
+				ops.listBookingInfoForUser(email, Long.MIN_VALUE, Integer.getInteger("ticketmaster.pageSize", 20));
+				return 0;
+			}
+		}
+	}
+
+	/*
+	 * Refused because of what other buyers did: sold out or seats taken
+	 * (409), or a lock, serialization or deadlock failure (SQLState 40xxx,
+	 * 55P03).
+	 */
+	private static boolean isConflict(Exception e) {
+		if (Commands.statusOf(e) == 409) {
+			return true;
+		}
+		String state = e instanceof SQLException ? ((SQLException) e).getSQLState() : null;
+		return state != null && (state.startsWith("40") || state.equals("55P03"));
+	}
+
+	/**
+	 * Method to run the load for the configured time and return the report.
+	 */
+	public Map<String, Object> run() throws Exception {
+		loadParameters();
+		System.out.println(String.format("%d virtual users for %d s on %d shows, think time %.0f ms, pool of %d connections",
+			users, seconds, sids.length, thinkMillis, esql.getPoolSize()));
+		long start = System.nanoTime();
+		long deadline = start + seconds * 1000000000L;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < users; ++i) {
+			Thread thread = new Thread(new VirtualUser(i, deadline), "virtual-user-" + i);
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+		System.out.println("second      ops/s  conflicts  errors  p99 ms  seats sold");
+		for (int second = 1; second <= seconds; ++second) {
+			long wait = start + second * 1000000000L - System.nanoTime();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			Map<String, Object> point = stats.tick(second);
+			System.out.println(String.format("%6d %10d %10d %7d %7.1f %11d", second, point.get("ops"), point.get("conflicts"),
+				point.get("errors"), point.get("p99Ms"), point.get("seatsSold")));
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return report((System.nanoTime() - start) / 1e9);
+	}
+
+	private Map<String, Object> report(double elapsed) {
+		synchronized (stats) {
+			Map<String, Object> config = new LinkedHashMap<String, Object>();
+			config.put("virtualUsers", users);
+			config.put("seconds", seconds);
+			config.put("thinkMs", thinkMillis);
+			config.put("mix", System.getProperty("ticketmaster.load.mix", "default"));
+			config.put("hotShows", sids.length);
+			config.put("showSkew", System.getProperty("ticketmaster.load.showSkew", "1.2"));
+			config.put("userSkew", System.getProperty("ticketmaster.load.userSkew", "0.8"));
+			config.put("poolMax", esql.getPoolSize());
+			config.put("seed", seed);
+
+			long ok = 0;
+			long conflicts = 0;
+			long errors = 0;
+			LatencyHistogram all = new LatencyHistogram();
+			Map<String, Object> operations = new LinkedHashMap<String, Object>();
+			for (int op = 0; op < OPERATIONS.length; ++op) {
+				long count = stats.ok[op] + stats.conflicts[op] + stats.errors[op];
+				if (count == 0) {
+					continue;
+				}
+				Map<String, Object> entry = new LinkedHashMap<String, Object>();
+				entry.put("count", count);
+				entry.put("ok", stats.ok[op]);
+				entry.put("conflicts", stats.conflicts[op]);
+				entry.put("errors", stats.errors[op]);
+				entry.put("throughput", count / elapsed);
+				entry.put("serviceMs", percentiles(stats.service[op]));
+				entry.put("responseMs", percentiles(stats.response[op]));
+				operations.put(OPERATIONS[op], entry);
+				ok += stats.ok[op];
+				conflicts += stats.conflicts[op];
+				errors += stats.errors[op];
+				all.add(stats.response[op]);
+			}
+			long total = ok + conflicts + errors;
+			Map<String, Object> totals = new LinkedHashMap<String, Object>();
+			totals.put("ops", total);
+			totals.put("throughput", total / elapsed);
+			totals.put("conflictRate", conflicts / (double) Math.max(1, total));
+			totals.put("errorRate", errors / (double) Math.max(1, total));
+			totals.put("seatsSold", stats.seatsSold);
+			totals.put("responseMs", percentiles(all));
+
+			Map<String, Object> report = new LinkedHashMap<String, Object>();
+			report.put("config", config);
+			report.put("totals", totals);
+			report.put("operations", operations);
+			report.put("failures", new LinkedHashMap<String, Object>(stats.failures));
+			report.put("timeline", new ArrayList<Object>(stats.timeline));
+			return report;
+		}
+	}
+
+	private static Map<String, Object> percentiles(LatencyHistogram histogram) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("mean", histogram.getMean() / 1e6);
+		result.put("p50", histogram.getValueAtPercentile(50) / 1e6);
+		result.put("p99", histogram.getValueAtPercentile(99) / 1e6);
+		result.put("p999", histogram.getValueAtPercentile(99.9) / 1e6);
+		result.put("max", histogram.getMax() / 1e6);
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java LoadGenerator <dbname> <port> <user> [virtual users] [seconds] [output file]");
+			return;
+		}
+		int users = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+		long seconds = args.length > 4 ? Long.parseLong(args[4]) : 60;
+		String output = args.length > 5 ? args[5] : "loadtest-" + System.currentTimeMillis() + ".json";
+		Ticketmaster esql = new Ticketmaster(args[0], args[1], args[2], "");
+		try {
+			Map<String, Object> report = new LoadGenerator(esql, users, seconds).run();
+			try (Writer out = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+				out.write(Json.write(report));
+				out.write('\n');
+			}
+			System.out.println();
+			System.out.println(String.format("%-18s %9s %9s %7s %9s %9s %9s", "operation", "ops/s", "conflicts", "errors",
+				"p50 ms", "p99 ms", "p99.9 ms"));
+			@SuppressWarnings("unchecked")
+			Map<String, Map<String, Object>> operations = (Map<String, Map<String, Object>>) report.get("operations");
+			for (Map.Entry<String, Map<String, Object>> entry : operations.entrySet()) {
+				Map<String, Object> op = entry.getValue();
+				@SuppressWarnings("unchecked")
+				Map<String, Object> response = (Map<String, Object>) op.get("responseMs");
+				System.out.println(String.format("%-18s %9.1f %9d %7d %9.1f %9.1f %9.1f", entry.getKey(), op.get("throughput"),
+					op.get("conflicts"), op.get("errors"), response.get("p50"), response.get("p99"), response.get("p999")));
+			}
+			System.out.println("Report written to " + output);
+			System.out.println(esql.getPoolStats());
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
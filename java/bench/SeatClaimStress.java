@@ -0,0 +1,170 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class lets many clients book seats of the same show at once through
+ * Ticketmaster.claimSeats, the way AddBooking does, until the theater is
+ * sold out.  It checks that no seat was handed to two bookings, both in
+ * what the clients were told and in what ShowSeats holds afterwards, and
+ * reports the claims per second.  The bookings it made are removed again
+ * at the end.
+ *
+ * The show and theater with the most free seats are used unless given.
+ *
+ * Usage: ./bench.sh SeatClaimStress [clients] [seats per claim] [sid tid]
+ *
+ */
+
+public class SeatClaimStress {
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java SeatClaimStress <dbname> <port> <user> [clients] [seats per claim] [sid tid]");
+			return;
+		}
+		int clients = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		int seatsPerClaim = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+
+		// one connection per client so the clients really run side by side
+		System.setProperty("ticketmaster.pool.max", Integer.toString(clients));
+		Ticketmaster esql = new Ticketmaster(args[0], args[1], args[2], "");
+		try {
+			long sid;
+			long tid;
+			if (args.length > 6) {
+				sid = Long.parseLong(args[5]);
+				tid = Long.parseLong(args[6]);
+			} else {
+				TypedResult target = esql.executeQueryAndReturnTyped(
+					"SELECT SS.sid, CS.tid, count(*) FROM Showseats SS, Cinemaseats CS\n"
+					+ "WHERE SS.csid = CS.csid AND SS.bid IS NULL\n"
+					+ "GROUP BY SS.sid, CS.tid ORDER BY count(*) DESC LIMIT 1;");
+				if (target.size() == 0) {
+					System.err.println("There are no free seats to claim.");
+					return;
+				}
+				sid = target.getLong(0, 0);
+				tid = target.getLong(0, 1);
+			}
+			String email = esql.executeQueryAndReturnTyped("SELECT email FROM Users LIMIT 1;").getString(0, 0);
+			System.out.println("Show " + sid + ", theater " + tid + ": " + esql.getSeatInventory().countFree(sid, tid)
+				+ " free seats, " + clients + " clients claiming " + seatsPerClaim + " at a time");
+
+			run(esql, sid, tid, email, clients, seatsPerClaim);
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	private static long countFree(Ticketmaster esql, long sid, long tid) throws Exception {
+		return esql.executeQueryAndReturnTyped("SELECT count(*) FROM Showseats SS, Cinemaseats CS\n"
+			+ "WHERE SS.sid = ? AND SS.csid = CS.csid AND CS.tid = ? AND SS.bid IS NULL;", sid, tid).getLong(0, 0);
+	}
+
+	private static void run(final Ticketmaster esql, final long sid, final long tid, final String email,
+			int clients, final int seatsPerClaim) throws Exception {
+		// every seat handed out, and the booking it was handed to
+		final Map<Long, Long> owners = new ConcurrentHashMap<Long, Long>();
+		final List<Long> bookings = new ArrayList<Long>();
+		final AtomicLong claims = new AtomicLong();
+		final AtomicLong doubleSold = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final CountDownLatch go = new CountDownLatch(1);
+
+		ExecutorService threads = Executors.newFixedThreadPool(clients);
+		List<Future<?>> done = new ArrayList<Future<?>>();
+		for (int c = 0; c < clients; ++c) {
+			done.add(threads.submit(() -> {
+				go.await();
+				while (true) {
+					long bid = esql.nextId(Ticketmaster.BOOKINGS_SEQ);
+					TypedResult seats;
+					try {
+						esql.beginTransaction();
+						esql.executeUpdate("INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email) VALUES (?, 'Pending', now(), ?, ?, ?);",
+							bid, seatsPerClaim, sid, email);
+						seats = esql.claimSeats(bid, sid, tid, seatsPerClaim);
+						if (seats.size() < seatsPerClaim) {
+							// the free seats left are locked by other clients, or there are none
+							esql.rollbackTransaction();
+							if (countFree(esql, sid, tid) < seatsPerClaim) {
+								return null;
+							}
+							continue;
+						}
+						esql.commitTransaction();
+					} catch (Exception e) {
+						esql.rollbackTransaction();
+						errors.incrementAndGet();
+						System.err.println(e.getMessage());
+						return null;
+					}
+					synchronized (bookings) {
+						bookings.add(bid);
+					}
+					for (int i = 0; i < seats.size(); ++i) {
+						Long previous = owners.putIfAbsent(seats.getLong(i, 0), bid);
+						if (previous != null) {
+							doubleSold.incrementAndGet();
+							System.err.println("Seat " + seats.getLong(i, 0) + " sold to both " + previous + " and " + bid);
+						}
+					}
+					claims.incrementAndGet();
+				}
+			}));
+		}
+
+		long start = System.nanoTime();
+		go.countDown();
+		for (Future<?> f : done) {
+			f.get();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		threads.shutdown();
+
+		long[] bids = new long[bookings.size()];
+		for (int i = 0; i < bids.length; ++i) {
+			bids[i] = bookings.get(i);
+		}
+
+		// every seat a client was told about must still belong to its booking
+		long stored = esql.executeQueryAndReturnTyped("SELECT count(*) FROM Showseats WHERE bid = ANY(?);", bids).getLong(0, 0);
+
+		System.out.println(String.format("%d claims (%d seats) in %.2f s: %.0f claims/s", claims.get(), owners.size(),
+			seconds, claims.get() / seconds));
+		System.out.println("seats sold twice: " + doubleSold.get() + ", seats in ShowSeats: " + stored
+			+ " of " + owners.size() + ", errors: " + errors.get());
+
+		esql.beginTransaction();
+		esql.executeUpdate("UPDATE Showseats SET bid = null WHERE bid = ANY(?);", bids);
+		esql.executeUpdate("DELETE FROM Bookings WHERE bid = ANY(?);", bids);
+		esql.commitTransaction();
+		esql.getSeatInventory().evict(sid);
+		System.out.println("Removed the " + bids.length + " stress bookings.");
+
+		if (doubleSold.get() > 0 || stored != owners.size()) {
+			System.out.println("FAILED: a seat was sold twice");
+			System.exit(1);
+		}
+		System.out.println("OK: no seat was sold twice");
+	}
+}
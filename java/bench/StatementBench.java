@@ -0,0 +1,109 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class compares the cost of sending the AddBooking seat query as a
+ * concatenated literal through createStatement() (parsed and planned by the
+ * server on every call) with sending it through one reused PreparedStatement
+ * (parsed once, planned once the driver switches to a server-side prepare).
+ *
+ * Usage: ./bench.sh StatementBench [iterations]
+ *
+ */
+
+public class StatementBench {
+	private static final String LITERAL =
+		"SELECT SS.sid, SS.ssid, SS.price, SS.csid, CS.tid, T.tname, C.cname FROM Showseats SS, Cinemaseats CS, Theaters T, Cinemas C WHERE SS.sid = '%d' and SS.csid=CS.csid and CS.tid=T.tid and C.cid=T.cid;";
+	private static final String TEMPLATE =
+		"SELECT SS.sid, SS.ssid, SS.price, SS.csid, CS.tid, T.tname, C.cname FROM Showseats SS, Cinemaseats CS, Theaters T, Cinemas C WHERE SS.sid = ? and SS.csid=CS.csid and CS.tid=T.tid and C.cid=T.cid;";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java StatementBench <dbname> <port> <user> [iterations]");
+			return;
+		}
+		String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+		int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+
+		try (Connection conn = DriverManager.getConnection(url, args[2], "")) {
+			int shows = countShows(conn);
+			// warm up both paths so JIT and server caches are comparable
+			runLiteral(conn, shows, iterations / 10);
+			runPrepared(conn, shows, iterations / 10, 5);
+
+			report("createStatement + literal", runLiteral(conn, shows, iterations));
+			report("prepared, threshold 5", runPrepared(conn, shows, iterations, 5));
+			report("prepared, threshold 1", runPrepared(conn, shows, iterations, 1));
+			report("prepared, client-side only", runPrepared(conn, shows, iterations, 0));
+		}
+	}
+
+	private static int countShows(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT count(*) FROM Shows")) {
+			rs.next();
+			return Math.max(1, rs.getInt(1));
+		}
+	}
+
+	private static long[] runLiteral(Connection conn, int shows, int iterations) throws SQLException {
+		long[] samples = new long[iterations];
+		for (int i = 0; i < iterations; ++i) {
+			long start = System.nanoTime();
+			try (Statement stmt = conn.createStatement();
+					ResultSet rs = stmt.executeQuery(String.format(LITERAL, 1 + i % shows))) {
+				while (rs.next()) { }
+			}
+			samples[i] = System.nanoTime() - start;
+		}
+		return samples;
+	}
+
+	private static long[] runPrepared(Connection conn, int shows, int iterations, int threshold) throws SQLException {
+		long[] samples = new long[iterations];
+		try (PreparedStatement stmt = conn.prepareStatement(TEMPLATE)) {
+			stmt.unwrap(PGStatement.class).setPrepareThreshold(threshold);
+			for (int i = 0; i < iterations; ++i) {
+				long start = System.nanoTime();
+				stmt.setInt(1, 1 + i % shows);
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) { }
+				}
+				samples[i] = System.nanoTime() - start;
+			}
+		}
+		return samples;
+	}
+
+	private static void report(String name, long[] samples) {
+		Arrays.sort(samples);
+		long sum = 0;
+		for (long sample : samples) {
+			sum += sample;
+		}
+		System.out.printf("%-28s mean %8.1f us   p50 %8.1f us   p99 %8.1f us%n", name,
+			sum / 1000.0 / samples.length,
+			samples[samples.length / 2] / 1000.0,
+			samples[(int) (samples.length * 0.99)] / 1000.0);
+	}
+}
@@ -0,0 +1,9 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Example: ./export.sh csv "SELECT * FROM show_schedule" schedule.csv
+java -cp lib/*:bin/ ResultRenderer $dbname $PGPORT $(logname) "$@"
@@ -0,0 +1,8 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+
+cd $root/java
+
+# Example: ./generate.sh /tmp/$(logname)/data 10 && ./load.sh /tmp/$(logname)/data
+java -cp lib/*:bin/ DataGenerator "$@"
@@ -0,0 +1,9 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Example: ./load.sh ../data ../sql/create.sql
+java -cp lib/*:bin/ BulkLoader $dbname $PGPORT $(logname) "$@"
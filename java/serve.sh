@@ -0,0 +1,9 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Example: ./serve.sh 8080
+java -cp lib/*:bin/ TicketmasterServer $dbname $PGPORT $(logname) "$@"
@@ -0,0 +1,294 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs a file of commands without prompts.  Each line is a
+ * command name from Commands followed by name=value parameters, e.g.
+ *
+ *   add-booking email=ann@example.com pwd=secret sid=12 tid=3 seats=2
+ *   list-theaters-playing-show sid=12
+ *
+ * Values containing spaces are written in double quotes, with \" and \\ as
+ * escapes.  Blank lines and lines starting with # are skipped.
+ *
+ * Commands are cut into groups of consecutive lines.  One worker per pooled
+ * connection takes a group at a time and runs all of it in one transaction,
+ * so the group costs one commit instead of one per command.  If any command
+ * in a group fails, the group is rolled back and replayed one command per
+ * transaction, so every command still gets its own result.  Groups run in
+ * parallel, so commands in different groups must not depend on each other's
+ * order; keep dependent commands within ticketmaster.batch.groupSize lines.
+ *
+ * The output file gets one JSON object per command, in input order:
+ * {"line": n, "command": name, "status": 200, "result": ...} or, for a
+ * failed command, {"line": n, "command": name, "status": 4xx/5xx, "error": message}.
+ *
+ * Usage: ./batch.sh <command file> <output file>
+ *
+ */
+
+public class BatchRunner {
+	private final Ticketmaster esql;
+	private final Commands commands;
+	private final int groupSize;
+	private final int workers;
+
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong replayed = new AtomicLong();
+
+	/*
+	 * One parsed input line.  A line that could not be parsed keeps the
+	 * reason in error and is reported without running anything.
+	 */
+	private static final class Line {
+		final int number;
+		String name;
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		String error;
+
+		Line(int number) {
+			this.number = number;
+		}
+	}
+
+	public BatchRunner(Ticketmaster esql) {
+		this.esql = esql;
+		this.commands = new Commands(esql.getOperations());
+		this.groupSize = Integer.getInteger("ticketmaster.batch.groupSize", 100);
+		this.workers = Integer.getInteger("ticketmaster.batch.workers", esql.getPoolSize());
+	}
+
+	/**
+	 * Method to run every command of the input and write their results.
+	 * At most two groups per worker are read ahead, so memory does not grow
+	 * with the size of the input.
+	 *
+	 * @param in the command file
+	 * @param out where the results are written, one JSON object per line
+	 * @throws java.lang.Exception when reading or writing fails
+	 */
+	public void run(BufferedReader in, Writer out) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		try {
+			int number = 0;
+			List<Line> group = new ArrayList<Line>(groupSize);
+			String text;
+			while ((text = in.readLine()) != null) {
+				++number;
+				text = text.trim();
+				if (text.isEmpty() || text.startsWith("#")) {
+					continue;
+				}
+				group.add(parse(number, text));
+				if (group.size() == groupSize) {
+					final List<Line> full = group;
+					pending.add(pool.submit(() -> runGroup(full)));
+					group = new ArrayList<Line>(groupSize);
+					// write finished groups in order, keeping a bounded read-ahead
+					while (pending.size() >= 2 * workers) {
+						out.write(pending.poll().get());
+					}
+				}
+			}
+			if (!group.isEmpty()) {
+				final List<Line> last = group;
+				pending.add(pool.submit(() -> runGroup(last)));
+			}
+			while (!pending.isEmpty()) {
+				out.write(pending.poll().get());
+			}
+			out.flush();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Runs a group in one transaction, or command by command when any of
+	 * its commands fails.  Returns the result lines of the group.
+	 */
+	private String runGroup(List<Line> group) {
+		StringBuilder out = new StringBuilder();
+		boolean clean = true;
+		for (Line line : group) {
+			clean &= line.error == null && commands.get(line.name) != null;
+		}
+		if (clean) {
+			List<Object> results = new ArrayList<Object>(group.size());
+			try {
+				esql.beginTransaction();
+				try {
+					for (Line line : group) {
+						results.add(commands.get(line.name).run(new Commands.Params(line.params)));
+					}
+					esql.commitTransaction();
+				} catch (Exception e) {
+					esql.rollbackTransaction();
+					throw e;
+				}
+				for (int i = 0; i < group.size(); ++i) {
+					ok(group.get(i), results.get(i), out);
+				}
+				return out.toString();
+			} catch (Exception e) {
+				// the caches were only updated after commits, but rows the group
+				// read while it was open may have been loaded into them
+				esql.getSeatInventory().clear();
+				esql.getReferenceCache().invalidateAll();
+				esql.getTitleIndex().invalidate();
+				esql.getScheduleIndex().invalidate();
+				replayed.incrementAndGet();
+			}
+		}
+		for (Line line : group) {
+			runOne(line, out);
+		}
+		return out.toString();
+	}
+
+	private void runOne(Line line, StringBuilder out) {
+		if (line.error != null) {
+			failed(line, 400, line.error, out);
+			return;
+		}
+		Commands.Command command = commands.get(line.name);
+		if (command == null) {
+			failed(line, 404, "No such command: " + line.name, out);
+			return;
+		}
+		try {
+			ok(line, command.run(new Commands.Params(line.params)), out);
+		} catch (Exception e) {
+			failed(line, Commands.statusOf(e), String.valueOf(e.getMessage()), out);
+		}
+	}
+
+	private void ok(Line line, Object result, StringBuilder out) {
+		succeeded.incrementAndGet();
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("line", line.number);
+		record.put("command", line.name);
+		record.put("status", 200);
+		record.put("result", result);
+		Json.write(record, out);
+		out.append('\n');
+	}
+
+	private void failed(Line line, int status, String message, StringBuilder out) {
+		failed.incrementAndGet();
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("line", line.number);
+		record.put("command", line.name);
+		record.put("status", status);
+		record.put("error", message);
+		Json.write(record, out);
+		out.append('\n');
+	}
+
+	/*
+	 * Splits "name a=1 b="two words"" into the command name and parameters.
+	 */
+	private static Line parse(int number, String text) {
+		Line line = new Line(number);
+		int pos = 0;
+		int n = text.length();
+		while (pos < n && !Character.isWhitespace(text.charAt(pos))) {
+			++pos;
+		}
+		line.name = text.substring(0, pos);
+		while (true) {
+			while (pos < n && Character.isWhitespace(text.charAt(pos))) {
+				++pos;
+			}
+			if (pos == n) {
+				return line;
+			}
+			int eq = text.indexOf('=', pos);
+			if (eq < 0) {
+				line.error = "Expected name=value at column " + (pos + 1);
+				return line;
+			}
+			String name = text.substring(pos, eq);
+			pos = eq + 1;
+			StringBuilder value = new StringBuilder();
+			if (pos < n && text.charAt(pos) == '"') {
+				++pos;
+				while (pos < n && text.charAt(pos) != '"') {
+					char c = text.charAt(pos++);
+					if (c == '\\' && pos < n) {
+						c = text.charAt(pos++);
+					}
+					value.append(c);
+				}
+				if (pos == n) {
+					line.error = "Unterminated quote in parameter " + name;
+					return line;
+				}
+				++pos;
+			} else {
+				while (pos < n && !Character.isWhitespace(text.charAt(pos))) {
+					value.append(text.charAt(pos++));
+				}
+			}
+			line.params.put(name, value.toString());
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 5) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BatchRunner.class.getName()
+				+ " <dbname> <port> <user> <command file> <output file>");
+			return;
+		}
+		Ticketmaster esql = null;
+		try {
+			esql = new Ticketmaster(args[0], args[1], args[2], "");
+			BatchRunner runner = new BatchRunner(esql);
+			long start = System.nanoTime();
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(args[3]), StandardCharsets.UTF_8));
+					Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[4]), StandardCharsets.UTF_8))) {
+				runner.run(in, out);
+			}
+			double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+			long total = runner.succeeded.get() + runner.failed.get();
+			System.out.println(String.format("%d commands (%d ok, %d failed) in %.2f s: %.0f commands/s, %d groups replayed one by one",
+				total, runner.succeeded.get(), runner.failed.get(), seconds, total / seconds, runner.replayed.get()));
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			if (esql != null) {
+				esql.cleanup();
+			}
+		}
+	}
+}
@@ -0,0 +1,435 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class (re)creates the database from sql/create.sql, streaming the
+ * CSV files from the client with the COPY protocol instead of having the
+ * server read them from $PGDATA.
+ *
+ * The script is run in three parts:
+ *   1. everything before the first COPY (tables and sequences), as is;
+ *   2. every COPY ... FROM 'file', rewritten to COPY ... FROM STDIN and fed
+ *      from the data directory.  Primary keys, unique and foreign key
+ *      constraints are dropped first, and tables are loaded in parallel in
+ *      foreign key order: a table starts once the tables it references are in;
+ *   3. the constraints are put back, then everything after the last COPY
+ *      (secondary indexes, ANALYZE, sequence start values) runs, with the
+ *      CREATE INDEX statements in parallel.
+ *
+ * Settings (system properties):
+ *   ticketmaster.load.workers             tables loaded at once (number of cores)
+ *   ticketmaster.load.bufferSize          bytes sent per COPY message (1 MB)
+ *   ticketmaster.load.maintenanceWorkMem  memory per index build ("256MB")
+ *
+ * Usage: ./load.sh [data directory] [sql script]
+ *
+ */
+
+public class BulkLoader {
+	private static final Pattern COPY_FROM_FILE = Pattern.compile(
+		"COPY\\s+(\\w+)\\s*(\\([^)]*\\))?\\s*FROM\\s+'([^']*)'\\s*(.*)",
+		Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private final ConnectionPool pool;
+	private final File dataDir;
+	private final int workers;
+	private final int bufferSize;
+	private final String maintenanceWorkMem;
+
+	/*
+	 * One COPY of the script: the table, the statement that reads from the
+	 * client, and the CSV file it reads.
+	 */
+	private static final class Table {
+		final String name;
+		final String copy;
+		final File file;
+		long rows;
+		double seconds;
+
+		Table(String name, String copy, File file) {
+			this.name = name;
+			this.copy = copy;
+			this.file = file;
+		}
+	}
+
+	/*
+	 * A primary key, unique or foreign key constraint taken off for the load.
+	 */
+	private static final class Constraint {
+		final String table;
+		final String name;
+		final char type;
+		final String definition;
+		final String references;
+
+		Constraint(String table, String name, char type, String definition, String references) {
+			this.table = table;
+			this.name = name;
+			this.type = type;
+			this.definition = definition;
+			this.references = references;
+		}
+	}
+
+	public BulkLoader(ConnectionPool pool, File dataDir) {
+		this.pool = pool;
+		this.dataDir = dataDir;
+		this.workers = Integer.getInteger("ticketmaster.load.workers", Runtime.getRuntime().availableProcessors());
+		this.bufferSize = Integer.getInteger("ticketmaster.load.bufferSize", 1 << 20);
+		this.maintenanceWorkMem = System.getProperty("ticketmaster.load.maintenanceWorkMem", "256MB");
+	}
+
+	/**
+	 * Method to run the script, loading its COPY statements from the data
+	 * directory.
+	 *
+	 * @param script the path of create.sql
+	 * @throws java.lang.Exception when a statement or a COPY fails; the load stops there
+	 */
+	public void load(File script) throws Exception {
+		List<String> before = new ArrayList<String>();
+		List<Table> tables = new ArrayList<Table>();
+		List<String> after = new ArrayList<String>();
+		for (String sql : split(new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8))) {
+			Matcher copy = COPY_FROM_FILE.matcher(sql);
+			if (copy.matches()) {
+				String columns = copy.group(2) == null ? "" : " " + copy.group(2);
+				tables.add(new Table(copy.group(1), "COPY " + copy.group(1) + columns + " FROM STDIN " + copy.group(4),
+					new File(dataDir, copy.group(3))));
+			} else if (tables.isEmpty()) {
+				before.add(sql);
+			} else {
+				after.add(sql);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			long start = System.nanoTime();
+			runAll(before);
+			report("schema", start);
+
+			start = System.nanoTime();
+			List<Constraint> constraints = dropConstraints(tables);
+			report("drop " + constraints.size() + " constraints", start);
+
+			start = System.nanoTime();
+			copyAll(tables, constraints, executor);
+			long rows = 0;
+			long bytes = 0;
+			for (Table table : tables) {
+				System.out.println(String.format("  %-12s %,14d rows %9.2f s %,12.0f rows/s %8.1f MB/s", table.name, table.rows,
+					table.seconds, table.rows / Math.max(table.seconds, 1e-9), table.file.length() / 1e6 / Math.max(table.seconds, 1e-9)));
+				rows += table.rows;
+				bytes += table.file.length();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("copy: %,d rows, %.1f MB in %.2f s: %,.0f rows/s, %.1f MB/s", rows, bytes / 1e6, seconds,
+				rows / Math.max(seconds, 1e-9), bytes / 1e6 / Math.max(seconds, 1e-9)));
+
+			// keys first: the foreign keys need the referenced side's unique index
+			start = System.nanoTime();
+			List<String> keys = new ArrayList<String>();
+			List<String> foreignKeys = new ArrayList<String>();
+			for (Constraint c : constraints) {
+				String add = "ALTER TABLE " + c.table + " ADD CONSTRAINT " + c.name + " " + c.definition;
+				(c.type == 'f' ? foreignKeys : keys).add(add);
+			}
+			runParallel(keys, executor);
+			report("primary and unique keys", start);
+
+			start = System.nanoTime();
+			List<String> indexes = new ArrayList<String>();
+			List<String> rest = new ArrayList<String>();
+			for (String sql : after) {
+				(sql.regionMatches(true, 0, "CREATE INDEX", 0, 12) ? indexes : rest).add(sql);
+			}
+			runParallel(indexes, executor);
+			report(indexes.size() + " secondary indexes", start);
+
+			start = System.nanoTime();
+			runParallel(foreignKeys, executor);
+			report(foreignKeys.size() + " foreign keys", start);
+
+			start = System.nanoTime();
+			runAll(rest);
+			report("analyze and sequences", start);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void report(String step, long start) {
+		System.out.println(String.format("%s: %.2f s", step, (System.nanoTime() - start) / 1e9));
+	}
+
+	/*
+	 * Takes the key constraints off the loaded tables and returns them so
+	 * they can be put back.  Foreign keys go first since they depend on the
+	 * keys they reference.
+	 */
+	private List<Constraint> dropConstraints(List<Table> tables) throws SQLException {
+		List<Constraint> constraints = new ArrayList<Constraint>();
+		Connection conn = pool.borrow();
+		try {
+			String[] names = new String[tables.size()];
+			for (int i = 0; i < names.length; ++i) {
+				names[i] = tables.get(i).name.toLowerCase();
+			}
+			String query_constraints = "SELECT conrelid::regclass::text, conname, contype, pg_get_constraintdef(oid),\n"
+									+ "CASE WHEN contype = 'f' THEN confrelid::regclass::text END\n"
+									+ "FROM pg_constraint WHERE contype IN ('p', 'u', 'f') AND conrelid::regclass::text = ANY(?)\n"
+									+ "ORDER BY contype = 'f' DESC, conrelid::regclass::text, conname;";
+			Array array = conn.createArrayOf("text", names);
+			try (PreparedStatement stmt = conn.prepareStatement(query_constraints)) {
+				stmt.setArray(1, array);
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						constraints.add(new Constraint(rs.getString(1), rs.getString(2), rs.getString(3).charAt(0),
+							rs.getString(4), rs.getString(5)));
+					}
+				}
+			} finally {
+				array.free();
+			}
+			try (Statement stmt = conn.createStatement()) {
+				for (Constraint c : constraints) {
+					stmt.execute("ALTER TABLE " + c.table + " DROP CONSTRAINT " + c.name);
+				}
+			}
+		} finally {
+			pool.release(conn);
+		}
+		return constraints;
+	}
+
+	/*
+	 * Loads every table, each one once the tables its foreign keys reference
+	 * are loaded.
+	 */
+	private void copyAll(List<Table> tables, List<Constraint> constraints, ExecutorService executor) throws Exception {
+		Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+		for (Constraint c : constraints) {
+			if (c.type == 'f' && !c.references.equals(c.table)) {
+				parents.computeIfAbsent(c.table, k -> new LinkedHashSet<String>()).add(c.references);
+			}
+		}
+		Map<String, Table> byName = new LinkedHashMap<String, Table>();
+		for (Table table : tables) {
+			byName.put(table.name.toLowerCase(), table);
+		}
+		Map<String, CompletableFuture<Void>> loaded = new HashMap<String, CompletableFuture<Void>>();
+		for (String name : byName.keySet()) {
+			schedule(name, byName, parents, loaded, executor);
+		}
+		join(loaded.values());
+	}
+
+	private CompletableFuture<Void> schedule(String name, Map<String, Table> byName, Map<String, Set<String>> parents,
+			Map<String, CompletableFuture<Void>> loaded, ExecutorService executor) {
+		CompletableFuture<Void> future = loaded.get(name);
+		if (future != null) {
+			return future;
+		}
+		List<CompletableFuture<Void>> before = new ArrayList<CompletableFuture<Void>>();
+		for (String parent : parents.getOrDefault(name, new LinkedHashSet<String>())) {
+			if (byName.containsKey(parent)) {
+				before.add(schedule(parent, byName, parents, loaded, executor));
+			}
+		}
+		final Table table = byName.get(name);
+		future = CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0])).thenRunAsync(() -> {
+			try {
+				copy(table);
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+		loaded.put(name, future);
+		return future;
+	}
+
+	private void copy(Table table) throws SQLException, IOException {
+		long start = System.nanoTime();
+		Connection conn = pool.borrow();
+		try (InputStream in = new BufferedInputStream(new FileInputStream(table.file), bufferSize)) {
+			table.rows = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(table.copy, in, bufferSize);
+		} catch (SQLException e) {
+			throw new SQLException(table.name + ": " + e.getMessage(), e.getSQLState(), e);
+		} finally {
+			pool.release(conn);
+		}
+		table.seconds = (System.nanoTime() - start) / 1e9;
+	}
+
+	private void runAll(List<String> statements) throws SQLException {
+		Connection conn = pool.borrow();
+		try (Statement stmt = conn.createStatement()) {
+			for (String sql : statements) {
+				stmt.execute(sql);
+			}
+		} finally {
+			pool.release(conn);
+		}
+	}
+
+	private void runParallel(List<String> statements, ExecutorService executor) throws Exception {
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for (final String sql : statements) {
+			futures.add(CompletableFuture.runAsync(() -> {
+				try {
+					Connection conn = pool.borrow();
+					try (Statement stmt = conn.createStatement()) {
+						stmt.execute("SET maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+						stmt.execute(sql);
+					} finally {
+						pool.release(conn);
+					}
+				} catch (SQLException e) {
+					throw new CompletionException(new SQLException(e.getMessage() + "\n  in: " + sql, e.getSQLState(), e));
+				}
+			}, executor));
+		}
+		join(futures);
+	}
+
+	private static void join(Iterable<CompletableFuture<Void>> futures) throws Exception {
+		try {
+			for (CompletableFuture<Void> future : futures) {
+				future.join();
+			}
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+
+	/*
+	 * Splits a script into statements on the semicolons that are not inside
+	 * quotes, dollar quotes or comments, dropping the comments.
+	 */
+	static List<String> split(String script) {
+		List<String> statements = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		int n = script.length();
+		int i = 0;
+		while (i < n) {
+			char c = script.charAt(i);
+			if (c == '-' && i + 1 < n && script.charAt(i + 1) == '-') {
+				while (i < n && script.charAt(i) != '\n') {
+					++i;
+				}
+			} else if (c == '\'') {
+				int end = i + 1;
+				while (end < n) {
+					if (script.charAt(end) == '\'') {
+						// '' is a quote inside the string
+						if (end + 1 < n && script.charAt(end + 1) == '\'') {
+							end += 2;
+							continue;
+						}
+						break;
+					}
+					++end;
+				}
+				end = Math.min(end + 1, n);
+				sb.append(script, i, end);
+				i = end;
+			} else if (c == '$' && (sb.length() == 0 || !Character.isLetterOrDigit(sb.charAt(sb.length() - 1)))) {
+				int tagEnd = script.indexOf('$', i + 1);
+				String tag = tagEnd < 0 ? null : script.substring(i, tagEnd + 1);
+				if (tag != null && tag.matches("\\$([A-Za-z_]\\w*)?\\$")) {
+					int close = script.indexOf(tag, tagEnd + 1);
+					int end = close < 0 ? n : close + tag.length();
+					sb.append(script, i, end);
+					i = end;
+				} else {
+					sb.append(c);
+					++i;
+				}
+			} else if (c == ';') {
+				String sql = sb.toString().trim();
+				if (!sql.isEmpty()) {
+					statements.add(sql);
+				}
+				sb.setLength(0);
+				++i;
+			} else {
+				sb.append(c);
+				++i;
+			}
+		}
+		String sql = sb.toString().trim();
+		if (!sql.isEmpty()) {
+			statements.add(sql);
+		}
+		return statements;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName()
+				+ " <dbname> <port> <user> [data directory] [sql script]");
+			return;
+		}
+		File dataDir = new File(args.length > 3 ? args[3] : "../data");
+		File script = new File(args.length > 4 ? args[4] : "../sql/create.sql");
+		int workers = Integer.getInteger("ticketmaster.load.workers", Runtime.getRuntime().availableProcessors());
+		ConnectionPool pool = null;
+		try {
+			pool = new ConnectionPool("jdbc:postgresql://localhost:" + args[1] + "/" + args[0], args[2], "", 1, workers);
+			// a COPY or index build holds its connection for minutes on a large data set
+			pool.setLeakThreshold(0);
+			long start = System.nanoTime();
+			new BulkLoader(pool, dataDir).load(script);
+			System.out.println(String.format("Loaded %s from %s in %.2f s", args[0], dataDir, (System.nanoTime() - start) / 1e9));
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		} finally {
+			if (pool != null) {
+				pool.close();
+			}
+		}
+	}
+}
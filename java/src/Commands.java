@@ -0,0 +1,245 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * This class names the operations for the non-interactive front ends: the
+ * HTTP server and batch mode.  Each command is the operation name in kebab
+ * case (e.g. add-booking) and takes its inputs as named string parameters.
+ * Changes return the operation's summary; listings return
+ * {"count": n, "rows": [...]}.  Listings that take a password are
+ * registered with the changes, so the server only accepts them by POST and
+ * the password never ends up in a URL.
+ *
+ */
+
+public class Commands {
+	/**
+	 * One command: takes the named parameters and returns what is sent back
+	 * as JSON.
+	 */
+	public interface Command {
+		Object run(Params params) throws Exception;
+	}
+
+	/**
+	 * The named parameters of one command.
+	 */
+	public static final class Params {
+		private final Map<String, String> values;
+
+		public Params(Map<String, String> values) {
+			this.values = values;
+		}
+
+		public String get(String name) {
+			String value = values.get(name);
+			if (value == null) {
+				throw new IllegalArgumentException("Missing parameter: " + name);
+			}
+			return value;
+		}
+
+		public String get(String name, String fallback) {
+			String value = values.get(name);
+			return value == null ? fallback : value;
+		}
+
+		public long getLong(String name) {
+			try {
+				return Long.parseLong(get(name));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Parameter " + name + " has to be an integer");
+			}
+		}
+
+		public int getInt(String name) {
+			try {
+				return Integer.parseInt(get(name));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Parameter " + name + " has to be an integer");
+			}
+		}
+	}
+
+	private final Operations ops;
+	private final Map<String, Command> changes = new LinkedHashMap<String, Command>();
+	private final Map<String, Command> listings = new LinkedHashMap<String, Command>();
+
+	public Commands(Operations ops) {
+		this.ops = ops;
+		register();
+	}
+
+	/**
+	 * Method to look a command up by name.
+	 *
+	 * @return the command, or null when there is none by that name
+	 */
+	public Command get(String name) {
+		Command command = changes.get(name);
+		return command != null ? command : listings.get(name);
+	}
+
+	/**
+	 * Method to look up a command that changes data or takes a password.
+	 */
+	public Command getChange(String name) {
+		return changes.get(name);
+	}
+
+	/**
+	 * Method to look up a command that only reads data.
+	 */
+	public Command getListing(String name) {
+		return listings.get(name);
+	}
+
+	/**
+	 * Method to map a failed command to an HTTP style status code: 400 for
+	 * invalid input, 401 for a wrong password, 404 when something does not
+	 * exist, 409 for a conflict or constraint violation, 500 otherwise.
+	 */
+	public static int statusOf(Exception e) {
+		if (e instanceof IllegalArgumentException) {
+			return 400;
+		}
+		if (e instanceof SecurityException) {
+			return 401;
+		}
+		if (e instanceof NoSuchElementException) {
+			return 404;
+		}
+		if (e instanceof IllegalStateException) {
+			return 409;
+		}
+		if (e instanceof SQLException) {
+			// class 23 is a constraint violation, e.g. a duplicate email
+			String state = ((SQLException) e).getSQLState();
+			return state != null && state.startsWith("23") ? 409 : 500;
+		}
+		return 500;
+	}
+
+	private static Map<String, Object> rows(Json.Rows rows) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("count", rows.size());
+		result.put("rows", rows);
+		return result;
+	}
+
+	private static Map<String, Object> rows(TypedResult rows) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("count", rows.size());
+		result.put("rows", rows);
+		return result;
+	}
+
+	private void authenticate(Params p) throws SQLException {
+		if (!ops.authenticate(p.get("email"), p.get("pwd"))) {
+			throw new SecurityException("Wrong email or password.");
+		}
+	}
+
+	private void register() {
+		changes.put("add-user", p -> {
+			ops.addUser(p.get("email"), p.get("lname"), p.get("fname"), p.getLong("phone"), p.get("pwd"));
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("email", p.get("email"));
+			return result;
+		});
+		changes.put("add-booking", p -> {
+			authenticate(p);
+			return ops.addBooking(p.get("email"), p.getLong("sid"), p.getLong("tid"), p.getInt("seats"));
+		});
+		changes.put("add-movie-showing-to-theater", p -> ops.addMovieShowing(p.get("title"), p.get("rdate"), p.get("country"),
+			p.get("description", ""), Integer.parseInt(p.get("duration", "0")), p.get("lang", ""), p.get("genre", ""),
+			p.get("sdate"), p.get("sttime"), p.get("edtime"), p.getLong("tid")));
+		changes.put("cancel-pending-bookings", p -> ops.cancelPendingBookings());
+		changes.put("change-seats-for-booking", p -> ops.changeSeats(p.getLong("bid"), p.getInt("seats")));
+		changes.put("remove-payment", p -> ops.removePayment(p.getLong("pid")));
+		changes.put("clear-cancelled-bookings", p -> ops.clearCancelledBookings());
+		changes.put("remove-shows-on-date", p -> ops.removeShowsOnDate(p.getLong("cid"), p.get("date")));
+		changes.put("rebuild-show-schedule", p -> ops.rebuildShowSchedule());
+		// a listing, but it takes a password, so it is POST only
+		changes.put("list-booking-info-for-user", p -> {
+			authenticate(p);
+			int limit = Integer.parseInt(p.get("limit", Integer.getInteger("ticketmaster.pageSize", 20).toString()));
+			if (limit <= 0) {
+				throw new IllegalArgumentException("Parameter limit has to be positive");
+			}
+			limit = Math.min(limit, Integer.getInteger("ticketmaster.maxPageSize", 1000));
+			long after = Long.parseLong(p.get("after", Long.toString(Long.MIN_VALUE)));
+			TypedResult page = ops.listBookingInfoForUser(p.get("email"), after, limit);
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("count", page.size());
+			result.put("rows", page);
+			// pass as "after" to get the next page
+			result.put("next", page.size() == limit ? page.getLong(page.size() - 1, 0) : null);
+			return result;
+		});
+
+		listings.put("list-theaters-playing-show", p -> {
+			Json.Rows rows = new Json.Rows();
+			ops.listTheatersPlayingShow(p.getLong("sid"), rows);
+			return rows(rows);
+		});
+		listings.put("list-shows-starting-on-time-and-date", p -> {
+			return rows(ops.listShowsStartingOnTimeAndDate(p.get("date"), p.get("time")));
+		});
+		listings.put("list-movie-titles-containing-love-released-after-2010", p -> {
+			Json.Rows rows = new Json.Rows();
+			if (p.get("keyword", null) == null && p.get("after", null) == null) {
+				ops.listMovieTitlesContainingLoveReleasedAfter2010(rows);
+			} else {
+				ops.searchMovieTitles(p.get("keyword", "love"), p.get("after", "2010-12-31"), Long.MAX_VALUE, rows);
+			}
+			return rows(rows);
+		});
+		listings.put("search-movie-titles", p -> {
+			Json.Rows rows = new Json.Rows();
+			ops.searchMovieTitles(p.get("keyword"), p.get("after", null), Long.parseLong(p.get("limit", "20")), rows);
+			return rows(rows);
+		});
+		listings.put("suggest-movie-titles", p -> {
+			List<Map<String, Object>> suggestions = new ArrayList<Map<String, Object>>();
+			for (TitleIndex.Match match : ops.suggestMovieTitles(p.get("q"), Integer.parseInt(p.get("limit", "10")))) {
+				Map<String, Object> row = new LinkedHashMap<String, Object>();
+				row.put("mvid", match.mvid);
+				row.put("title", match.title);
+				row.put("score", Math.round(match.score * 1000) / 1000.0);
+				suggestions.add(row);
+			}
+			Map<String, Object> result = new LinkedHashMap<String, Object>();
+			result.put("count", suggestions.size());
+			result.put("rows", suggestions);
+			return result;
+		});
+		listings.put("list-users-with-pending-booking", p -> {
+			Json.Rows rows = new Json.Rows();
+			ops.listUsersWithPendingBooking(rows);
+			return rows(rows);
+		});
+		listings.put("list-movie-and-show-info-at-cinema-in-date-range", p -> {
+			long mvid = ops.findMovie(p.get("movie"));
+			return rows(ops.listMovieAndShowInfoAtCinemaInDateRange(mvid, p.get("from"), p.get("to"), p.get("cinema", null)));
+		});
+		listings.put("check-show-schedule", p -> rows(ops.checkShowSchedule()));
+	}
+}
@@ -0,0 +1,445 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps a bounded set of physical PostgreSQL connections and
+ * hands them out to callers one at a time.  Connections are validated when
+ * they are borrowed after sitting idle, idle connections above the minimum
+ * size are closed by a background housekeeper, and connections that are held
+ * for too long are reported as leaks.  Each connection carries its own
+ * StatementCache so prepared statements survive between borrows.
+ *
+ */
+
+public class ConnectionPool {
+	private final String url;
+	private final Properties props;
+	private final int minSize;
+	private final int maxSize;
+
+	// tunables, times are in milliseconds
+	private long borrowTimeout = 30000;
+	private long validationInterval = 1000;
+	private long idleTimeout = 600000;
+	private long leakThreshold = 60000;
+	// capturing the borrow site costs a stack trace per borrow, so it is for debugging only
+	private boolean leakStackTraces = false;
+	private int statementCacheSize = 64;
+	private int prepareThreshold = 5;
+
+	// idle connections, most recently returned first
+	private final ArrayDeque<Entry> idle = new ArrayDeque<Entry>();
+	// borrowed connections and where they were borrowed from
+	private final Map<Connection, Entry> borrowed = new IdentityHashMap<Connection, Entry>();
+	private int total = 0;
+	private boolean closed = false;
+
+	// metrics
+	private long borrowCount = 0;
+	private long createdCount = 0;
+	private long destroyedCount = 0;
+	private long validationFailures = 0;
+	private long waitCount = 0;
+	private long waitNanos = 0;
+	private long timeoutCount = 0;
+	private long leakCount = 0;
+
+	private final ScheduledExecutorService housekeeper;
+
+	/**
+	 * A physical connection together with its bookkeeping.
+	 */
+	private static class Entry {
+		final Connection connection;
+		long lastUsed;
+		long borrowedAt;
+		Throwable borrowSite;
+		boolean leakReported;
+		StatementCache statements;
+
+		Entry(Connection connection) {
+			this.connection = connection;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Creates the pool and opens the minimum number of connections.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the password of the database user
+	 * @param minSize number of connections kept open even when idle
+	 * @param maxSize upper bound on open connections
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+		}
+		this.url = url;
+		this.props = new Properties();
+		this.props.setProperty("user", user);
+		this.props.setProperty("password", passwd);
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+
+		try {
+			for (int i = 0; i < minSize; ++i) {
+				Entry entry = new Entry(open());
+				synchronized (this) {
+					idle.push(entry);
+					++total;
+				}
+			}
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+
+		this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-housekeeper");
+			t.setDaemon(true);
+			return t;
+		});
+		this.housekeeper.scheduleWithFixedDelay(this::housekeep, 5, 5, TimeUnit.SECONDS);
+	}
+
+	public void setBorrowTimeout(long millis) { this.borrowTimeout = millis; }
+	public void setValidationInterval(long millis) { this.validationInterval = millis; }
+	public void setIdleTimeout(long millis) { this.idleTimeout = millis; }
+	public void setLeakThreshold(long millis) { this.leakThreshold = millis; }
+	public void setLeakStackTraces(boolean capture) { this.leakStackTraces = capture; }
+	public void setStatementCacheSize(int size) { this.statementCacheSize = size; }
+	public void setPrepareThreshold(int executions) { this.prepareThreshold = executions; }
+
+	/**
+	 * Method to borrow a connection from the pool.  Blocks until a connection
+	 * is free or the borrow timeout expires.  A connection that has been idle
+	 * longer than the validation interval is checked before it is returned and
+	 * replaced if it is no longer usable.
+	 *
+	 * @return an open connection in autocommit mode
+	 * @throws java.sql.SQLException when no connection could be obtained
+	 */
+	public Connection borrow() throws SQLException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeout);
+		while (true) {
+			Entry entry = null;
+			boolean create = false;
+			synchronized (this) {
+				if (closed) {
+					throw new SQLException("Connection pool is closed", "08003");
+				}
+				long waitStart = 0;
+				while (idle.isEmpty() && total >= maxSize) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						++timeoutCount;
+						throw new SQLException("Timed out waiting for a database connection ("
+							+ total + " in use)", "08001");
+					}
+					if (waitStart == 0) {
+						waitStart = System.nanoTime();
+						++waitCount;
+					}
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection", "08001");
+					}
+					if (closed) {
+						throw new SQLException("Connection pool is closed", "08003");
+					}
+				}
+				if (waitStart != 0) {
+					waitNanos += System.nanoTime() - waitStart;
+				}
+				if (!idle.isEmpty()) {
+					entry = idle.pop();
+				} else {
+					// reserve a slot and open the connection outside the lock
+					++total;
+					create = true;
+				}
+			}
+
+			if (create) {
+				try {
+					entry = new Entry(open());
+				} catch (SQLException e) {
+					synchronized (this) {
+						--total;
+						notifyAll();
+					}
+					throw e;
+				}
+			} else if (System.currentTimeMillis() - entry.lastUsed > validationInterval && !isUsable(entry.connection)) {
+				synchronized (this) {
+					++validationFailures;
+				}
+				discard(entry);
+				continue;
+			}
+
+			synchronized (this) {
+				entry.borrowedAt = System.currentTimeMillis();
+				entry.borrowSite = leakThreshold > 0 && leakStackTraces ? new Throwable("Connection borrowed here") : null;
+				entry.leakReported = false;
+				borrowed.put(entry.connection, entry);
+				++borrowCount;
+			}
+			return entry.connection;
+		}
+	}
+
+	/**
+	 * Method to give a borrowed connection back to the pool.  Any open
+	 * transaction is rolled back and autocommit is switched back on.  A
+	 * connection that cannot be reset is closed instead of being reused.
+	 *
+	 * @param conn the connection obtained from borrow()
+	 */
+	public void release(Connection conn) {
+		if (conn == null) {
+			return;
+		}
+		Entry entry;
+		synchronized (this) {
+			entry = borrowed.remove(conn);
+		}
+		if (entry == null) {
+			return;
+		}
+		if (entry.leakReported) {
+			System.err.println("Leaked connection returned after "
+				+ (System.currentTimeMillis() - entry.borrowedAt) + " ms");
+		}
+		try {
+			if (conn.isClosed()) {
+				discard(entry);
+				return;
+			}
+			if (!conn.getAutoCommit()) {
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			discard(entry);
+			return;
+		}
+		entry.lastUsed = System.currentTimeMillis();
+		entry.borrowSite = null;
+		synchronized (this) {
+			if (closed) {
+				--total;
+				closeQuietly(conn);
+			} else {
+				idle.push(entry);
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Method to give back a borrowed connection that is known to be broken,
+	 * e.g. after a communication error.  The connection is closed and its slot
+	 * is freed for a new one.
+	 *
+	 * @param conn the connection obtained from borrow()
+	 */
+	public void invalidate(Connection conn) {
+		Entry entry;
+		synchronized (this) {
+			entry = borrowed.remove(conn);
+		}
+		if (entry != null) {
+			discard(entry);
+		}
+	}
+
+	/**
+	 * Method to get the statement cache of a borrowed connection.  The cache
+	 * is created the first time it is asked for.
+	 *
+	 * @param conn the connection obtained from borrow()
+	 * @return the statement cache that belongs to the connection
+	 */
+	public StatementCache getStatementCache(Connection conn) {
+		Entry entry;
+		synchronized (this) {
+			entry = borrowed.get(conn);
+		}
+		if (entry == null) {
+			throw new IllegalStateException("Connection is not borrowed from this pool");
+		}
+		if (entry.statements == null) {
+			entry.statements = new StatementCache(conn, statementCacheSize, prepareThreshold);
+		}
+		return entry.statements;
+	}
+
+	/**
+	 * Method to close every connection and stop the housekeeper.  Borrowed
+	 * connections are closed as they are released.
+	 */
+	public void close() {
+		List<Entry> toClose = new ArrayList<Entry>();
+		synchronized (this) {
+			closed = true;
+			toClose.addAll(idle);
+			total -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		if (housekeeper != null) {
+			housekeeper.shutdownNow();
+		}
+		for (Entry entry : toClose) {
+			closeQuietly(entry.connection);
+		}
+	}
+
+	/**
+	 * Method to summarize the pool state and counters.
+	 *
+	 * @return one line per metric
+	 */
+	public synchronized String getStats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("pool.size.min\t").append(minSize).append('\n');
+		sb.append("pool.size.max\t").append(maxSize).append('\n');
+		sb.append("pool.connections.total\t").append(total).append('\n');
+		sb.append("pool.connections.idle\t").append(idle.size()).append('\n');
+		sb.append("pool.connections.active\t").append(borrowed.size()).append('\n');
+		sb.append("pool.borrows\t").append(borrowCount).append('\n');
+		sb.append("pool.waits\t").append(waitCount).append('\n');
+		sb.append("pool.wait.ms.total\t").append(TimeUnit.NANOSECONDS.toMillis(waitNanos)).append('\n');
+		sb.append("pool.timeouts\t").append(timeoutCount).append('\n');
+		sb.append("pool.created\t").append(createdCount).append('\n');
+		sb.append("pool.destroyed\t").append(destroyedCount).append('\n');
+		sb.append("pool.validation.failures\t").append(validationFailures).append('\n');
+		sb.append("pool.leaks\t").append(leakCount).append('\n');
+		long hits = 0, misses = 0, evictions = 0;
+		List<Entry> entries = new ArrayList<Entry>(idle);
+		entries.addAll(borrowed.values());
+		for (Entry entry : entries) {
+			if (entry.statements != null) {
+				hits += entry.statements.getHits();
+				misses += entry.statements.getMisses();
+				evictions += entry.statements.getEvictions();
+			}
+		}
+		sb.append("statements.cache.hits\t").append(hits).append('\n');
+		sb.append("statements.cache.misses\t").append(misses).append('\n');
+		sb.append("statements.cache.evictions\t").append(evictions).append('\n');
+		return sb.toString();
+	}
+
+	public synchronized int getActiveCount() { return borrowed.size(); }
+	public synchronized int getIdleCount() { return idle.size(); }
+	public int getMaxSize() { return maxSize; }
+
+	private Connection open() throws SQLException {
+		Connection conn = DriverManager.getConnection(url, props);
+		synchronized (this) {
+			++createdCount;
+		}
+		return conn;
+	}
+
+	private boolean isUsable(Connection conn) {
+		try {
+			return conn.isValid(5);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discard(Entry entry) {
+		closeQuietly(entry.connection);
+		synchronized (this) {
+			--total;
+			++destroyedCount;
+			notifyAll();
+		}
+	}
+
+	private void closeQuietly(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+
+	/*
+	 * Runs periodically: closes connections idle longer than the idle timeout
+	 * while keeping at least minSize open, and reports connections borrowed
+	 * longer than the leak threshold.
+	 */
+	private void housekeep() {
+		long now = System.currentTimeMillis();
+		List<Entry> evicted = new ArrayList<Entry>();
+		List<Entry> leaked = new ArrayList<Entry>();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			// the oldest idle connections sit at the tail of the deque
+			Iterator<Entry> it = idle.descendingIterator();
+			while (it.hasNext() && total - evicted.size() > minSize) {
+				Entry entry = it.next();
+				if (now - entry.lastUsed < idleTimeout) {
+					break;
+				}
+				it.remove();
+				evicted.add(entry);
+			}
+			if (leakThreshold > 0) {
+				for (Entry entry : borrowed.values()) {
+					if (!entry.leakReported && now - entry.borrowedAt > leakThreshold) {
+						entry.leakReported = true;
+						++leakCount;
+						leaked.add(entry);
+					}
+				}
+			}
+		}
+		for (Entry entry : evicted) {
+			discard(entry);
+		}
+		for (Entry entry : leaked) {
+			System.err.println("Possible connection leak: connection held for "
+				+ (now - entry.borrowedAt) + " ms");
+			if (entry.borrowSite != null) {
+				entry.borrowSite.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,646 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic data set for the eleven tables of
+ * sql/create.sql, in the same CSV layout as data/, at any scale.  Load it
+ * with ./load.sh <output dir>.
+ *
+ * At scale factor 1 there are 100 cities, 200 cinemas of 4 to 12 theaters
+ * with 60 to 300 seats each, 1,000 movies, 100,000 users and 5,000 shows,
+ * which gives about 1 million ShowSeats rows; everything grows linearly
+ * with the scale factor.  Each show plays in one theater, sometimes two
+ * of the same cinema, and has a ShowSeats row for every seat there, so
+ * UNIQUE(sid, csid) holds.  Bookings hold runs of neighbouring seats;
+ * Paid and Pending bookings own their ShowSeats rows, Cancelled ones own
+ * none, and every Paid booking has a payment.
+ *
+ * Popularity is skewed with Zipf distributions: a few movies get most of
+ * the shows and fill their theaters, and a few users make most of the
+ * bookings.
+ *
+ * The output only depends on the scale factor and the seed.  Every row is
+ * computed from its own key with a random generator seeded from (seed,
+ * table, key), so chunks of rows are made on all cores and written in
+ * order.  Memory does not grow with the number of rows: only the first
+ * key of each cinema's theaters, each theater's seats and each show's
+ * ShowSeats and bookings are kept.
+ *
+ * Settings (system properties):
+ *   ticketmaster.generate.workers     threads making rows (number of cores)
+ *   ticketmaster.generate.movieSkew   Zipf exponent of shows per movie (1.0)
+ *   ticketmaster.generate.userSkew    Zipf exponent of bookings per user (0.8)
+ *   ticketmaster.generate.cinemaSkew  Zipf exponent of shows per cinema (0.5)
+ *
+ * Usage: ./generate.sh <output dir> [scale factor] [seed]
+ *
+ */
+
+public class DataGenerator {
+	// the table each random stream belongs to
+	private static final long CITY = 1, CINEMA = 2, THEATER = 3, MOVIE = 4, USER = 5, SHOW = 6, BOOKING = 7, PAYMENT = 8;
+
+	private static final LocalDate FIRST_SHOW_DATE = LocalDate.of(2019, 1, 1);
+	private static final int SHOW_DAYS = 365;
+	private static final int MAX_SEATS_PER_BOOKING = 6;
+
+	private static final String[] CITY_NAMES = { "Springfield", "Riverside", "Franklin", "Greenville", "Bristol", "Clinton",
+		"Fairview", "Salem", "Madison", "Georgetown", "Arlington", "Ashland", "Dover", "Oxford", "Jackson", "Burlington",
+		"Manchester", "Milton", "Newport", "Auburn", "Dayton", "Lexington", "Milford", "Winchester", "Hudson", "Kingston" };
+	private static final String[] STATES = { "AL", "AZ", "CA", "CO", "CT", "FL", "GA", "IL", "IN", "KY", "MA", "MD", "MI",
+		"MN", "MO", "NC", "NJ", "NV", "NY", "OH", "OR", "PA", "SC", "TN", "TX", "UT", "VA", "WA", "WI" };
+	private static final String[] CHAINS = { "Regal Cinemas", "AMC", "Cinemark", "Studio Movie Grill", "Harkins Theaters",
+		"Marcus Theatres", "Landmark Theatres", "Alamo Drafthouse", "IMAX Corporation", "General Cinemas" };
+	private static final String[] ADJECTIVES = { "Silent", "Broken", "Endless", "Hidden", "Golden", "Last", "Crimson",
+		"Lost", "Wild", "Frozen", "Burning", "Secret", "Dark", "Electric", "Midnight", "Savage", "Quiet", "Eternal",
+		"Fallen", "Rising", "Distant", "Shattered", "Lonely", "Brave", "Hollow" };
+	private static final String[] NOUNS = { "Love", "Kingdom", "River", "Storm", "Empire", "Heart", "Shadow", "Garden",
+		"Horizon", "City", "Dream", "Promise", "Road", "Summer", "Winter", "Mountain", "Ocean", "Night", "Fire",
+		"Love Story", "Machine", "Journey", "Legacy", "Island", "Sky", "Letters", "Game", "Frontier", "Song", "Mirror" };
+	private static final String[] COUNTRIES = { "United States", "United Kingdom", "France", "Germany", "Japan", "India",
+		"South Korea", "Canada", "Spain", "Italy" };
+	private static final String[] LANGS = { "en", "en", "fr", "de", "ja", "hi", "ko", "en", "es", "it" };
+	private static final String[] GENRES = { "Action", "Drama", "Comedy", "Horror", "Romance", "Thriller", "Animation",
+		"Documentary", "Sci-Fi", "Fantasy" };
+	private static final String[] FIRST_NAMES = { "James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael",
+		"Linda", "David", "Elizabeth", "William", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah",
+		"Carlos", "Karen", "Wei", "Aisha", "Hiroshi", "Priya", "Mateo", "Olga", "Kwame", "Ingrid", "Omar", "Lucia" };
+	private static final String[] LAST_NAMES = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller",
+		"Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore",
+		"Jackson", "Martin", "Lee", "Nguyen", "Chen", "Patel", "Kim", "Okafor", "Schmidt", "Rossi", "Tanaka", "Silva" };
+
+	private final long seed;
+	private final File outDir;
+	private final int workers;
+
+	private final int cities;
+	private final int cinemas;
+	private final int movies;
+	private final int users;
+	private final int shows;
+
+	// first key - 1 of each cinema's theaters, each theater's seats, each
+	// show's ShowSeats and each show's bookings; the last entry is the total
+	private long[] theaterStart;
+	private long[] seatStart;
+	private long[] showSeatStart;
+	private long[] bookingStart;
+
+	private final Zipf movieZipf;
+	private final Zipf userZipf;
+	private final Zipf cinemaZipf;
+
+	private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	public DataGenerator(File outDir, double scale, long seed) {
+		this.outDir = outDir;
+		this.seed = seed;
+		this.workers = Integer.getInteger("ticketmaster.generate.workers", Runtime.getRuntime().availableProcessors());
+		this.cities = scaled(100, scale);
+		this.cinemas = scaled(200, scale);
+		this.movies = scaled(1000, scale);
+		this.users = scaled(100000, scale);
+		this.shows = scaled(5000, scale);
+		this.movieZipf = new Zipf(movies, Double.parseDouble(System.getProperty("ticketmaster.generate.movieSkew", "1.0")));
+		this.userZipf = new Zipf(users, Double.parseDouble(System.getProperty("ticketmaster.generate.userSkew", "0.8")));
+		this.cinemaZipf = new Zipf(cinemas, Double.parseDouble(System.getProperty("ticketmaster.generate.cinemaSkew", "0.5")));
+	}
+
+	private static int scaled(int base, double scale) {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(base * scale)));
+	}
+
+	/*
+	 * The random stream of one row; the same (table, key) always gives the
+	 * same stream for a seed.
+	 */
+	private SplittableRandom random(long table, long key) {
+		return new SplittableRandom(seed ^ (table * 0x9E3779B97F4A7C15L) ^ (key * 0xC2B2AE3D27D4EB4FL));
+	}
+
+	/**
+	 * Samples 1..n with P(k) proportional to 1/k^s, in constant memory and
+	 * time, by rejection-inversion (Hormann and Derflinger, 1996).
+	 */
+	static final class Zipf {
+		private final int n;
+		private final double s;
+		private final double hIntegralX1;
+		private final double hIntegralN;
+		private final double threshold;
+
+		Zipf(int n, double s) {
+			this.n = n;
+			this.s = s;
+			this.hIntegralX1 = hIntegral(1.5) - 1;
+			this.hIntegralN = hIntegral(n + 0.5);
+			this.threshold = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+		}
+
+		int sample(SplittableRandom random) {
+			while (true) {
+				double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+				double x = hIntegralInverse(u);
+				int k = (int) Math.max(1, Math.min(n, (long) (x + 0.5)));
+				if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k)) {
+					return k;
+				}
+			}
+		}
+
+		private double h(double x) {
+			return Math.exp(-s * Math.log(x));
+		}
+
+		private double hIntegral(double x) {
+			double logX = Math.log(x);
+			return helper2((1 - s) * logX) * logX;
+		}
+
+		private double hIntegralInverse(double x) {
+			double t = Math.max(-1, x * (1 - s));
+			return Math.exp(helper1(t) * x);
+		}
+
+		// log(1 + x) / x and (exp(x) - 1) / x, accurate near 0
+		private static double helper1(double x) {
+			return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+		}
+
+		private static double helper2(double x) {
+			return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+		}
+	}
+
+	/*
+	 * Values other tables need from a row, recomputed from the row's stream
+	 * the same way the row itself draws them.
+	 */
+	private int theatersOf(long cid) {
+		return 4 + random(CINEMA, cid).nextInt(9);
+	}
+
+	private int seatsOf(long tid) {
+		return 60 + random(THEATER, tid).nextInt(241);
+	}
+
+	private long cinemaOf(long tid) {
+		int low = 0;
+		int high = cinemas;
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+			if (theaterStart[mid] < tid) {
+				low = mid;
+			} else {
+				high = mid;
+			}
+		}
+		return low + 1;
+	}
+
+	private int durationOf(long mvid) {
+		// in seconds, 80 to 180 minutes, as movie() draws it
+		return 60 * (80 + random(MOVIE, mvid).nextInt(101));
+	}
+
+	private String emailOf(long user) {
+		SplittableRandom r = random(USER, user);
+		String first = FIRST_NAMES[r.nextInt(FIRST_NAMES.length)];
+		String last = LAST_NAMES[r.nextInt(LAST_NAMES.length)];
+		return (first + "." + last + "." + user + "@example.com").toLowerCase();
+	}
+
+	/*
+	 * Everything about one show that its rows in Shows, Plays, ShowSeats,
+	 * Bookings and Payments are made from.  Bookings are laid out by walking
+	 * the show's seats in order: at each seat a booking of 1 to 6 seats
+	 * starts with the show's occupancy as probability.  Cancelled bookings
+	 * leave their seats free.
+	 */
+	private final class ShowPlan {
+		final long sid;
+		final long mvid;
+		final long[] tids;
+		final int[] tseats;
+		final long date;
+		final int start;
+		final int price;
+		int bookings = 0;
+		int[] theater = new int[16];
+		int[] firstSeat = new int[16];
+		int[] seats = new int[16];
+		char[] status = new char[16];
+		long[] user = new long[16];
+		int[] minutesBefore = new int[16];
+
+		ShowPlan(long sid) {
+			this.sid = sid;
+			SplittableRandom r = random(SHOW, sid);
+			this.mvid = movieZipf.sample(r);
+			long cid = cinemaZipf.sample(r);
+			int tnum = theatersOf(cid);
+			int first = r.nextInt(tnum);
+			if (tnum > 1 && r.nextInt(100) < 15) {
+				this.tids = new long[] { theaterStart[(int) cid - 1] + first + 1,
+					theaterStart[(int) cid - 1] + (first + 1 + r.nextInt(tnum - 1)) % tnum + 1 };
+			} else {
+				this.tids = new long[] { theaterStart[(int) cid - 1] + first + 1 };
+			}
+			this.tseats = new int[tids.length];
+			for (int i = 0; i < tids.length; ++i) {
+				tseats[i] = seatsOf(tids[i]);
+			}
+			this.date = FIRST_SHOW_DATE.toEpochDay() + r.nextInt(SHOW_DAYS);
+			this.start = 10 * 60 + 15 * r.nextInt(53);
+			this.price = 6 + r.nextInt(10);
+
+			// popular movies sell out, the long tail stays mostly empty
+			double occupancy = Math.min(0.95, 0.05 + 0.85 / Math.pow(mvid, 0.4) + 0.1 * r.nextDouble());
+			SplittableRandom b = random(BOOKING, sid);
+			for (int t = 0; t < tids.length; ++t) {
+				int seat = 0;
+				while (seat < tseats[t]) {
+					if (b.nextDouble() >= occupancy / 2.5) {
+						++seat;
+						continue;
+					}
+					int n = Math.min(tseats[t] - seat, 1 + Math.min(b.nextInt(4), b.nextInt(MAX_SEATS_PER_BOOKING)));
+					int kind = b.nextInt(100);
+					char s = kind < 80 ? 'P' : kind < 90 ? 'W' : 'C';
+					add(t, seat + 1, n, s, userZipf.sample(b), 5 + b.nextInt(30 * 24 * 60));
+					if (s != 'C') {
+						seat += n;
+					}
+				}
+			}
+		}
+
+		private void add(int t, int first, int n, char s, long u, int before) {
+			if (bookings == seats.length) {
+				int size = 2 * bookings;
+				theater = Arrays.copyOf(theater, size);
+				firstSeat = Arrays.copyOf(firstSeat, size);
+				seats = Arrays.copyOf(seats, size);
+				status = Arrays.copyOf(status, size);
+				user = Arrays.copyOf(user, size);
+				minutesBefore = Arrays.copyOf(minutesBefore, size);
+			}
+			theater[bookings] = t;
+			firstSeat[bookings] = first;
+			seats[bookings] = n;
+			status[bookings] = s;
+			user[bookings] = u;
+			minutesBefore[bookings] = before;
+			++bookings;
+		}
+
+		int capacity() {
+			int total = 0;
+			for (int n : tseats) {
+				total += n;
+			}
+			return total;
+		}
+
+		long bid(int i) {
+			return bookingStart[(int) sid - 1] + i + 1;
+		}
+
+		String statusOf(int i) {
+			return status[i] == 'P' ? "Paid" : status[i] == 'W' ? "Pending" : "Cancelled";
+		}
+	}
+
+	/*
+	 * Makes the rows of one key into out and returns how many it made.
+	 */
+	private interface RowWriter {
+		int write(long key, StringBuilder out);
+	}
+
+	private static final class Chunk {
+		final byte[] bytes;
+		final long rows;
+
+		Chunk(byte[] bytes, long rows) {
+			this.bytes = bytes;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * Method to write all eleven files.
+	 *
+	 * @throws java.lang.Exception when a file cannot be written
+	 */
+	public void generate() throws Exception {
+		if (!outDir.isDirectory() && !outDir.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create " + outDir);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			long started = System.nanoTime();
+			theaterStart = prefix(cinemas, this::theatersOf);
+			seatStart = prefix((int) theaterStart[cinemas], tid -> seatsOf(tid));
+			planShows(executor);
+			System.out.println(String.format("plan: %,d theaters, %,d seats, %,d show seats, %,d bookings in %.2f s",
+				theaterStart[cinemas], seatStart[seatStart.length - 1], showSeatStart[shows], bookingStart[shows],
+				(System.nanoTime() - started) / 1e9));
+
+			write("Cities", cities, 10000, executor, this::city);
+			write("Cinemas", cinemas, 10000, executor, this::cinema);
+			write("Theaters", theaterStart[cinemas], 10000, executor, this::theater);
+			write("CinemaSeats", theaterStart[cinemas], 1000, executor, this::cinemaSeats);
+			write("Movies", movies, 10000, executor, this::movie);
+			write("Users", users, 10000, executor, this::user);
+			write("Shows", shows, 1000, executor, (sid, out) -> show(new ShowPlan(sid), out));
+			write("Bookings", shows, 500, executor, (sid, out) -> bookings(new ShowPlan(sid), out));
+			write("Payments", shows, 500, executor, (sid, out) -> payments(new ShowPlan(sid), out));
+			write("ShowSeats", shows, 500, executor, (sid, out) -> showSeats(new ShowPlan(sid), out));
+			write("Plays", shows, 1000, executor, (sid, out) -> plays(new ShowPlan(sid), out));
+			System.out.println(String.format("Generated %s in %.2f s", outDir, (System.nanoTime() - started) / 1e9));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private interface Count {
+		int of(long key);
+	}
+
+	private static long[] prefix(int n, Count count) {
+		long[] start = new long[n + 1];
+		for (int i = 0; i < n; ++i) {
+			start[i + 1] = start[i] + count.of(i + 1);
+		}
+		return start;
+	}
+
+	/*
+	 * Counts every show's ShowSeats and bookings, in parallel, to number them.
+	 */
+	private void planShows(ExecutorService executor) throws Exception {
+		final int[] capacity = new int[shows];
+		final int[] booked = new int[shows];
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		int step = 1000;
+		for (int from = 1; from <= shows; from += step) {
+			final int low = from;
+			final int high = Math.min(shows, from + step - 1);
+			futures.add(executor.submit(() -> {
+				for (int sid = low; sid <= high; ++sid) {
+					ShowPlan plan = new ShowPlan(sid);
+					capacity[sid - 1] = plan.capacity();
+					booked[sid - 1] = plan.bookings;
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		showSeatStart = new long[shows + 1];
+		bookingStart = new long[shows + 1];
+		for (int i = 0; i < shows; ++i) {
+			showSeatStart[i + 1] = showSeatStart[i] + capacity[i];
+			bookingStart[i + 1] = bookingStart[i] + booked[i];
+		}
+	}
+
+	/*
+	 * Writes one file, making chunks of keys on all workers and writing the
+	 * chunks in key order, with at most two chunks per worker in memory.
+	 */
+	private void write(String table, long keys, int step, ExecutorService executor, RowWriter rows) throws Exception {
+		long started = System.nanoTime();
+		long count = 0;
+		long bytes = 0;
+		ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(outDir, table + ".csv")), 1 << 20)) {
+			for (long from = 1; from <= keys; from += step) {
+				final long low = from;
+				final long high = Math.min(keys, from + step - 1);
+				pending.add(executor.submit(() -> {
+					StringBuilder sb = new StringBuilder();
+					long made = 0;
+					for (long key = low; key <= high; ++key) {
+						made += rows.write(key, sb);
+					}
+					return new Chunk(sb.toString().getBytes(StandardCharsets.UTF_8), made);
+				}));
+				while (pending.size() >= 2 * workers) {
+					Chunk chunk = pending.poll().get();
+					out.write(chunk.bytes);
+					count += chunk.rows;
+					bytes += chunk.bytes.length;
+				}
+			}
+			while (!pending.isEmpty()) {
+				Chunk chunk = pending.poll().get();
+				out.write(chunk.bytes);
+				count += chunk.rows;
+				bytes += chunk.bytes.length;
+			}
+		}
+		double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-9);
+		System.out.println(String.format("  %-12s %,14d rows %9.1f MB %8.2f s %,12.0f rows/s", table, count, bytes / 1e6,
+			seconds, count / seconds));
+	}
+
+	private int city(long id, StringBuilder out) {
+		SplittableRandom r = random(CITY, id);
+		out.append(id).append(',').append(CITY_NAMES[r.nextInt(CITY_NAMES.length)]);
+		if (id > CITY_NAMES.length) {
+			out.append(' ').append(id);
+		}
+		out.append(',').append(STATES[r.nextInt(STATES.length)]).append(',').append(10000 + r.nextInt(90000)).append('\n');
+		return 1;
+	}
+
+	private int cinema(long cid, StringBuilder out) {
+		SplittableRandom r = random(CINEMA, cid);
+		int tnum = 4 + r.nextInt(9);
+		out.append(cid).append(',').append(1 + (cid * 7919) % cities).append(',')
+			.append(CHAINS[(int) (cid % CHAINS.length)]).append(" #").append(cid).append(',').append(tnum).append('\n');
+		return 1;
+	}
+
+	private int theater(long tid, StringBuilder out) {
+		long cid = cinemaOf(tid);
+		out.append(tid).append(',').append(cid).append(',').append(CHAINS[(int) (cid % CHAINS.length)]).append(" #").append(cid)
+			.append(" Theaters ").append(tid - theaterStart[(int) cid - 1]).append(',').append(seatsOf(tid)).append('\n');
+		return 1;
+	}
+
+	private int cinemaSeats(long tid, StringBuilder out) {
+		int n = seatsOf(tid);
+		long csid = seatStart[(int) tid - 1];
+		for (int sno = 1; sno <= n; ++sno) {
+			// the front row is kept for wheelchairs
+			out.append(csid + sno).append(',').append(tid).append(',').append(sno).append(',')
+				.append(sno <= 4 ? "Handicap" : "Regular").append('\n');
+		}
+		return n;
+	}
+
+	private int movie(long mvid, StringBuilder out) {
+		SplittableRandom r = random(MOVIE, mvid);
+		int duration = 60 * (80 + r.nextInt(101));
+		int country = r.nextInt(COUNTRIES.length);
+		long words = (long) ADJECTIVES.length * NOUNS.length;
+		out.append(mvid).append(",The ").append(ADJECTIVES[(int) ((mvid - 1) % ADJECTIVES.length)]).append(' ')
+			.append(NOUNS[(int) ((mvid - 1) / ADJECTIVES.length % NOUNS.length)]);
+		if (mvid > words) {
+			out.append(' ').append((mvid - 1) / words + 1);
+		}
+		out.append(',').append(LocalDate.ofEpochDay(LocalDate.of(1990, 1, 1).toEpochDay() + r.nextInt(30 * 365)))
+			.append(',').append(COUNTRIES[country]).append(",A ").append(GENRES[(int) (mvid % GENRES.length)].toLowerCase())
+			.append(" movie").append(',').append(duration).append(',').append(LANGS[country]).append(',')
+			.append(GENRES[(int) (mvid % GENRES.length)]).append('\n');
+		return 1;
+	}
+
+	private int user(long user, StringBuilder out) {
+		SplittableRandom r = random(USER, user);
+		String first = FIRST_NAMES[r.nextInt(FIRST_NAMES.length)];
+		String last = LAST_NAMES[r.nextInt(LAST_NAMES.length)];
+		long phone = 2000000000L + (long) (r.nextDouble() * 7999999999L);
+		out.append((first + "." + last + "." + user + "@example.com").toLowerCase()).append(',').append(last).append(',')
+			.append(first).append(',').append(phone).append(',');
+		byte[] hash = SHA256.get().digest(("password" + user).getBytes(StandardCharsets.UTF_8));
+		for (byte x : hash) {
+			out.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+		}
+		out.append('\n');
+		return 1;
+	}
+
+	private int show(ShowPlan plan, StringBuilder out) {
+		out.append(plan.sid).append(',').append(plan.mvid).append(',').append(LocalDate.ofEpochDay(plan.date)).append(',');
+		time(plan.start, out);
+		out.append(',');
+		time(plan.start + durationOf(plan.mvid) / 60, out);
+		out.append('\n');
+		return 1;
+	}
+
+	private static void time(int minutes, StringBuilder out) {
+		minutes = Math.floorMod(minutes, 24 * 60);
+		int h = minutes / 60;
+		int m = minutes % 60;
+		out.append(h < 10 ? "0" : "").append(h).append(m < 10 ? ":0" : ":").append(m).append(":00");
+	}
+
+	/*
+	 * Booking time: the show's day at midnight UTC, minus the minutes the
+	 * booking was made before it.
+	 */
+	private static void dateTime(long day, int minutesBefore, StringBuilder out) {
+		long minutes = day * 24 * 60 - minutesBefore;
+		out.append(LocalDate.ofEpochDay(Math.floorDiv(minutes, 24 * 60))).append(' ');
+		time(Math.floorMod(minutes, 24 * 60), out);
+		out.append("+00");
+	}
+
+	private int bookings(ShowPlan plan, StringBuilder out) {
+		for (int i = 0; i < plan.bookings; ++i) {
+			out.append(plan.bid(i)).append(',').append(plan.statusOf(i)).append(',');
+			dateTime(plan.date, plan.minutesBefore[i], out);
+			out.append(',').append(plan.seats[i]).append(',').append(plan.sid).append(',').append(emailOf(plan.user[i])).append('\n');
+		}
+		return plan.bookings;
+	}
+
+	private int payments(ShowPlan plan, StringBuilder out) {
+		int count = 0;
+		for (int i = 0; i < plan.bookings; ++i) {
+			if (plan.status[i] != 'P') {
+				continue;
+			}
+			long bid = plan.bid(i);
+			SplittableRandom r = random(PAYMENT, bid);
+			// one payment per booking, so the booking's key serves as the payment's
+			out.append(bid).append(',').append(bid).append(',').append(r.nextInt(4) == 0 ? "Cash" : "Credit Card").append(',');
+			dateTime(plan.date, plan.minutesBefore[i] - 1 - r.nextInt(4), out);
+			out.append(',').append(plan.seats[i] * plan.price).append(',').append(10000000 + r.nextInt(90000000)).append('\n');
+			++count;
+		}
+		return count;
+	}
+
+	private int showSeats(ShowPlan plan, StringBuilder out) {
+		long ssid = showSeatStart[(int) plan.sid - 1];
+		int next = 0;
+		for (int t = 0; t < plan.tids.length; ++t) {
+			long csid = seatStart[(int) plan.tids[t] - 1];
+			for (int sno = 1; sno <= plan.tseats[t]; ++sno) {
+				// bookings are in seat order; skip the ones behind this seat and the cancelled ones
+				while (next < plan.bookings && (plan.status[next] == 'C' || plan.theater[next] < t
+						|| (plan.theater[next] == t && plan.firstSeat[next] + plan.seats[next] <= sno))) {
+					++next;
+				}
+				out.append(++ssid).append(',').append(plan.sid).append(',').append(csid + sno).append(',');
+				if (next < plan.bookings && plan.theater[next] == t && plan.firstSeat[next] <= sno) {
+					out.append(plan.bid(next));
+				}
+				out.append(',').append(plan.price).append('\n');
+			}
+		}
+		return plan.capacity();
+	}
+
+	private int plays(ShowPlan plan, StringBuilder out) {
+		for (long tid : plan.tids) {
+			out.append(plan.sid).append(',').append(tid).append('\n');
+		}
+		return plan.tids.length;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName()
+				+ " <output dir> [scale factor] [seed]");
+			return;
+		}
+		double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+		try {
+			new DataGenerator(new File(args[0]), scale, seed).generate();
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+
+/**
+ * This class hands out primary keys from a database sequence using the
+ * hi-lo scheme.  The sequence is created with INCREMENT BY blockSize, so each
+ * nextval reserves the keys [value, value + blockSize) for this process, and
+ * the keys inside the block are given out from memory.  Only one insert in
+ * blockSize pays a round trip for its key, and two processes can never get
+ * the same key.
+ *
+ * Keys left in a block when the process exits are skipped, so keys are
+ * unique and increasing per process but not gap free.
+ *
+ */
+
+public class IdAllocator {
+	/**
+	 * Fetches the next value of a sequence from the database.
+	 */
+	public interface BlockSource {
+		long nextBlock(String sequence) throws SQLException;
+	}
+
+	private final String sequence;
+	private final int blockSize;
+	private final BlockSource source;
+	private long next = 0;
+	private long limit = 0;
+
+	/**
+	 * @param sequence name of the DB sequence
+	 * @param blockSize the INCREMENT BY of the sequence
+	 * @param source where new blocks are fetched from
+	 */
+	public IdAllocator(String sequence, int blockSize, BlockSource source) {
+		this.sequence = sequence;
+		this.blockSize = blockSize;
+		this.source = source;
+	}
+
+	/**
+	 * Method to get the next unused key.
+	 *
+	 * @return a key no other caller or process has received
+	 * @throws java.sql.SQLException when a new block could not be reserved
+	 */
+	public synchronized long next() throws SQLException {
+		if (next >= limit) {
+			long hi = source.nextBlock(sequence);
+			next = hi;
+			limit = hi + blockSize;
+		}
+		return next++;
+	}
+
+	public String getSequence() { return sequence; }
+}
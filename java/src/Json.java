@@ -0,0 +1,357 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class writes the values the operations return as JSON, and reads
+ * the flat request objects the HTTP server accepts.  It only knows the
+ * shapes this program uses: strings, numbers, booleans, null, maps, lists,
+ * long arrays, TypedResult and streamed rows.
+ *
+ */
+
+public class Json {
+	private Json() {
+	}
+
+	/**
+	 * A row handler that writes each row as a JSON object, keyed by column
+	 * label, into a JSON array.
+	 */
+	public static final class Rows implements Ticketmaster.RowHandler {
+		private final StringBuilder out = new StringBuilder("[");
+		private String[] names;
+		private boolean[] numeric;
+		private int count = 0;
+
+		public void handle(ResultSet rs) throws SQLException {
+			if (names == null) {
+				ResultSetMetaData rsmd = rs.getMetaData();
+				names = new String[rsmd.getColumnCount()];
+				numeric = new boolean[names.length];
+				for (int i = 0; i < names.length; ++i) {
+					names[i] = rsmd.getColumnLabel(i + 1);
+					numeric[i] = isNumeric(rsmd.getColumnType(i + 1));
+				}
+			}
+			out.append(count++ == 0 ? "{" : ",{");
+			for (int i = 0; i < names.length; ++i) {
+				if (i > 0) {
+					out.append(',');
+				}
+				quote(names[i], out);
+				out.append(':');
+				String value = rs.getString(i + 1);
+				if (value == null) {
+					out.append("null");
+				} else if (numeric[i]) {
+					out.append(value);
+				} else {
+					quote(value, out);
+				}
+			}
+			out.append('}');
+		}
+
+		public int size() {
+			return count;
+		}
+
+		public String toString() {
+			return out.toString() + "]";
+		}
+	}
+
+	static boolean isNumeric(int type) {
+		switch (type) {
+			case Types.BIGINT:
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.TINYINT:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Method to write a value as JSON.
+	 *
+	 * @param value null, a String, Number, Boolean, Map, List, long[],
+	 *        TypedResult or Rows
+	 * @return the JSON text
+	 */
+	public static String write(Object value) {
+		StringBuilder out = new StringBuilder();
+		write(value, out);
+		return out.toString();
+	}
+
+	public static void write(Object value, StringBuilder out) {
+		if (value == null) {
+			out.append("null");
+		} else if (value instanceof String) {
+			quote((String) value, out);
+		} else if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				out.append("null");
+			} else {
+				out.append(d);
+			}
+		} else if (value instanceof Number || value instanceof Boolean) {
+			out.append(value);
+		} else if (value instanceof Rows) {
+			out.append(value.toString());
+		} else if (value instanceof TypedResult) {
+			writeTyped((TypedResult) value, out);
+		} else if (value instanceof long[]) {
+			long[] values = (long[]) value;
+			out.append('[');
+			for (int i = 0; i < values.length; ++i) {
+				if (i > 0) {
+					out.append(',');
+				}
+				out.append(values[i]);
+			}
+			out.append(']');
+		} else if (value instanceof Map) {
+			out.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				quote(String.valueOf(entry.getKey()), out);
+				out.append(':');
+				write(entry.getValue(), out);
+			}
+			out.append('}');
+		} else if (value instanceof List) {
+			out.append('[');
+			boolean first = true;
+			for (Object item : (List<?>) value) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				write(item, out);
+			}
+			out.append(']');
+		} else {
+			quote(value.toString(), out);
+		}
+	}
+
+	private static void writeTyped(TypedResult result, StringBuilder out) {
+		out.append('[');
+		for (int row = 0; row < result.size(); ++row) {
+			out.append(row == 0 ? "{" : ",{");
+			for (int col = 0; col < result.getColumnCount(); ++col) {
+				if (col > 0) {
+					out.append(',');
+				}
+				quote(result.getColumnName(col), out);
+				out.append(':');
+				if (result.isNull(row, col)) {
+					out.append("null");
+				} else if (result.getColumnKind(col) == TypedResult.LONG) {
+					out.append(result.getLong(row, col));
+				} else if (result.getColumnKind(col) == TypedResult.DOUBLE) {
+					// the same digits as the text form, which the streamed listings write
+					double d = result.getDouble(row, col);
+					out.append(Double.isNaN(d) || Double.isInfinite(d) ? "null" : result.getString(row, col));
+				} else {
+					quote(result.getString(row, col), out);
+				}
+			}
+			out.append('}');
+		}
+		out.append(']');
+	}
+
+	public static void quote(String s, StringBuilder out) {
+		out.append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						out.append(String.format("\\u%04x", (int) c));
+					} else {
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Method to read a flat JSON object.  Values may be strings, numbers,
+	 * booleans or null; they are returned as their text (strings unquoted),
+	 * null as null.  Nested objects and arrays are rejected.
+	 *
+	 * @param text the JSON text, empty for no values
+	 * @return the members in the order they appear
+	 * @throws java.lang.IllegalArgumentException when the text is not such an object
+	 */
+	public static Map<String, String> parseObject(String text) {
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		Parser p = new Parser(text);
+		p.skipSpace();
+		if (p.atEnd()) {
+			return members;
+		}
+		p.expect('{');
+		p.skipSpace();
+		if (p.peek() == '}') {
+			p.next();
+		} else {
+			while (true) {
+				p.skipSpace();
+				String name = p.string();
+				p.skipSpace();
+				p.expect(':');
+				p.skipSpace();
+				members.put(name, p.scalar());
+				p.skipSpace();
+				char c = p.next();
+				if (c == '}') {
+					break;
+				}
+				if (c != ',') {
+					throw p.error("Expected , or }");
+				}
+			}
+		}
+		p.skipSpace();
+		if (!p.atEnd()) {
+			throw p.error("Unexpected text after the object");
+		}
+		return members;
+	}
+
+	private static final class Parser {
+		private final String text;
+		private int pos = 0;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		boolean atEnd() {
+			return pos >= text.length();
+		}
+
+		char peek() {
+			if (atEnd()) {
+				throw error("Unexpected end of JSON");
+			}
+			return text.charAt(pos);
+		}
+
+		char next() {
+			char c = peek();
+			++pos;
+			return c;
+		}
+
+		void expect(char c) {
+			if (next() != c) {
+				throw error("Expected " + c);
+			}
+		}
+
+		void skipSpace() {
+			while (!atEnd() && Character.isWhitespace(text.charAt(pos))) {
+				++pos;
+			}
+		}
+
+		String string() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				char c = next();
+				if (c == '"') {
+					return sb.toString();
+				}
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				c = next();
+				switch (c) {
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'n': sb.append('\n'); break;
+					case 'r': sb.append('\r'); break;
+					case 't': sb.append('\t'); break;
+					case 'u':
+						if (pos + 4 > text.length()) {
+							throw error("Bad \\u escape");
+						}
+						try {
+							sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+						} catch (NumberFormatException e) {
+							throw error("Bad \\u escape");
+						}
+						pos += 4;
+						break;
+					default: sb.append(c); break;
+				}
+			}
+		}
+
+		String scalar() {
+			char c = peek();
+			if (c == '"') {
+				return string();
+			}
+			if (c == '{' || c == '[') {
+				throw error("Nested values are not supported");
+			}
+			int start = pos;
+			while (!atEnd() && ",}".indexOf(text.charAt(pos)) < 0 && !Character.isWhitespace(text.charAt(pos))) {
+				++pos;
+			}
+			String word = text.substring(start, pos);
+			if (word.isEmpty()) {
+				throw error("Expected a value");
+			}
+			return word.equals("null") ? null : word;
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at offset " + pos + " of the request body");
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * This class counts latencies (or any non-negative longs) in log-linear
+ * buckets, so percentiles can be read without keeping every sample.  Values
+ * below 256 are counted exactly; larger ones fall in buckets 1/128 wide
+ * relative to their value, so any percentile is off by less than 0.8%.
+ * The whole range of long fits in about 60 KB.
+ *
+ * A histogram is not thread safe: give each thread its own and add them up
+ * with add().
+ *
+ */
+
+public class LatencyHistogram {
+	private static final int SUB_BITS = 8;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF = SUB_COUNT / 2;
+
+	private final long[] counts = new long[SUB_COUNT + (64 - SUB_BITS) * HALF];
+	private long count = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+	private double sum = 0;
+
+	private static int indexOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+		return SUB_COUNT + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	// the largest value that falls in the bucket
+	private static long highestOf(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_COUNT) / HALF + 1;
+		long sub = (index - SUB_COUNT) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Method to count one value.  Negative values are counted as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		++counts[indexOf(value)];
+		++count;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Method to count one latency of an operation that was meant to start
+	 * every expectedInterval.  When the value is longer than the interval,
+	 * the operations that should have started meanwhile were held back by
+	 * this one, so their waits (value - interval, value - 2 * interval, ...)
+	 * are counted too.  Without this a stalled system looks fast, since it
+	 * stops sending requests exactly while it is slow.
+	 */
+	public void recordCorrected(long value, long expectedInterval) {
+		record(value);
+		if (expectedInterval <= 0) {
+			return;
+		}
+		for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+			record(missed);
+		}
+	}
+
+	/**
+	 * Method to add the counts of another histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; ++i) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	public long getCount() { return count; }
+	public long getMax() { return max; }
+	public long getMin() { return count == 0 ? 0 : min; }
+	public double getMean() { return count == 0 ? 0 : sum / count; }
+
+	/**
+	 * Method to get the value below or at which the given percentage of the
+	 * values are.
+	 *
+	 * @param percentile from 0 to 100, e.g. 99.9
+	 * @return the value, 0 when nothing was counted
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestOf(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Method to describe the distribution of nanosecond latencies in
+	 * microseconds.
+	 *
+	 * @return e.g. "n 1000  mean 512.3  p50 498.0  p90 ...  max 2048.0 us"
+	 */
+	public String summarize() {
+		return String.format("n %d  mean %.1f  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f us", count,
+			getMean() / 1e3, getValueAtPercentile(50) / 1e3, getValueAtPercentile(90) / 1e3,
+			getValueAtPercentile(99) / 1e3, getValueAtPercentile(99.9) / 1e3, max / 1e3);
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class counts what the database helpers and the operations do: for
+ * every SQL template and every operation, the calls, failures, rows, round
+ * trips and a latency histogram.  A statement run while an operation is in
+ * progress on the same thread is also counted as one of that operation's
+ * round trips, so e.g. add-booking shows how many statements it takes.
+ *
+ * The numbers can be read three ways: as a text report (menu option 16),
+ * as attributes of the MBean ticketmaster:type=Metrics (jconsole, VisualVM),
+ * and in the Prometheus text format from the HTTP server's /metrics.
+ *
+ * Recording a call is a map lookup on the template string, a thread local
+ * read and an uncontended lock around the histogram, well under a
+ * microsecond.  Set ticketmaster.metrics.enabled=false to turn it off.
+ *
+ */
+
+public class Metrics {
+	// templates beyond this many are counted together, so SQL built with
+	// literals cannot grow the map without bound
+	private static final int MAX_STATEMENTS = 1000;
+	private static final String OTHER = "(other statements)";
+
+	private final boolean enabled = Boolean.parseBoolean(System.getProperty("ticketmaster.metrics.enabled", "true"));
+	private final ConcurrentHashMap<String, Stat> statements = new ConcurrentHashMap<String, Stat>();
+	private final ConcurrentHashMap<String, Stat> operations = new ConcurrentHashMap<String, Stat>();
+	private final ThreadLocal<Span> current = new ThreadLocal<Span>();
+
+	/**
+	 * The numbers of one SQL template or one operation.
+	 */
+	static final class Stat {
+		final String name;
+		final LatencyHistogram latency = new LatencyHistogram();
+		long errors = 0;
+		long rows = 0;
+		long roundTrips = 0;
+
+		Stat(String name) {
+			this.name = name;
+		}
+
+		synchronized void record(long nanos, long rowCount, long trips, boolean failed) {
+			latency.record(nanos);
+			rows += Math.max(0, rowCount);
+			roundTrips += trips;
+			if (failed) {
+				++errors;
+			}
+		}
+
+		synchronized Stat copy() {
+			Stat copy = new Stat(name);
+			copy.latency.add(latency);
+			copy.errors = errors;
+			copy.rows = rows;
+			copy.roundTrips = roundTrips;
+			return copy;
+		}
+	}
+
+	/**
+	 * One operation in progress on a thread.  Get it from begin(), call
+	 * failed() when the operation throws and end() when it is over.
+	 */
+	public final class Span {
+		private final String operation;
+		private final Span parent;
+		private final long start = System.nanoTime();
+		private long rows = 0;
+		private long roundTrips = 0;
+		private boolean failed = false;
+
+		private Span(String operation, Span parent) {
+			this.operation = operation;
+			this.parent = parent;
+		}
+
+		public void failed() {
+			this.failed = true;
+		}
+
+		public void end() {
+			if (!enabled) {
+				return;
+			}
+			long nanos = System.nanoTime() - start;
+			current.set(parent);
+			// an operation run by another one also counts towards the outer one
+			if (parent != null) {
+				parent.rows += rows;
+				parent.roundTrips += roundTrips;
+			}
+			stat(operations, operation).record(nanos, rows, roundTrips, failed);
+		}
+	}
+
+	private static Stat stat(ConcurrentHashMap<String, Stat> stats, String name) {
+		Stat stat = stats.get(name);
+		if (stat == null) {
+			if (stats.size() >= MAX_STATEMENTS) {
+				name = OTHER;
+			}
+			stat = stats.computeIfAbsent(name, Stat::new);
+		}
+		return stat;
+	}
+
+	/**
+	 * Method to start timing an operation on the calling thread.
+	 *
+	 * @param operation the operation's name, e.g. add-booking
+	 */
+	public Span begin(String operation) {
+		Span span = new Span(operation, current.get());
+		if (enabled) {
+			current.set(span);
+		}
+		return span;
+	}
+
+	/**
+	 * Method to count one execution of a statement.
+	 *
+	 * @param sql the template, as passed to the helper
+	 * @param nanos how long the round trip took, including reading the rows
+	 * @param rows the rows returned or changed
+	 * @param failed whether it threw
+	 */
+	public void recordStatement(String sql, long nanos, long rows, boolean failed) {
+		if (!enabled) {
+			return;
+		}
+		stat(statements, sql).record(nanos, rows, 1, failed);
+		Span span = current.get();
+		if (span != null) {
+			span.rows += Math.max(0, rows);
+			++span.roundTrips;
+		}
+	}
+
+	public void reset() {
+		statements.clear();
+		operations.clear();
+	}
+
+	private static List<Stat> snapshot(ConcurrentHashMap<String, Stat> stats) {
+		List<Stat> copies = new ArrayList<Stat>();
+		for (Stat stat : stats.values()) {
+			copies.add(stat.copy());
+		}
+		return copies;
+	}
+
+	/*
+	 * A template on one line and short enough for a table or a label.
+	 */
+	static String label(String sql) {
+		String flat = sql.replaceAll("\\s+", " ").trim();
+		return flat.length() <= 80 ? flat : flat.substring(0, 80) + "... #" + Integer.toHexString(sql.hashCode());
+	}
+
+	/**
+	 * Method to describe every operation, and the statements that took the
+	 * most time in total.
+	 *
+	 * @param topStatements how many statements to list
+	 * @return a table per kind, one line per operation or statement
+	 */
+	public String getReport(int topStatements) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-48s %8s %6s %9s %9s %9s %7s %9s%n", "operation", "calls", "errors", "mean ms", "p99 ms",
+			"p99.9 ms", "trips", "rows"));
+		List<Stat> ops = snapshot(operations);
+		ops.sort((a, b) -> a.name.compareTo(b.name));
+		for (Stat stat : ops) {
+			appendLine(sb, stat.name, stat);
+		}
+		sb.append('\n');
+		sb.append(String.format("%-48s %8s %6s %9s %9s %9s %7s %9s%n", "statement", "calls", "errors", "mean ms", "p99 ms",
+			"p99.9 ms", "trips", "rows"));
+		List<Stat> sqls = snapshot(statements);
+		sqls.sort((a, b) -> Double.compare(b.latency.getMean() * b.latency.getCount(), a.latency.getMean() * a.latency.getCount()));
+		for (Stat stat : sqls.subList(0, Math.min(topStatements, sqls.size()))) {
+			String name = label(stat.name);
+			appendLine(sb, name.length() > 48 ? name.substring(0, 45) + "..." : name, stat);
+		}
+		return sb.toString();
+	}
+
+	private static void appendLine(StringBuilder sb, String name, Stat stat) {
+		LatencyHistogram h = stat.latency;
+		sb.append(String.format("%-48s %8d %6d %9.2f %9.2f %9.2f %7.1f %9d%n", name, h.getCount(), stat.errors, h.getMean() / 1e6,
+			h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6,
+			stat.roundTrips / (double) Math.max(1, h.getCount()), stat.rows));
+	}
+
+	/**
+	 * Method to write every operation and statement in the Prometheus text
+	 * exposition format, followed by the given "name\tvalue" lines (e.g. the
+	 * pool statistics) as gauges.
+	 */
+	public String scrape(String... gauges) {
+		StringBuilder sb = new StringBuilder();
+		scrape(sb, "operation", snapshot(operations));
+		scrape(sb, "statement", snapshot(statements));
+		for (String lines : gauges) {
+			for (String line : lines.split("\n")) {
+				int tab = line.indexOf('\t');
+				if (tab < 0) {
+					continue;
+				}
+				String value = line.substring(tab + 1).trim();
+				try {
+					Double.parseDouble(value);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				String name = "ticketmaster_" + line.substring(0, tab).replaceAll("[^A-Za-z0-9_]", "_");
+				sb.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void scrape(StringBuilder sb, String kind, List<Stat> stats) {
+		String base = "ticketmaster_" + kind;
+		sb.append("# TYPE ").append(base).append("_seconds summary\n");
+		for (Stat stat : stats) {
+			String label = kind + "=\"" + escape(kind.equals("statement") ? label(stat.name) : stat.name) + "\"";
+			LatencyHistogram h = stat.latency;
+			for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+				sb.append(base).append("_seconds{").append(label).append(",quantile=\"").append(q).append("\"} ")
+					.append(h.getValueAtPercentile(q * 100) / 1e9).append('\n');
+			}
+			sb.append(base).append("_seconds_sum{").append(label).append("} ").append(h.getMean() * h.getCount() / 1e9).append('\n');
+			sb.append(base).append("_seconds_count{").append(label).append("} ").append(h.getCount()).append('\n');
+		}
+		String[] counters = { "errors", "rows", "round_trips" };
+		for (int i = 0; i < counters.length; ++i) {
+			sb.append("# TYPE ").append(base).append('_').append(counters[i]).append("_total counter\n");
+			for (Stat stat : stats) {
+				String label = kind + "=\"" + escape(kind.equals("statement") ? label(stat.name) : stat.name) + "\"";
+				long value = i == 0 ? stat.errors : i == 1 ? stat.rows : stat.roundTrips;
+				sb.append(base).append('_').append(counters[i]).append("_total{").append(label).append("} ").append(value).append('\n');
+			}
+		}
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/*
+	 * The counters flattened to attribute names, e.g.
+	 * "operation.add-booking.p99Ms", for the MBean.
+	 */
+	private Map<String, Object> attributes() {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		for (Stat stat : snapshot(operations)) {
+			put(values, "operation." + stat.name, stat);
+		}
+		for (Stat stat : snapshot(statements)) {
+			put(values, "statement." + label(stat.name), stat);
+		}
+		return values;
+	}
+
+	private static void put(Map<String, Object> values, String prefix, Stat stat) {
+		LatencyHistogram h = stat.latency;
+		values.put(prefix + ".count", h.getCount());
+		values.put(prefix + ".errors", stat.errors);
+		values.put(prefix + ".rows", stat.rows);
+		values.put(prefix + ".roundTrips", stat.roundTrips);
+		values.put(prefix + ".meanMs", h.getMean() / 1e6);
+		values.put(prefix + ".p50Ms", h.getValueAtPercentile(50) / 1e6);
+		values.put(prefix + ".p99Ms", h.getValueAtPercentile(99) / 1e6);
+		values.put(prefix + ".p999Ms", h.getValueAtPercentile(99.9) / 1e6);
+	}
+
+	/**
+	 * Method to publish the counters as the MBean ticketmaster:type=Metrics,
+	 * replacing one registered before in this JVM.
+	 */
+	public void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("ticketmaster:type=Metrics");
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(new MetricsMBean(), name);
+		} catch (Exception e) {
+			System.err.println("Metrics are not published over JMX: " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Read-only attributes, one per counter, listed anew on each request
+	 * since templates and operations appear as they are first used.
+	 */
+	private final class MetricsMBean implements DynamicMBean {
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Object value = attributes().get(attribute);
+			if (value == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return value;
+		}
+
+		public AttributeList getAttributes(String[] names) {
+			Map<String, Object> values = attributes();
+			AttributeList list = new AttributeList();
+			for (String name : names) {
+				if (values.containsKey(name)) {
+					list.add(new Attribute(name, values.get(name)));
+				}
+			}
+			return list;
+		}
+
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+		}
+
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		public Object invoke(String action, Object[] params, String[] signature) {
+			if ("reset".equals(action)) {
+				reset();
+				return null;
+			}
+			if ("report".equals(action)) {
+				return getReport(Integer.MAX_VALUE);
+			}
+			throw new UnsupportedOperationException(action);
+		}
+
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> infos = new ArrayList<MBeanAttributeInfo>();
+			for (Map.Entry<String, Object> entry : attributes().entrySet()) {
+				infos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(),
+					true, false, false));
+			}
+			MBeanOperationInfo[] actions = {
+				new MBeanOperationInfo("reset", "Forget every count", null, "void", MBeanOperationInfo.ACTION),
+				new MBeanOperationInfo("report", "The text report", null, "java.lang.String", MBeanOperationInfo.INFO) };
+			return new MBeanInfo(Metrics.class.getName(), "Ticketmaster statement and operation metrics",
+				infos.toArray(new MBeanAttributeInfo[0]), null, actions, null);
+		}
+	}
+}
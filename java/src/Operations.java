@@ -0,0 +1,807 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * This class holds the database side of the fourteen menu operations, with
+ * no prompts and no printing, so the interactive menu and the HTTP server
+ * run the same code.  Each method takes the values the menu used to read
+ * from stdin and either returns a small summary of what it changed, hands
+ * the rows of a listing to a RowHandler, or returns one page of rows.
+ *
+ * Failures the caller should show to the user are reported as exceptions:
+ * IllegalArgumentException for invalid input, NoSuchElementException when
+ * something asked for does not exist, and IllegalStateException when the
+ * request cannot be done right now (e.g. not enough free seats).  Database
+ * errors are passed on as SQLException.
+ *
+ */
+
+public class Operations {
+	private final Ticketmaster esql;
+
+	public Operations(Ticketmaster esql) {
+		this.esql = esql;
+	}
+
+	private static void checkLength(String name, String value, int max) {
+		if (value == null || value.length() == 0 || value.length() > max) {
+			throw new IllegalArgumentException(name + " cannot be empty and has to be " + max + " characters or less.");
+		}
+	}
+
+	private static Map<String, Object> summary() {
+		return new LinkedHashMap<String, Object>();
+	}
+
+	/**
+	 * Method to add a user (operation 1).
+	 */
+	public void addUser(String email, String lname, String fname, long phone, String pwd) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("add-user");
+		try {
+			checkLength("Email", email, 64);
+			checkLength("Last name", lname, 32);
+			checkLength("First name", fname, 32);
+			checkLength("Password", pwd, 64);
+			if (phone > 9999999999L || phone < 0) {
+				throw new IllegalArgumentException("Phone number has to be 10 digits or less.");
+			}
+			String query = "INSERT INTO Users (email, lname, fname, phone, pwd) VALUES (?, ?, ?, ?, ?);";
+			esql.executeUpdate(query, email, lname, fname, phone, pwd);
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to check a user's email and password.
+	 *
+	 * @return true when a user with this email and password exists
+	 */
+	public boolean authenticate(String email, String pwd) throws SQLException {
+		String query_user = "SELECT *\n FROM Users\n WHERE email = ? and pwd = ?;";
+		return esql.executeQuery(query_user, email, pwd) > 0;
+	}
+
+	/**
+	 * Method to look a movie up by its exact title, through the reference
+	 * cache.
+	 *
+	 * @return the mvid of the oldest movie with the title
+	 * @throws java.util.NoSuchElementException when there is no such movie;
+	 *         the message suggests up to three close titles
+	 */
+	public long findMovie(String title) throws SQLException {
+		checkLength("Movie", title, 128);
+		Long mvid = esql.getReferenceCache().getMovieId(title);
+		if (mvid == null) {
+			StringBuilder message = new StringBuilder("This movie does not exist.");
+			List<TitleIndex.Match> close = esql.getTitleIndex().suggest(title, 3);
+			for (int i = 0; i < close.size(); ++i) {
+				message.append(i == 0 ? " Did you mean: " : ", ").append(close.get(i).title);
+			}
+			throw new NoSuchElementException(close.isEmpty() ? message.toString() : message.append('?').toString());
+		}
+		return mvid;
+	}
+
+	/**
+	 * Method to suggest movie titles for what has been typed so far, from
+	 * the in-memory title index.  Words may be misspelled and the last one
+	 * unfinished.
+	 *
+	 * @param limit the most titles to return
+	 * @return the best matches first
+	 */
+	public List<TitleIndex.Match> suggestMovieTitles(String query, int limit) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("suggest-movie-titles");
+		try {
+			checkLength("Query", query, 128);
+			return esql.getTitleIndex().suggest(query, limit);
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to list every show of a movie.
+	 *
+	 * @return the number of shows
+	 */
+	public int listShowsOfMovie(long mvid, Ticketmaster.RowHandler handler) throws SQLException {
+		String query_mvid_show_times = "SELECT *\n FROM Shows\n WHERE mvid = ?;";
+		return esql.executeQueryForEach(query_mvid_show_times, handler, mvid);
+	}
+
+	/**
+	 * Method to find the show of a movie starting at a date and time.
+	 *
+	 * @return the show's sid
+	 * @throws java.util.NoSuchElementException when the movie has no show then
+	 */
+	public long findShow(long mvid, String date, String time) throws SQLException {
+		checkLength("Date", date, 10);
+		checkLength("Time", time, 8);
+		String query_sid = "SELECT sid\n FROM Shows\n WHERE mvid = ? and sdate = ? and sttime = ?;";
+		TypedResult date_time = esql.executeQueryAndReturnTyped(query_sid, mvid, date, time);
+		if (date_time.size() == 0) {
+			throw new NoSuchElementException("A Show for this Date and Time does not exist.");
+		}
+		return date_time.getLong(0, 0);
+	}
+
+	/**
+	 * Method to list the seats of a show, with their theater and cinema.
+	 *
+	 * @param tid only list the seats in this theater, or null for all of them
+	 * @return the number of seats listed
+	 */
+	public int listShowSeats(long sid, Long tid, Ticketmaster.RowHandler handler) throws SQLException {
+		if (tid == null) {
+			String query_theaters = "SELECT SS.sid, SS.ssid, SS.price, SS.csid, CS.tid, T.tname, C.cname FROM Showseats SS, Cinemaseats CS, Theaters T, Cinemas C\n WHERE SS.sid = ?"
+											+ " and SS.csid=CS.csid and CS.tid=T.tid and C.cid=T.cid;";
+			return esql.executeQueryForEach(query_theaters, handler, sid);
+		}
+		String query_show_seats = "SELECT SS.sid, SS.ssid, SS.price, SS.csid, CS.tid, T.tname, C.cname FROM Showseats SS, Cinemaseats CS, Theaters T, Cinemas C\n WHERE SS.sid = ?"
+										+ " and SS.csid=CS.csid and CS.tid=T.tid and C.cid=T.cid and T.tid = ?;";
+		return esql.executeQueryForEach(query_show_seats, handler, sid, tid);
+	}
+
+	/**
+	 * Method to book seats of a show in one theater (operation 2).  The
+	 * booking is created and its seats claimed in one transaction; if fewer
+	 * seats than requested are free nothing is booked.
+	 *
+	 * @return the new booking's bid and the number of seats reserved
+	 * @throws java.lang.IllegalStateException when not enough seats are free
+	 */
+	public Map<String, Object> addBooking(String email, long sid, long tid, int seats) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("add-booking");
+		try {
+			checkLength("Email", email, 64);
+			if (seats <= 0) {
+				throw new IllegalArgumentException("The number of seats has to be positive.");
+			}
+			int free = esql.getSeatInventory().countFree(sid, tid);
+			if (seats > free) {
+				// the inventory may be behind another process; ask the database before refusing
+				esql.getSeatInventory().evict(sid);
+				free = esql.getSeatInventory().countFree(sid, tid);
+			}
+			if (seats > free) {
+				throw new IllegalStateException("There are only " + free + " seats available for this show.");
+			}
+
+			String status = "Pending";
+			long booking_id = esql.nextId(Ticketmaster.BOOKINGS_SEQ);
+			TypedResult claimed_seats;
+			esql.beginTransaction();
+			try {
+				String query = "INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email) VALUES (?, ?, now(), ?, ?, ?);";
+				esql.executeUpdate(query, booking_id, status, seats, sid, email);
+
+				//Update the bid for the seats that the customer has reserved
+				claimed_seats = esql.claimSeats(booking_id, sid, tid, seats);
+				if (claimed_seats.size() < seats) {
+					throw new IllegalStateException("Only " + claimed_seats.size() + " of the " + seats + " seats requested are still free. The booking was not created.");
+				}
+				esql.afterCommit(() -> esql.getSeatInventory().markTaken(sid, claimed_seats, 1, 2));
+				esql.commitTransaction();
+			} catch (SQLException | RuntimeException e) {
+				esql.rollbackTransaction();
+				throw e;
+			}
+
+			Map<String, Object> result = summary();
+			result.put("bid", booking_id);
+			result.put("seats", claimed_seats.size());
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to add a new movie and one show of it in a theater (operation 3).
+	 * The movie, the show and the show's theater are inserted in one
+	 * transaction, in that order.
+	 *
+	 * @return the new mvid and sid
+	 * @throws java.util.NoSuchElementException when there is no such theater
+	 */
+	public Map<String, Object> addMovieShowing(String title, String rdate, String country, String description,
+			int duration, String lang, String genre, String sdate, String sttime, String edtime, long tid) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("add-movie-showing-to-theater");
+		try {
+			checkLength("Title", title, 128);
+			checkLength("Country of movie", country, 64);
+			if (lang != null && lang.length() > 2) {
+				throw new IllegalArgumentException("Language cannot be more than 2 characters");
+			}
+			if (genre != null && genre.length() > 16) {
+				throw new IllegalArgumentException("Genre cannot be more than 16 characters");
+			}
+
+			ReferenceCache.Theater theater = esql.getReferenceCache().getTheater(tid);
+			if (theater == null) {
+				throw new NoSuchElementException("Theater " + tid + " does not exist.");
+			}
+
+			long mvid = esql.nextId(Ticketmaster.MOVIES_SEQ);
+			long sid = esql.nextId(Ticketmaster.SHOWS_SEQ);
+			esql.beginTransaction();
+			try {
+				String queryOne = "INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre) VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
+				esql.executeUpdate(queryOne, mvid, title, rdate, country, description, duration, lang, genre);
+				String queryTwo = "INSERT INTO Shows (sid, mvid, sdate, sttime, edtime) VALUES (?, ?, ?, ?, ?);";
+				esql.executeUpdate(queryTwo, sid, mvid, sdate, sttime, edtime);
+				String queryThree = "INSERT INTO Plays (sid, tid) VALUES (?, ?);";
+				esql.executeUpdate(queryThree, sid, tid);
+				esql.afterCommit(() -> {
+					esql.getReferenceCache().invalidateMovie(title);
+					esql.getTitleIndex().add(mvid, title);
+					esql.getScheduleIndex().addShow(sid, mvid, title, duration, sdate, sttime, edtime, tid, theater.cid);
+				});
+				esql.commitTransaction();
+			} catch (SQLException | RuntimeException e) {
+				esql.rollbackTransaction();
+				throw e;
+			}
+
+			Map<String, Object> result = summary();
+			result.put("mvid", mvid);
+			result.put("sid", sid);
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to cancel every pending booking (operation 4).
+	 *
+	 * @return the number of bookings cancelled
+	 */
+	public Map<String, Object> cancelPendingBookings() throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("cancel-pending-bookings");
+		try {
+			String query_pending_bid = "UPDATE Bookings\n SET status = 'Cancelled' WHERE status = 'Pending'";
+			Map<String, Object> result = summary();
+			result.put("cancelled", esql.executeUpdate(query_pending_bid));
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to look a booking up.
+	 *
+	 * @return one row (seats, sid)
+	 * @throws java.util.NoSuchElementException when there is no such booking
+	 */
+	public TypedResult getBooking(long bid) throws SQLException {
+		String query_seats_booked = "SELECT seats, sid\n FROM Bookings\n WHERE bid = ?;";
+		TypedResult booking_list = esql.executeQueryAndReturnTyped(query_seats_booked, bid);
+		if (booking_list.size() == 0) {
+			throw new NoSuchElementException("There are no seats booked");
+		}
+		return booking_list;
+	}
+
+	/**
+	 * Method to move a booking to cheaper free seats of the same show
+	 * (operation 5).  The booking's seats are priced, the new seats picked
+	 * and the two swapped in one transaction.  The booking's seats are locked
+	 * first; free seats another session has locked are skipped rather than
+	 * waited on, so two changes on the same show never pick the same seats.
+	 *
+	 * @param count the number of new seats
+	 * @return the number of seats the booking now holds
+	 * @throws java.lang.IllegalStateException when there are not enough free
+	 *         seats or they are not cheaper than the current ones
+	 */
+	public Map<String, Object> changeSeats(long bid, int count) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("change-seats-for-booking");
+		try {
+			TypedResult booking = getBooking(bid);
+			if (count <= 0 || count > booking.getInt(0, 0)) {
+				throw new IllegalArgumentException("You cannot change more seats than you have booked.");
+			}
+			long show_id = booking.getLong(0, 1);
+			int free_seats = esql.getSeatInventory().countFree(show_id);
+			if (free_seats < count) {
+				esql.getSeatInventory().evict(show_id);
+				free_seats = esql.getSeatInventory().countFree(show_id);
+			}
+			if (free_seats < count) {
+				throw new IllegalStateException("There are only " + free_seats + " free seats left for this show.");
+			}
+
+			TypedResult released;
+			TypedResult taken;
+			esql.beginTransaction();
+			try {
+
+				String query_sum_price = "SELECT sum(price) FROM (SELECT price FROM Showseats WHERE bid = ? FOR UPDATE) ALIAS;";
+				TypedResult price_query = esql.executeQueryAndReturnTyped(query_sum_price, bid);
+				if (price_query.isNull(0, 0)) {
+					throw new IllegalStateException("This booking has no seats assigned.");
+				}
+				//This is the total price of the booking in question
+				double total_booking_price = price_query.getDouble(0, 0);
+
+				String query_new_seats = "SELECT ssid, price FROM Showseats WHERE sid = ? AND bid IS NULL LIMIT ? FOR UPDATE SKIP LOCKED;";
+				TypedResult new_seats = esql.executeQueryAndReturnTyped(query_new_seats, show_id, count);
+				if (new_seats.size() < count) {
+					throw new IllegalStateException("There are not enough free seats for this show.");
+				}
+				double new_price_total = 0;
+				for (int i = 0; i < new_seats.size(); ++i) {
+					new_price_total += new_seats.getDouble(i, 1);
+				}
+				if (new_price_total >= total_booking_price) {
+					throw new IllegalStateException("The customer's seats are the cheapest possible for this show.");
+				}
+
+				//Set the old seats to bid=null, then give the booking the new ones
+				String query_pending_bid = "UPDATE Showseats SS\n SET bid = null FROM Cinemaseats CS WHERE SS.bid = ? AND SS.csid = CS.csid\n RETURNING CS.tid, CS.sno;";
+				released = esql.executeQueryAndReturnTyped(query_pending_bid, bid);
+
+				long[] new_ssids = Arrays.copyOf(new_seats.getLongColumn(0), new_seats.size());
+				String query_new_bid = "UPDATE Showseats SS SET bid = ? FROM Cinemaseats CS WHERE SS.ssid = ANY(?) AND SS.csid = CS.csid\n RETURNING CS.tid, CS.sno;";
+				taken = esql.executeQueryAndReturnTyped(query_new_bid, bid, new_ssids);
+
+				esql.afterCommit(() -> {
+					esql.getSeatInventory().markFree(show_id, released, 0, 1);
+					esql.getSeatInventory().markTaken(show_id, taken, 0, 1);
+				});
+				esql.commitTransaction();
+			} catch (SQLException | RuntimeException e) {
+				esql.rollbackTransaction();
+				throw e;
+			}
+
+			Map<String, Object> result = summary();
+			result.put("bid", bid);
+			result.put("seats", taken.size());
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to remove a payment and cancel the booking it paid for
+	 * (operation 6), in one transaction.
+	 *
+	 * @return the number of payments removed, 0 when there was no such payment
+	 */
+	public Map<String, Object> removePayment(long pid) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("remove-payment");
+		try {
+			int removed;
+			esql.beginTransaction();
+			try {
+				String queryUpdate = "UPDATE Bookings SET status = 'Cancelled' WHERE bid = (SELECT bid FROM Payments WHERE pid = ?);";
+				esql.executeUpdate(queryUpdate, pid);
+				String queryDelete = "DELETE FROM Payments WHERE pid = ?;";
+				removed = esql.executeUpdate(queryDelete, pid);
+				esql.commitTransaction();
+			} catch (SQLException | RuntimeException e) {
+				esql.rollbackTransaction();
+				throw e;
+			}
+			Map<String, Object> result = summary();
+			result.put("removed", removed);
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to delete every cancelled booking and free its seats
+	 * (operation 7).  Bookings are purged in chunks of consecutive bids,
+	 * each chunk in its own short transaction, so the purge never holds locks
+	 * for long.  Chunks that committed stay purged, so an interrupted purge is
+	 * resumed by simply running it again.
+	 *
+	 * @return the bookings removed, the seats freed and the seconds it took
+	 */
+	public Map<String, Object> clearCancelledBookings() throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("clear-cancelled-bookings");
+		try {
+			int chunk_size = Integer.getInteger("ticketmaster.purgeChunkSize", 1000);
+			long last_bid = Long.MIN_VALUE;
+			long bookings_removed = 0;
+			long seats_freed = 0;
+			long start = System.nanoTime();
+
+			while (true) {
+				esql.beginTransaction();
+				try {
+					//lock the next chunk of cancelled bookings
+					String query_chunk = "SELECT bid\nFROM Bookings\nWHERE status = 'Cancelled' AND bid > ?\nORDER BY bid LIMIT ? FOR UPDATE;";
+					TypedResult chunk = esql.executeQueryAndReturnTyped(query_chunk, last_bid, chunk_size);
+					if (chunk.size() == 0) {
+						esql.commitTransaction();
+						break;
+					}
+					long[] bids = Arrays.copyOf(chunk.getLongColumn(0), chunk.size());
+
+					//free their seats, then delete them (their payments cascade)
+					String query_free = "UPDATE Showseats SS SET bid = null FROM Cinemaseats CS\nWHERE SS.bid = ANY(?) AND SS.csid = CS.csid\nRETURNING SS.sid, CS.tid, CS.sno;";
+					TypedResult freed = esql.executeQueryAndReturnTyped(query_free, bids);
+					String query_delete = "DELETE FROM Bookings WHERE bid = ANY(?);";
+					int removed = esql.executeUpdate(query_delete, bids);
+
+					esql.afterCommit(() -> esql.getSeatInventory().markFree(freed, 0, 1, 2));
+					esql.commitTransaction();
+					last_bid = bids[bids.length - 1];
+					seats_freed += freed.size();
+					bookings_removed += removed;
+				} catch (SQLException e) {
+					esql.rollbackTransaction();
+					throw new SQLException("Purge stopped after " + bookings_removed + " bookings. Run it again to resume. "
+						+ e.getMessage(), e.getSQLState(), e);
+				} catch (RuntimeException e) {
+					esql.rollbackTransaction();
+					throw e;
+				}
+			}
+
+			Map<String, Object> result = summary();
+			result.put("bookings", bookings_removed);
+			result.put("seats", seats_freed);
+			result.put("seconds", (System.nanoTime() - start) / 1e9);
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to find the shows playing at a cinema on a date.
+	 *
+	 * @return the sid of each show, one per row
+	 */
+	public TypedResult findShowsOnDate(long cid, String date) throws SQLException {
+		checkLength("Date", date, 10);
+		//the cinema's theaters come from the reference cache, so only Plays is joined
+		long[] tids = esql.getReferenceCache().getTheatersOfCinema(cid);
+		String query_sid = "SELECT S.sid\n FROM Shows S, Plays P \nWHERE S.sdate = ? and S.sid=P.sid and P.tid = ANY(?);";
+		return esql.executeQueryAndReturnTyped(query_sid, date, tids);
+	}
+
+	/**
+	 * Method to remove every show playing at a cinema on a date (operation 8).
+	 * The shows' seats, theaters and the shows themselves are deleted in one
+	 * transaction.
+	 *
+	 * @return the sids of the removed shows
+	 * @throws java.util.NoSuchElementException when no show plays there that day
+	 */
+	public Map<String, Object> removeShowsOnDate(long cid, String date) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("remove-shows-on-date");
+		try {
+			long[] sids;
+			esql.beginTransaction();
+			try {
+				TypedResult sid_list = findShowsOnDate(cid, date);
+				if (sid_list.size() == 0) {
+					throw new NoSuchElementException("There are no such Shows at Cinema " + cid + " on " + date + ".");
+				}
+				sids = Arrays.copyOf(sid_list.getLongColumn(0), sid_list.size());
+
+				//Delete the show IDs from Showseats, then from Plays, then from Shows
+				esql.executeUpdate("DELETE FROM Showseats WHERE sid = ANY(?);", sids);
+				esql.executeUpdate("DELETE FROM Plays WHERE sid = ANY(?);", sids);
+				esql.executeUpdate("DELETE FROM Shows WHERE sid = ANY(?);", sids);
+				esql.afterCommit(() -> {
+					for (long sid : sids) {
+						esql.getSeatInventory().evict(sid);
+					}
+					esql.getScheduleIndex().removeShows(date, sids);
+				});
+				esql.commitTransaction();
+			} catch (SQLException | RuntimeException e) {
+				esql.rollbackTransaction();
+				throw e;
+			}
+
+			Map<String, Object> result = summary();
+			result.put("removed", sids);
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to list the theaters playing a show (operation 9), from
+	 * show_schedule.
+	 *
+	 * @return the number of theaters
+	 */
+	public int listTheatersPlayingShow(long sid, Ticketmaster.RowHandler handler) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("list-theaters-playing-show");
+		try {
+			String query = "SELECT tid, tname, cname FROM show_schedule WHERE sid = ?;";
+			return esql.executeQueryForEach(query, handler, sid);
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to list the shows starting at a date and time (operation 10),
+	 * from the schedule index once it is loaded.
+	 *
+	 * @return (sid, mvid, title, sdate, sttime, edtime) rows
+	 */
+	public TypedResult listShowsStartingOnTimeAndDate(String date, String time) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("list-shows-starting-on-time-and-date");
+		try {
+			checkLength("Date", date, 10);
+			checkLength("Time", time, 8);
+			TypedResult shows = esql.getScheduleIndex().findShowsStartingAt(date, time);
+			if (shows != null) {
+				return shows;
+			}
+			String query = "SELECT DISTINCT ON (sid) sid, mvid, title, sdate, sttime, edtime FROM show_schedule WHERE sdate = ? AND sttime = ? ORDER BY sid;";
+			return esql.executeQueryAndReturnTyped(query, date, time);
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to list the movies with "love" in the title released after 2010
+	 * (operation 11).
+	 *
+	 * @return the number of movies
+	 */
+	public int listMovieTitlesContainingLoveReleasedAfter2010(Ticketmaster.RowHandler handler) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("list-movie-titles-containing-love-released-after-2010");
+		try {
+			return searchMovieTitles("love", "2010-12-31", Long.MAX_VALUE, handler);
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to search movies by a keyword, ranked.  A movie matches when
+	 * its title contains the keyword, its title or description has the
+	 * keyword's words (full text, stemmed), or one of its title words is
+	 * spelled close to the keyword (trigram word similarity).  The GIN
+	 * indexes on title trigrams and on the search document in create.sql
+	 * answer each of the three, and the rank adds the full text rank (title
+	 * words weigh more than description words) to the word similarity.
+	 *
+	 * @param keyword the words to look for
+	 * @param released_after only movies released after this date, or null for all
+	 * @param limit the most movies to list
+	 * @return (mvid, title, rdate, rank) rows, the best first
+	 */
+	public int searchMovieTitles(String keyword, String released_after, long limit, Ticketmaster.RowHandler handler) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("search-movie-titles");
+		try {
+			checkLength("Keyword", keyword, 128);
+			if (released_after != null) {
+				checkLength("Date", released_after, 10);
+			}
+			if (limit <= 0) {
+				throw new IllegalArgumentException("The limit has to be positive.");
+			}
+			//matches the expression of movies_search_idx in create.sql, so the index is used
+			String document = "(setweight(to_tsvector('english', M.title), 'A') || setweight(to_tsvector('english', coalesce(M.description, '')), 'B'))";
+			String query = "SELECT M.mvid, M.title, M.rdate, round((ts_rank_cd(" + document + ", Q.q) + word_similarity(?, M.title))::numeric, 4) AS rank\n"
+						+ "FROM Movies M, plainto_tsquery('english', ?) Q(q)\n"
+						+ "WHERE M.rdate > ? AND (" + document + " @@ Q.q OR M.title ILIKE ? OR ? <% M.title)\n"
+						+ "ORDER BY rank DESC, M.mvid LIMIT ?;";
+			String pattern = "%" + keyword.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+			return esql.executeQueryForEach(query, handler, keyword, keyword, released_after == null ? "-infinity" : released_after,
+				pattern, keyword, limit);
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to list the users with a pending booking (operation 12).
+	 *
+	 * @return the number of rows
+	 */
+	public int listUsersWithPendingBooking(Ticketmaster.RowHandler handler) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("list-users-with-pending-booking");
+		try {
+			String query = "SELECT U.fname, U.lname, U.email\nFROM Users U, Bookings B\nWHERE B.email =  U.email\nAND B.status = ?;";
+			return esql.executeQueryForEach(query, handler, "Pending");
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to list the shows of a movie in a date range (operation 13).
+	 * The shows at one cinema come from the schedule index once it is
+	 * loaded.
+	 *
+	 * @param cinema only list shows at the cinema with this name, or null for
+	 *        every cinema (then the cinema name is listed too)
+	 * @return (title, duration, sid, sdate, sttime[, cname]) rows
+	 */
+	public TypedResult listMovieAndShowInfoAtCinemaInDateRange(long mvid, String lowest_date, String highest_date, String cinema)
+			throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("list-movie-and-show-info-at-cinema-in-date-range");
+		try {
+			checkLength("Date", lowest_date, 10);
+			checkLength("Date", highest_date, 10);
+			if (cinema == null) {
+				String query = "SELECT title, duration, sid, sdate, sttime, cname FROM show_schedule WHERE mvid = ? and sdate <= ? and sdate >= ?;";
+				return esql.executeQueryAndReturnTyped(query, mvid, highest_date, lowest_date);
+			}
+			checkLength("Cinema name", cinema, 128);
+			long[] tids = esql.getReferenceCache().getTheatersOfCinemaNamed(cinema);
+			//cinema names are not unique, so this may be more than one cinema
+			long[] cids = new long[tids.length];
+			for (int i = 0; i < tids.length; ++i) {
+				ReferenceCache.Theater theater = esql.getReferenceCache().getTheater(tids[i]);
+				cids[i] = theater == null ? -1 : theater.cid;
+			}
+			cids = Arrays.stream(cids).filter(cid -> cid != -1).distinct().toArray();
+			TypedResult shows = esql.getScheduleIndex().findShowsOfMovie(mvid, cids, lowest_date, highest_date);
+			if (shows != null) {
+				return shows;
+			}
+			String query = "SELECT title, duration, sid, sdate, sttime FROM show_schedule WHERE mvid = ? and sdate <= ? and sdate >= ? and cname = ?;";
+			return esql.executeQueryAndReturnTyped(query, mvid, highest_date, lowest_date, cinema);
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to get one page of a user's bookings (operation 14): each
+	 * booking with its show and all of its seat numbers.  Pages are keyed on
+	 * bid, so later pages cost the same as the first one.  There is one row
+	 * per booking, the names of its theaters joined with commas, so a full
+	 * page always has limit rows.
+	 *
+	 * @param after_bid only bookings with a larger bid, Long.MIN_VALUE for the first page
+	 * @param limit the page size
+	 * @return (bid, title, sdate, sttime, tname, seats) rows ordered by bid
+	 */
+	public TypedResult listBookingInfoForUser(String email, long after_bid, int limit) throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("list-booking-info-for-user");
+		try {
+			checkLength("Email", email, 64);
+			if (limit <= 0) {
+				throw new IllegalArgumentException("The page size has to be positive.");
+			}
+			String queryBookingInfo = "SELECT B.bid, M.title, S1.sdate, S1.sttime, string_agg(DISTINCT T.tname, ',') AS tname,\n"
+									+ "string_agg(C.sno::text, ',' ORDER BY C.sno) AS seats\n"
+									+ "FROM (SELECT bid, sid FROM bookings WHERE email = ? AND bid > ? ORDER BY bid LIMIT ?) B\n"
+									+ "JOIN shows S1 ON S1.sid = B.sid\n"
+									+ "JOIN movies M ON M.mvid = S1.mvid\n"
+									+ "LEFT JOIN showseats S2 ON S2.bid = B.bid\n"
+									+ "LEFT JOIN cinemaseats C ON C.csid = S2.csid\n"
+									+ "LEFT JOIN theaters T ON T.tid = C.tid\n"
+									+ "GROUP BY B.bid, M.title, S1.sdate, S1.sttime\n"
+									+ "ORDER BY B.bid;";
+			return esql.executeQueryAndReturnTyped(queryBookingInfo, email, after_bid, limit);
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to refill show_schedule from Shows, Plays, Movies, Theaters and
+	 * Cinemas, e.g. after check_show_schedule found differences or the base
+	 * tables were changed with the triggers disabled.
+	 *
+	 * @return the number of rows in show_schedule
+	 */
+	public Map<String, Object> rebuildShowSchedule() throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("rebuild-show-schedule");
+		try {
+			TypedResult rows = esql.executeQueryAndReturnTyped("SELECT rebuild_show_schedule();");
+			//the base tables may have changed behind the caches as well
+			esql.getReferenceCache().invalidateAll();
+			esql.getScheduleIndex().invalidate();
+			Map<String, Object> result = summary();
+			result.put("rows", rows.getLong(0, 0));
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Method to compare show_schedule with the base tables.
+	 *
+	 * @return (problem, show_id, theater_id) rows, one per missing, extra or
+	 *         different row of show_schedule; none when it is consistent
+	 */
+	public TypedResult checkShowSchedule() throws SQLException {
+		Metrics.Span span = esql.getMetrics().begin("check-show-schedule");
+		try {
+			return esql.executeQueryAndReturnTyped("SELECT problem, show_id, theater_id FROM check_show_schedule();");
+		} catch (SQLException | RuntimeException e) {
+			span.failed();
+			throw e;
+		} finally {
+			span.end();
+		}
+	}
+}
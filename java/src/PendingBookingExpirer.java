@@ -0,0 +1,192 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class cancels bookings that stayed Pending longer than the checkout
+ * window (15 minutes by default) and gives their seats back, from a
+ * background thread on a fixed cadence.
+ *
+ * Each run expires the overdue bookings oldest first, in batches of
+ * batchSize, each batch in its own short transaction.  Batches are picked
+ * through the partial index on pending bookings' bdatetime and with SKIP
+ * LOCKED, so a run never waits on a booking someone is paying for right
+ * now, and two processes running the expirer share the work.
+ *
+ * Settings (system properties):
+ *   ticketmaster.expiry.ttlSeconds   how long a booking may stay Pending (900)
+ *   ticketmaster.expiry.intervalMs   pause between runs (10000)
+ *   ticketmaster.expiry.batchSize    bookings per transaction (500)
+ *
+ */
+
+public class PendingBookingExpirer {
+	private final Ticketmaster esql;
+	private final long ttlSeconds;
+	private final long intervalMillis;
+	private final int batchSize;
+	private ScheduledExecutorService scheduler = null;
+
+	// counters, written by the scheduler thread only
+	private volatile long expired = 0;
+	private volatile long seatsReleased = 0;
+	private volatile long batches = 0;
+	private volatile long runs = 0;
+	private volatile long errors = 0;
+	private volatile long lastRunMillis = 0;
+	private volatile double lagSeconds = 0;
+
+	public PendingBookingExpirer(Ticketmaster esql) {
+		this.esql = esql;
+		this.ttlSeconds = Long.getLong("ticketmaster.expiry.ttlSeconds", 900L);
+		this.intervalMillis = Long.getLong("ticketmaster.expiry.intervalMs", 10000L);
+		this.batchSize = Integer.getInteger("ticketmaster.expiry.batchSize", 500);
+	}
+
+	/**
+	 * Method to start expiring bookings in the background.
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pending-booking-expirer");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(this::runQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to stop the background thread.  A batch in progress is
+	 * interrupted and rolled back.
+	 */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	private void runQuietly() {
+		try {
+			run();
+		} catch (Exception e) {
+			++errors;
+			System.err.println("Pending booking expiry failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to expire every overdue pending booking now, batch by batch,
+	 * and then measure the lag.
+	 *
+	 * @return the number of bookings expired
+	 * @throws java.sql.SQLException when a batch fails; batches before it stay expired
+	 */
+	public long run() throws SQLException {
+		long count = 0;
+		int expiredInBatch;
+		do {
+			expiredInBatch = expireBatch();
+			count += expiredInBatch;
+		} while (expiredInBatch == batchSize && !Thread.currentThread().isInterrupted());
+		lagSeconds = measureLag();
+		lastRunMillis = System.currentTimeMillis();
+		++runs;
+		return count;
+	}
+
+	/*
+	 * Cancels one batch of overdue bookings and frees their seats in one
+	 * transaction.  Returns how many bookings it cancelled.
+	 */
+	private int expireBatch() throws SQLException {
+		TypedResult released;
+		long[] bids;
+		esql.beginTransaction();
+		try {
+			String query_expire = "UPDATE Bookings SET status = 'Cancelled'\n"
+								+ "WHERE bid IN (SELECT bid FROM Bookings\n"
+								+ "WHERE status = 'Pending' AND bdatetime < now() - make_interval(secs => ?)\n"
+								+ "ORDER BY bdatetime LIMIT ? FOR UPDATE SKIP LOCKED)\n"
+								+ "RETURNING bid;";
+			TypedResult batch = esql.executeQueryAndReturnTyped(query_expire, ttlSeconds, batchSize);
+			if (batch.size() == 0) {
+				esql.commitTransaction();
+				return 0;
+			}
+			bids = Arrays.copyOf(batch.getLongColumn(0), batch.size());
+
+			String query_free = "UPDATE Showseats SS SET bid = null FROM Cinemaseats CS\n"
+							+ "WHERE SS.bid = ANY(?) AND SS.csid = CS.csid\n"
+							+ "RETURNING SS.sid, CS.tid, CS.sno;";
+			released = esql.executeQueryAndReturnTyped(query_free, bids);
+			esql.afterCommit(() -> esql.getSeatInventory().markFree(released, 0, 1, 2));
+			esql.commitTransaction();
+		} catch (SQLException | RuntimeException e) {
+			esql.rollbackTransaction();
+			throw e;
+		}
+		expired += bids.length;
+		seatsReleased += released.size();
+		++batches;
+		return bids.length;
+	}
+
+	/*
+	 * How long the oldest pending booking has been overdue, 0 when none is.
+	 */
+	private double measureLag() throws SQLException {
+		String query_oldest = "SELECT EXTRACT(EPOCH FROM now() - min(bdatetime)) FROM Bookings WHERE status = 'Pending';";
+		TypedResult oldest = esql.executeQueryAndReturnTyped(query_oldest);
+		if (oldest.size() == 0 || oldest.isNull(0, 0)) {
+			return 0;
+		}
+		return Math.max(0, oldest.getDouble(0, 0) - ttlSeconds);
+	}
+
+	/**
+	 * Method to report what the expirer has done.
+	 *
+	 * @return settings and counters, one per line
+	 */
+	public String getStats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("expiry.ttl.seconds\t").append(ttlSeconds).append('\n');
+		sb.append("expiry.interval.ms\t").append(intervalMillis).append('\n');
+		sb.append("expiry.batch.size\t").append(batchSize).append('\n');
+		sb.append("expiry.runs\t").append(runs).append('\n');
+		sb.append("expiry.batches\t").append(batches).append('\n');
+		sb.append("expiry.bookings.expired\t").append(expired).append('\n');
+		sb.append("expiry.seats.released\t").append(seatsReleased).append('\n');
+		sb.append("expiry.errors\t").append(errors).append('\n');
+		sb.append("expiry.lag.seconds\t").append(String.format("%.1f", lagSeconds)).append('\n');
+		sb.append("expiry.last.run.ms.ago\t").append(lastRunMillis == 0 ? -1 : System.currentTimeMillis() - lastRunMillis).append('\n');
+		return sb.toString();
+	}
+
+	public long getExpiredCount() {
+		return expired;
+	}
+
+	public double getLagSeconds() {
+		return lagSeconds;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps in-memory copies of the reference data the operations
+ * look up over and over but which hardly ever changes: movie titles, and
+ * theaters with their cinema and city.  Entries are read through: the first
+ * lookup of a key asks the database and later ones are memory reads.
+ *
+ * Each kind of lookup is a region of at most maxEntries entries, evicting
+ * the least recently used one, and an entry is asked again once it is older
+ * than ttlSeconds, which bounds how long a change made by another process
+ * (a bulk load, psql) goes unseen.  Writers in this process invalidate what
+ * they change after they commit.  A lookup that finds nothing is not
+ * cached, so a movie or theater added elsewhere is found right away.
+ *
+ * Settings (system properties):
+ *   ticketmaster.refCache.maxEntries  entries per region (10000)
+ *   ticketmaster.refCache.ttlSeconds  how long an entry is trusted (300)
+ *
+ */
+
+public class ReferenceCache {
+	/**
+	 * A theater with its cinema and the cinema's city.
+	 */
+	public static final class Theater {
+		public final long tid;
+		public final String tname;
+		public final long tseats;
+		public final long cid;
+		public final String cname;
+		public final long cityId;
+		public final String cityName;
+		public final String cityState;
+
+		Theater(TypedResult row) {
+			this.tid = row.getLong(0, 0);
+			this.tname = row.getString(0, 1);
+			this.tseats = row.getLong(0, 2);
+			this.cid = row.getLong(0, 3);
+			this.cname = row.getString(0, 4);
+			this.cityId = row.getLong(0, 5);
+			this.cityName = row.getString(0, 6);
+			this.cityState = row.getString(0, 7);
+		}
+	}
+
+	private interface Loader<K, V> {
+		// returns null when there is nothing to cache
+		V load(K key) throws SQLException;
+	}
+
+	/*
+	 * One bounded LRU map with a TTL, and its counters.  A load that started
+	 * before an invalidation is not stored, so an invalidation can never be
+	 * undone by a lookup that was already in flight.
+	 */
+	private static final class Region<K, V> {
+		final String name;
+		final Loader<K, V> loader;
+		final int maxEntries;
+		final long ttlNanos;
+		final LinkedHashMap<K, Entry<V>> entries;
+		long generation = 0;
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder expired = new LongAdder();
+		final LongAdder evictions = new LongAdder();
+		final LongAdder invalidations = new LongAdder();
+
+		Region(String name, int maxEntries, long ttlNanos, Loader<K, V> loader) {
+			this.name = name;
+			this.loader = loader;
+			this.maxEntries = maxEntries;
+			this.ttlNanos = ttlNanos;
+			this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+					if (size() > Region.this.maxEntries) {
+						evictions.increment();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		V get(K key) throws SQLException {
+			long generationBefore;
+			synchronized (this) {
+				Entry<V> entry = entries.get(key);
+				if (entry != null && System.nanoTime() - entry.loaded < ttlNanos) {
+					hits.increment();
+					return entry.value;
+				}
+				if (entry != null) {
+					entries.remove(key);
+					expired.increment();
+				}
+				generationBefore = generation;
+			}
+			misses.increment();
+			V value = loader.load(key);
+			if (value != null) {
+				synchronized (this) {
+					if (generation == generationBefore) {
+						entries.put(key, new Entry<V>(value, System.nanoTime()));
+					}
+				}
+			}
+			return value;
+		}
+
+		synchronized void invalidate(K key) {
+			++generation;
+			invalidations.increment();
+			entries.remove(key);
+		}
+
+		synchronized void invalidateAll() {
+			++generation;
+			invalidations.increment();
+			entries.clear();
+		}
+
+		void appendStats(StringBuilder sb) {
+			int size;
+			synchronized (this) {
+				size = entries.size();
+			}
+			sb.append("refcache.").append(name).append(".entries\t").append(size).append('\n');
+			sb.append("refcache.").append(name).append(".hits\t").append(hits.sum()).append('\n');
+			sb.append("refcache.").append(name).append(".misses\t").append(misses.sum()).append('\n');
+			sb.append("refcache.").append(name).append(".expired\t").append(expired.sum()).append('\n');
+			sb.append("refcache.").append(name).append(".evictions\t").append(evictions.sum()).append('\n');
+			sb.append("refcache.").append(name).append(".invalidations\t").append(invalidations.sum()).append('\n');
+		}
+	}
+
+	private static final class Entry<V> {
+		final V value;
+		final long loaded;
+
+		Entry(V value, long loaded) {
+			this.value = value;
+			this.loaded = loaded;
+		}
+	}
+
+	private final Ticketmaster esql;
+	private final Region<String, Long> movieIds;
+	private final Region<Long, Theater> theaters;
+	private final Region<Long, long[]> cinemaTheaters;
+	private final Region<String, long[]> cinemaNameTheaters;
+
+	public ReferenceCache(Ticketmaster esql) {
+		this.esql = esql;
+		int maxEntries = Integer.getInteger("ticketmaster.refCache.maxEntries", 10000);
+		long ttlNanos = Long.getLong("ticketmaster.refCache.ttlSeconds", 300L) * 1000000000L;
+		this.movieIds = new Region<String, Long>("movies.bytitle", maxEntries, ttlNanos, this::loadMovieId);
+		this.theaters = new Region<Long, Theater>("theaters", maxEntries, ttlNanos, this::loadTheater);
+		this.cinemaTheaters = new Region<Long, long[]>("cinemas.theaters", maxEntries, ttlNanos, this::loadCinemaTheaters);
+		this.cinemaNameTheaters = new Region<String, long[]>("cinemas.byname.theaters", maxEntries, ttlNanos, this::loadCinemaNameTheaters);
+	}
+
+	private Long loadMovieId(String title) throws SQLException {
+		// titles are not unique; the oldest movie with the title is the one found
+		TypedResult movie = esql.executeQueryAndReturnTyped("SELECT mvid FROM Movies WHERE title = ? ORDER BY mvid LIMIT 1;", title);
+		return movie.size() == 0 ? null : movie.getLong(0, 0);
+	}
+
+	private Theater loadTheater(Long tid) throws SQLException {
+		TypedResult theater = esql.executeQueryAndReturnTyped(
+			"SELECT T.tid, T.tname, T.tseats, C.cid, C.cname, CI.city_id, CI.city_name, CI.city_state\n"
+			+ "FROM Theaters T, Cinemas C, Cities CI WHERE T.tid = ? AND C.cid = T.cid AND CI.city_id = C.city_id;", tid);
+		return theater.size() == 0 ? null : new Theater(theater);
+	}
+
+	private long[] loadCinemaTheaters(Long cid) throws SQLException {
+		TypedResult tids = esql.executeQueryAndReturnTyped("SELECT tid FROM Theaters WHERE cid = ? ORDER BY tid;", cid);
+		return tids.size() == 0 ? null : Arrays.copyOf(tids.getLongColumn(0), tids.size());
+	}
+
+	private long[] loadCinemaNameTheaters(String cname) throws SQLException {
+		TypedResult tids = esql.executeQueryAndReturnTyped(
+			"SELECT T.tid FROM Theaters T, Cinemas C WHERE C.cname = ? AND T.cid = C.cid ORDER BY T.tid;", cname);
+		return tids.size() == 0 ? null : Arrays.copyOf(tids.getLongColumn(0), tids.size());
+	}
+
+	/**
+	 * Method to find a movie by its exact title.
+	 *
+	 * @return the mvid of the oldest movie with this title, or null when there is none
+	 */
+	public Long getMovieId(String title) throws SQLException {
+		return movieIds.get(title);
+	}
+
+	/**
+	 * Method to look a theater up.
+	 *
+	 * @return the theater with its cinema and city, or null when there is no such theater
+	 */
+	public Theater getTheater(long tid) throws SQLException {
+		return theaters.get(tid);
+	}
+
+	/**
+	 * Method to list the theaters of a cinema.
+	 *
+	 * @return the tids in order, empty when the cinema has none or does not exist
+	 */
+	public long[] getTheatersOfCinema(long cid) throws SQLException {
+		long[] tids = cinemaTheaters.get(cid);
+		return tids == null ? new long[0] : tids.clone();
+	}
+
+	/**
+	 * Method to list the theaters of every cinema with a name.
+	 *
+	 * @return the tids in order, empty when there is no such cinema
+	 */
+	public long[] getTheatersOfCinemaNamed(String cname) throws SQLException {
+		long[] tids = cinemaNameTheaters.get(cname);
+		return tids == null ? new long[0] : tids.clone();
+	}
+
+	/**
+	 * Method to forget a title, after a movie with it was added or changed.
+	 */
+	public void invalidateMovie(String title) {
+		movieIds.invalidate(title);
+	}
+
+	/**
+	 * Method to forget everything, e.g. after the tables were loaded again
+	 * or a batch group that read them was rolled back.
+	 */
+	public void invalidateAll() {
+		movieIds.invalidateAll();
+		theaters.invalidateAll();
+		cinemaTheaters.invalidateAll();
+		cinemaNameTheaters.invalidateAll();
+	}
+
+	/**
+	 * Method to report how well the cache does.
+	 *
+	 * @return entries, hits, misses, expirations, evictions and invalidations per region, one per line
+	 */
+	public String getStats() {
+		StringBuilder sb = new StringBuilder();
+		movieIds.appendStats(sb);
+		theaters.appendStats(sb);
+		cinemaTheaters.appendStats(sb);
+		cinemaNameTheaters.appendStats(sb);
+		return sb.toString();
+	}
+}
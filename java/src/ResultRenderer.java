@@ -0,0 +1,383 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class writes query results as text, one row at a time, through one
+ * large buffered writer, so printing or exporting a result costs a write
+ * call per buffer instead of one per cell.
+ *
+ * Three formats:
+ *   table   columns padded to a common width, numbers right aligned, with a
+ *           header and a rule.  Widths are taken from the first sampleRows
+ *           rows, which are held back until then; later rows that are wider
+ *           stick out rather than being cut.  NULL is written as null.
+ *   csv     RFC 4180: a header line, fields quoted only when they contain a
+ *           comma, quote or line break, CRLF line ends.  NULL is empty.
+ *   ndjson  one JSON object per line, numbers unquoted.
+ *
+ * A renderer is a RowHandler, so with executeQueryForEach the rows stream
+ * from the server-side cursor to the writer and memory stays constant
+ * however large the result.  Nothing is written for an empty result.
+ * Since the loop then runs at the pace of the writer, those queries are
+ * counted in the metrics but kept out of the slow query log.
+ *
+ * Settings (system properties):
+ *   ticketmaster.render.format      format of the menu's listings (table)
+ *   ticketmaster.render.sampleRows  rows the table widths are taken from (1000)
+ *   ticketmaster.render.bufferSize  bytes buffered before a write (65536)
+ *
+ * Usage: ./export.sh <table|csv|ndjson> <query> [file]
+ *
+ */
+
+public class ResultRenderer implements Ticketmaster.RowHandler {
+	public enum Format { TABLE, CSV, NDJSON }
+
+	private static final int SAMPLE_ROWS = Integer.getInteger("ticketmaster.render.sampleRows", 1000);
+	private static final int BUFFER_SIZE = Integer.getInteger("ticketmaster.render.bufferSize", 1 << 16);
+
+	private final Writer out;
+	private final Format format;
+	private final StringBuilder line = new StringBuilder(256);
+	private String[] names;
+	private boolean[] numeric;
+	private String[] cells;
+	// table format: the rows held back until the widths are known
+	private List<String[]> sample;
+	private int[] widths;
+	private long rows = 0;
+
+	/**
+	 * Creates a renderer writing to a writer.  The writer is flushed by
+	 * end() but not closed.
+	 */
+	public ResultRenderer(Writer out, Format format) {
+		this.out = out;
+		this.format = format;
+		this.sample = format == Format.TABLE ? new ArrayList<String[]>() : null;
+	}
+
+	/**
+	 * Method to get a renderer for a stream, e.g. System.out, in the
+	 * configured format.
+	 *
+	 * @return a new renderer, to be used for one result
+	 */
+	public static ResultRenderer toStream(OutputStream out) {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+		return new ResultRenderer(writer, parseFormat(System.getProperty("ticketmaster.render.format", "table")));
+	}
+
+	/**
+	 * Method to read a format name.
+	 *
+	 * @throws java.lang.IllegalArgumentException when the name is not table, csv or ndjson
+	 */
+	public static Format parseFormat(String name) {
+		try {
+			return Format.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown format " + name + ", expected table, csv or ndjson");
+		}
+	}
+
+	public void handle(ResultSet rs) throws SQLException {
+		if (names == null) {
+			ResultSetMetaData rsmd = rs.getMetaData();
+			String[] labels = new String[rsmd.getColumnCount()];
+			boolean[] numbers = new boolean[labels.length];
+			for (int i = 0; i < labels.length; ++i) {
+				labels[i] = rsmd.getColumnLabel(i + 1);
+				numbers[i] = Json.isNumeric(rsmd.getColumnType(i + 1));
+			}
+			begin(labels, numbers);
+		}
+		for (int i = 0; i < cells.length; ++i) {
+			cells[i] = rs.getString(i + 1);
+		}
+		row(cells);
+	}
+
+	/*
+	 * The rows are written as they are fetched, so a slow run is as likely
+	 * to be a slow disk or terminal as a slow query.
+	 */
+	public boolean isSlowQueryLogged() {
+		return false;
+	}
+
+	/**
+	 * Method to write all rows of a result and flush.
+	 *
+	 * @return the number of rows written
+	 */
+	public long write(TypedResult result) {
+		if (result.size() > 0) {
+			String[] labels = new String[result.getColumnCount()];
+			boolean[] numbers = new boolean[labels.length];
+			for (int i = 0; i < labels.length; ++i) {
+				labels[i] = result.getColumnName(i);
+				numbers[i] = result.getColumnKind(i) != TypedResult.STRING;
+			}
+			begin(labels, numbers);
+			for (int row = 0; row < result.size(); ++row) {
+				for (int i = 0; i < cells.length; ++i) {
+					cells[i] = result.getString(row, i);
+				}
+				row(cells);
+			}
+		}
+		end();
+		return rows;
+	}
+
+	/**
+	 * Method to finish the result: writes the rows still held back and
+	 * flushes the writer.  executeQueryForEach calls it after the last row.
+	 */
+	public void end() {
+		if (sample != null && names != null) {
+			startTable();
+		}
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Method to get the number of rows written so far.
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	private void begin(String[] labels, boolean[] numbers) {
+		this.names = labels;
+		this.numeric = numbers;
+		this.cells = new String[labels.length];
+		if (format == Format.CSV) {
+			line.setLength(0);
+			for (int i = 0; i < names.length; ++i) {
+				if (i > 0) {
+					line.append(',');
+				}
+				appendCsv(names[i]);
+			}
+			line.append("\r\n");
+			flushLine();
+		}
+	}
+
+	private void row(String[] values) {
+		++rows;
+		switch (format) {
+			case TABLE:
+				if (sample != null) {
+					sample.add(values.clone());
+					if (sample.size() >= SAMPLE_ROWS) {
+						startTable();
+					}
+					return;
+				}
+				appendTableRow(values, false);
+				break;
+			case CSV:
+				for (int i = 0; i < values.length; ++i) {
+					if (i > 0) {
+						line.append(',');
+					}
+					if (values[i] != null) {
+						appendCsv(values[i]);
+					}
+				}
+				line.append("\r\n");
+				break;
+			default:
+				line.append('{');
+				for (int i = 0; i < values.length; ++i) {
+					if (i > 0) {
+						line.append(',');
+					}
+					Json.quote(names[i], line);
+					line.append(':');
+					if (values[i] == null) {
+						line.append("null");
+					} else if (numeric[i] && isFinite(values[i])) {
+						line.append(values[i]);
+					} else {
+						Json.quote(values[i], line);
+					}
+				}
+				line.append("}\n");
+				break;
+		}
+		flushLine();
+	}
+
+	/*
+	 * Takes the widths from the rows held back, then writes the header, the
+	 * rule and those rows.
+	 */
+	private void startTable() {
+		widths = new int[names.length];
+		for (int i = 0; i < names.length; ++i) {
+			widths[i] = names[i].length();
+		}
+		for (String[] values : sample) {
+			for (int i = 0; i < values.length; ++i) {
+				widths[i] = Math.max(widths[i], values[i] == null ? 4 : values[i].length());
+			}
+		}
+		List<String[]> held = sample;
+		sample = null;
+		appendTableRow(names, true);
+		flushLine();
+		for (int i = 0; i < names.length; ++i) {
+			if (i > 0) {
+				line.append("-+-");
+			}
+			for (int j = 0; j < widths[i]; ++j) {
+				line.append('-');
+			}
+		}
+		line.append('\n');
+		flushLine();
+		for (String[] values : held) {
+			appendTableRow(values, false);
+			flushLine();
+		}
+	}
+
+	private void appendTableRow(String[] values, boolean header) {
+		for (int i = 0; i < values.length; ++i) {
+			if (i > 0) {
+				line.append(" | ");
+			}
+			String value = values[i] == null ? "null" : values[i];
+			int pad = widths[i] - value.length();
+			if (numeric[i] && !header) {
+				pad(pad);
+				line.append(value);
+			} else {
+				line.append(value);
+				// no trailing blanks after the last column
+				if (i < values.length - 1) {
+					pad(pad);
+				}
+			}
+		}
+		line.append('\n');
+	}
+
+	private void pad(int n) {
+		for (int i = 0; i < n; ++i) {
+			line.append(' ');
+		}
+	}
+
+	private void appendCsv(String value) {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; ++i) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			line.append(value);
+			return;
+		}
+		line.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				line.append('"');
+			}
+			line.append(c);
+		}
+		line.append('"');
+	}
+
+	// NaN and Infinity are numbers to Postgres but not to JSON
+	private static boolean isFinite(String number) {
+		char last = number.charAt(number.length() - 1);
+		return last != 'N' && last != 'y';
+	}
+
+	private void flushLine() {
+		try {
+			out.append(line);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		line.setLength(0);
+	}
+
+	/**
+	 * Method to stream the result of a query to a writer.
+	 *
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows written
+	 */
+	public static long export(Ticketmaster esql, String query, Format format, Writer out, Object... params) throws SQLException {
+		ResultRenderer renderer = new ResultRenderer(out, format);
+		esql.executeQueryForEach(query, renderer, params);
+		return renderer.getRows();
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 5) {
+			System.err.println("Usage: java [-classpath <classpath>] " + ResultRenderer.class.getName()
+				+ " <dbname> <port> <user> <table|csv|ndjson> <query> [file]");
+			return;
+		}
+		Ticketmaster esql = null;
+		try {
+			Format format = parseFormat(args[3]);
+			// the rows may go to standard out, so the progress messages go to standard error
+			OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+			System.setOut(System.err);
+			esql = new Ticketmaster(args[0], args[1], args[2], "");
+			long start = System.nanoTime();
+			long rows;
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(args.length > 5 ? new FileOutputStream(args[5]) : stdout,
+					StandardCharsets.UTF_8), BUFFER_SIZE)) {
+				rows = export(esql, args[4], format, out);
+			}
+			double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+			System.err.println(String.format("%d rows in %.2f s: %.0f rows/s", rows, seconds, rows / seconds));
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		} finally {
+			if (esql != null) {
+				esql.cleanup();
+			}
+		}
+	}
+}
@@ -0,0 +1,514 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the show schedule in memory, so the listings of shows
+ * by date and time (operation 10) and of a movie's shows at a cinema in a
+ * date range (operation 13) are map lookups instead of joins.
+ *
+ * A show is kept once per theater playing it, with its movie and the
+ * theater's cinema.  The shows of one cinema on one day are an array
+ * sorted by start time, and those arrays are found both per cinema, in a
+ * NavigableMap by day that a date range is a slice of, and per day, for
+ * every cinema at once.  Arrays are never changed, only replaced, so
+ * lookups take no locks.  A show nobody plays is not in the index.
+ *
+ * The index is loaded from the show_schedule table (sql/create.sql) in the
+ * background at startup, or on first use, and
+ * loaded again when it is older than refreshSeconds, which bounds how long
+ * a change made by another process (a bulk load, psql) goes unseen.
+ * Shows this process adds or removes are applied right after the commit,
+ * including to a load that is still running.  Until the first load is done,
+ * and for dates and times it cannot read, the operations ask the database.
+ * With several application nodes, where another node's changes would go
+ * unseen for up to refreshSeconds, turn the index off to always read
+ * show_schedule, which triggers keep current.
+ *
+ * Settings (system properties):
+ *   ticketmaster.scheduleIndex.enabled         false to always ask the database (true)
+ *   ticketmaster.scheduleIndex.refreshSeconds  how long a load is used (600)
+ *
+ */
+
+public class ScheduleIndex {
+	private static final String LOAD_QUERY = "SELECT sid, mvid, title, duration, sdate, sttime, edtime, tid, cid FROM show_schedule;";
+
+	private static final String[] SHOW_COLUMNS = { "sid", "mvid", "title", "sdate", "sttime", "edtime" };
+	private static final int[] SHOW_KINDS = { TypedResult.LONG, TypedResult.LONG, TypedResult.STRING,
+		TypedResult.STRING, TypedResult.STRING, TypedResult.STRING };
+	private static final String[] MOVIE_SHOW_COLUMNS = { "title", "duration", "sid", "sdate", "sttime" };
+	private static final int[] MOVIE_SHOW_KINDS = { TypedResult.STRING, TypedResult.LONG, TypedResult.LONG,
+		TypedResult.STRING, TypedResult.STRING };
+
+	private static final int NO_DAY = Integer.MIN_VALUE;
+
+	private static final Comparator<Show> BY_START = (a, b) -> {
+		int c = Long.compare(a.start, b.start);
+		if (c == 0) {
+			c = Long.compare(a.sid, b.sid);
+		}
+		return c != 0 ? c : Long.compare(a.tid, b.tid);
+	};
+
+	private static final class Movie {
+		final long mvid;
+		final String title;
+		final Integer duration;
+
+		Movie(long mvid, String title, Integer duration) {
+			this.mvid = mvid;
+			this.title = title;
+			this.duration = duration;
+		}
+	}
+
+	/*
+	 * One show in one theater.  Times are nanoseconds of the day.
+	 */
+	private static final class Show {
+		final long sid;
+		final Movie movie;
+		final int day;
+		final long start;
+		final long end;
+		final long tid;
+		final long cid;
+
+		Show(long sid, Movie movie, int day, long start, long end, long tid, long cid) {
+			this.sid = sid;
+			this.movie = movie;
+			this.day = day;
+			this.start = start;
+			this.end = end;
+			this.tid = tid;
+			this.cid = cid;
+		}
+	}
+
+	/*
+	 * The shows of every cinema on every day, twice: per cinema by day, and
+	 * per day by cinema.  Both hold the same arrays.
+	 */
+	private static final class Schedule {
+		final long loaded;
+		final Map<Long, NavigableMap<Integer, Show[]>> byCinema = new ConcurrentHashMap<Long, NavigableMap<Integer, Show[]>>();
+		final NavigableMap<Integer, Map<Long, Show[]>> byDay = new ConcurrentSkipListMap<Integer, Map<Long, Show[]>>();
+		int shows = 0;
+		int days = 0;
+
+		Schedule(long loaded) {
+			this.loaded = loaded;
+		}
+
+		Show[] get(long cid, int day) {
+			NavigableMap<Integer, Show[]> days = byCinema.get(cid);
+			return days == null ? null : days.get(day);
+		}
+
+		void put(long cid, int day, Show[] shows) {
+			Show[] old = get(cid, day);
+			if (old != null) {
+				this.shows -= old.length;
+				--this.days;
+			}
+			if (shows.length == 0) {
+				NavigableMap<Integer, Show[]> days = byCinema.get(cid);
+				if (days != null) {
+					days.remove(day);
+				}
+				Map<Long, Show[]> cinemas = byDay.get(day);
+				if (cinemas != null) {
+					cinemas.remove(cid);
+				}
+				return;
+			}
+			byCinema.computeIfAbsent(cid, k -> new ConcurrentSkipListMap<Integer, Show[]>()).put(day, shows);
+			byDay.computeIfAbsent(day, k -> new ConcurrentHashMap<Long, Show[]>()).put(cid, shows);
+			this.shows += shows.length;
+			++this.days;
+		}
+
+		void add(Show show) {
+			Show[] old = get(show.cid, show.day);
+			if (old == null) {
+				put(show.cid, show.day, new Show[] { show });
+				return;
+			}
+			int at = Arrays.binarySearch(old, show, BY_START);
+			if (at >= 0) {
+				return;
+			}
+			at = -at - 1;
+			Show[] shows = new Show[old.length + 1];
+			System.arraycopy(old, 0, shows, 0, at);
+			shows[at] = show;
+			System.arraycopy(old, at, shows, at + 1, old.length - at);
+			put(show.cid, show.day, shows);
+		}
+
+		void remove(int day, long[] sids) {
+			Map<Long, Show[]> cinemas = byDay.get(day);
+			if (cinemas == null) {
+				return;
+			}
+			for (Map.Entry<Long, Show[]> cinema : new ArrayList<Map.Entry<Long, Show[]>>(cinemas.entrySet())) {
+				List<Show> kept = new ArrayList<Show>(cinema.getValue().length);
+				for (Show show : cinema.getValue()) {
+					if (!contains(sids, show.sid)) {
+						kept.add(show);
+					}
+				}
+				if (kept.size() != cinema.getValue().length) {
+					put(cinema.getKey(), day, kept.toArray(new Show[0]));
+				}
+			}
+		}
+	}
+
+	private interface Change {
+		void apply(Schedule schedule);
+	}
+
+	private final Ticketmaster esql;
+	private final boolean enabled;
+	private final long refreshNanos;
+	private volatile Schedule schedule = null;
+	// changes made while a load runs, applied to it before it is used
+	private List<Change> pending = null;
+	private volatile long lastLoadStarted = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder fallbacks = new LongAdder();
+	private final LongAdder updates = new LongAdder();
+	private volatile long loads = 0;
+	private volatile long loadFailures = 0;
+	private volatile long lastLoadMillis = 0;
+
+	public ScheduleIndex(Ticketmaster esql) {
+		this.esql = esql;
+		this.enabled = Boolean.parseBoolean(System.getProperty("ticketmaster.scheduleIndex.enabled", "true"));
+		this.refreshNanos = Long.getLong("ticketmaster.scheduleIndex.refreshSeconds", 600L) * 1000000000L;
+	}
+
+	/**
+	 * Method to start loading the index in the background, so the first
+	 * lookups do not have to ask the database.
+	 */
+	public synchronized void start() {
+		if (!enabled || pending != null) {
+			return;
+		}
+		final List<Change> changes = new ArrayList<Change>();
+		pending = changes;
+		lastLoadStarted = System.nanoTime();
+		Thread t = new Thread(() -> load(changes), "schedule-index");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void load(List<Change> changes) {
+		long start = System.nanoTime();
+		Schedule loaded = new Schedule(start);
+		try {
+			final Map<Long, Movie> movies = new HashMap<Long, Movie>();
+			final Map<Long, Map<Integer, List<Show>>> shows = new HashMap<Long, Map<Integer, List<Show>>>();
+			esql.executeQueryForEach(LOAD_QUERY, new Ticketmaster.RowHandler() {
+				public void handle(ResultSet rs) throws SQLException {
+					long mvid = rs.getLong(2);
+					Movie movie = movies.get(mvid);
+					if (movie == null) {
+						int duration = rs.getInt(4);
+						movie = new Movie(mvid, rs.getString(3), rs.wasNull() ? null : duration);
+						movies.put(mvid, movie);
+					}
+					Show show = new Show(rs.getLong(1), movie, (int) LocalDate.parse(rs.getString(5)).toEpochDay(),
+						LocalTime.parse(rs.getString(6)).toNanoOfDay(), LocalTime.parse(rs.getString(7)).toNanoOfDay(),
+						rs.getLong(8), rs.getLong(9));
+					shows.computeIfAbsent(show.cid, k -> new HashMap<Integer, List<Show>>())
+						.computeIfAbsent(show.day, k -> new ArrayList<Show>()).add(show);
+				}
+			});
+			for (Map.Entry<Long, Map<Integer, List<Show>>> cinema : shows.entrySet()) {
+				for (Map.Entry<Integer, List<Show>> day : cinema.getValue().entrySet()) {
+					Show[] sorted = day.getValue().toArray(new Show[0]);
+					Arrays.sort(sorted, BY_START);
+					loaded.put(cinema.getKey(), day.getKey(), sorted);
+				}
+			}
+		} catch (SQLException | RuntimeException e) {
+			synchronized (this) {
+				if (pending == changes) {
+					pending = null;
+				}
+			}
+			++loadFailures;
+			System.err.println("Schedule index load failed: " + e.getMessage());
+			return;
+		}
+		synchronized (this) {
+			if (pending != changes) {
+				// invalidated while loading
+				return;
+			}
+			for (Change change : changes) {
+				change.apply(loaded);
+			}
+			pending = null;
+			schedule = loaded;
+		}
+		++loads;
+		lastLoadMillis = (System.nanoTime() - start) / 1000000L;
+	}
+
+	/*
+	 * Returns the loaded index, or null when there is none yet, starting a
+	 * load when there is none or it is too old.  A failed load is retried
+	 * after refreshSeconds, the lookups asking the database meanwhile.
+	 */
+	private Schedule current() {
+		if (!enabled) {
+			return null;
+		}
+		Schedule s = schedule;
+		long now = System.nanoTime();
+		if ((s == null || now - s.loaded > refreshNanos) && (lastLoadStarted == 0 || now - lastLoadStarted > refreshNanos)) {
+			start();
+		}
+		return s;
+	}
+
+	private synchronized void change(Change change) {
+		updates.increment();
+		if (schedule != null) {
+			change.apply(schedule);
+		}
+		if (pending != null) {
+			pending.add(change);
+		}
+	}
+
+	/**
+	 * Method to add a show this process just committed.
+	 *
+	 * @param sdate the show date as it was inserted
+	 * @param sttime the start time as it was inserted
+	 * @param edtime the end time as it was inserted
+	 * @param cid the cinema of the theater tid
+	 */
+	public void addShow(long sid, long mvid, String title, Integer duration, String sdate, String sttime, String edtime,
+			long tid, long cid) {
+		int day = parseDay(sdate);
+		long start = parseTime(sttime);
+		long end = parseTime(edtime);
+		if (day == NO_DAY || start < 0 || end < 0) {
+			// the database read a format this class cannot
+			invalidate();
+			return;
+		}
+		Show show = new Show(sid, new Movie(mvid, title, duration), day, start, end, tid, cid);
+		change(s -> s.add(show));
+	}
+
+	/**
+	 * Method to remove shows this process just deleted.
+	 *
+	 * @param date the date of the shows, as it was given to the delete
+	 * @param sids the shows
+	 */
+	public void removeShows(String date, long[] sids) {
+		int day = parseDay(date);
+		if (day == NO_DAY) {
+			invalidate();
+			return;
+		}
+		final long[] sorted = sids.clone();
+		Arrays.sort(sorted);
+		change(s -> s.remove(day, sorted));
+	}
+
+	/**
+	 * Method to forget the index, e.g. after the tables were loaded again.
+	 * Lookups ask the database until it is loaded again.
+	 */
+	public synchronized void invalidate() {
+		schedule = null;
+		// a load already running may have missed the change
+		pending = null;
+		start();
+	}
+
+	/**
+	 * Method to list the shows starting at a date and time, once each
+	 * however many theaters play them.
+	 *
+	 * @return (sid, mvid, title, sdate, sttime, edtime) rows ordered by sid,
+	 *         or null when the index cannot answer and the database has to
+	 */
+	public TypedResult findShowsStartingAt(String date, String time) {
+		Schedule s = current();
+		int day = parseDay(date);
+		long start = parseTime(time);
+		if (s == null || day == NO_DAY || start < 0) {
+			fallbacks.increment();
+			return null;
+		}
+		hits.increment();
+		List<Show> found = new ArrayList<Show>();
+		Map<Long, Show[]> cinemas = s.byDay.get(day);
+		if (cinemas != null) {
+			for (Show[] shows : cinemas.values()) {
+				for (int i = firstStartingAt(shows, start); i < shows.length && shows[i].start == start; ++i) {
+					found.add(shows[i]);
+				}
+			}
+		}
+		found.sort((a, b) -> Long.compare(a.sid, b.sid));
+		TypedResult result = new TypedResult(SHOW_COLUMNS, SHOW_KINDS);
+		for (int i = 0; i < found.size(); ++i) {
+			Show show = found.get(i);
+			if (i > 0 && found.get(i - 1).sid == show.sid) {
+				continue;
+			}
+			result.addRow(show.sid, show.movie.mvid, show.movie.title, formatDate(show.day), formatTime(show.start), formatTime(show.end));
+		}
+		return result;
+	}
+
+	/**
+	 * Method to list the shows of a movie at some cinemas in a date range,
+	 * once per theater playing them.
+	 *
+	 * @param cids the cinemas
+	 * @param lowest_date the first day, inclusive
+	 * @param highest_date the last day, inclusive
+	 * @return (title, duration, sid, sdate, sttime) rows by cinema, date and
+	 *         time, or null when the index cannot answer and the database has to
+	 */
+	public TypedResult findShowsOfMovie(long mvid, long[] cids, String lowest_date, String highest_date) {
+		Schedule s = current();
+		int from = parseDay(lowest_date);
+		int to = parseDay(highest_date);
+		if (s == null || from == NO_DAY || to == NO_DAY) {
+			fallbacks.increment();
+			return null;
+		}
+		hits.increment();
+		TypedResult result = new TypedResult(MOVIE_SHOW_COLUMNS, MOVIE_SHOW_KINDS);
+		if (from > to) {
+			return result;
+		}
+		for (long cid : cids) {
+			NavigableMap<Integer, Show[]> days = s.byCinema.get(cid);
+			if (days == null) {
+				continue;
+			}
+			for (Show[] shows : days.subMap(from, true, to, true).values()) {
+				for (Show show : shows) {
+					if (show.movie.mvid == mvid) {
+						result.addRow(show.movie.title, show.movie.duration, show.sid, formatDate(show.day), formatTime(show.start));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	// the first show starting at or after start
+	private static int firstStartingAt(Show[] shows, long start) {
+		int low = 0;
+		int high = shows.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (shows[mid].start < start) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// ISO dates and times only; Postgres takes more, which are left to it
+	private static int parseDay(String date) {
+		try {
+			return (int) LocalDate.parse(date.trim()).toEpochDay();
+		} catch (DateTimeParseException e) {
+			return NO_DAY;
+		}
+	}
+
+	private static long parseTime(String time) {
+		try {
+			return LocalTime.parse(time.trim()).toNanoOfDay();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	private static boolean contains(long[] sorted, long value) {
+		return Arrays.binarySearch(sorted, value) >= 0;
+	}
+
+	// the same text Postgres returns for DATE and TIME columns
+	private static String formatDate(int day) {
+		return LocalDate.ofEpochDay(day).toString();
+	}
+
+	private static String formatTime(long nanos) {
+		return LocalTime.ofNanoOfDay(nanos).format(DateTimeFormatter.ISO_LOCAL_TIME);
+	}
+
+	/**
+	 * Method to report the size of the index and how often it answered.
+	 *
+	 * @return shows, cinema days, loads and lookups, one per line
+	 */
+	public String getStats() {
+		Schedule s = schedule;
+		int shows;
+		int days;
+		synchronized (this) {
+			shows = s == null ? 0 : s.shows;
+			days = s == null ? 0 : s.days;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("schedule.ready\t").append(s == null ? 0 : 1).append('\n');
+		sb.append("schedule.shows\t").append(shows).append('\n');
+		sb.append("schedule.cinemaDays\t").append(days).append('\n');
+		sb.append("schedule.ageSeconds\t").append(s == null ? 0 : (System.nanoTime() - s.loaded) / 1000000000L).append('\n');
+		sb.append("schedule.loads\t").append(loads).append('\n');
+		sb.append("schedule.loadFailures\t").append(loadFailures).append('\n');
+		sb.append("schedule.lastLoadMs\t").append(lastLoadMillis).append('\n');
+		sb.append("schedule.updates\t").append(updates.sum()).append('\n');
+		sb.append("schedule.hits\t").append(hits.sum()).append('\n');
+		sb.append("schedule.fallbacks\t").append(fallbacks.sum()).append('\n');
+		return sb.toString();
+	}
+}
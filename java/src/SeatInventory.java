@@ -0,0 +1,335 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class keeps an in-memory copy of which seats are free for each show,
+ * so availability checks and seat counts do not have to join ShowSeats,
+ * CinemaSeats, Theaters and Cinemas again.  A show's seats are loaded from
+ * ShowSeats the first time the show is asked about and kept as one bitset
+ * per theater, indexed by seat number (sno).
+ *
+ * The operations write through: once a change to ShowSeats commits, they
+ * report the seats they claimed or released here.  A show first asked about
+ * inside a transaction is read but not cached, since the transaction may
+ * hold changes that are never committed, and neither is a show whose seats
+ * were marked while it was being read.  Cancelling a booking does not touch
+ * its seats (they stay assigned until the cancelled booking is purged), so
+ * only booking, seat changes, purges and show removal update the inventory.
+ *
+ * Other processes change ShowSeats without telling this one, so the counts
+ * are a fast path only.  The database decides: seats are always claimed
+ * with "bid IS NULL" in the UPDATE, and an operation that finds too few
+ * seats here evicts the show and counts again before refusing.  Entries
+ * are read again after ttlMs, and verify() compares the cache with the
+ * database.
+ *
+ * Settings (system properties):
+ *   ticketmaster.seats.ttlMs     how long a show's seats are trusted (60000)
+ *   ticketmaster.seats.maxShows  shows kept at most; beyond it an arbitrary one is dropped (10000)
+ *
+ */
+
+public class SeatInventory {
+	private final Ticketmaster esql;
+	private final Map<Long, ShowSeats> shows = new ConcurrentHashMap<Long, ShowSeats>();
+	private final long ttlNanos = Long.getLong("ticketmaster.seats.ttlMs", 60000L) * 1000000L;
+	private final int maxShows = Integer.getInteger("ticketmaster.seats.maxShows", 10000);
+	// bumped before seats of a show are marked, striped by sid, so a load
+	// can tell that it may have missed a change
+	private final AtomicLongArray changes = new AtomicLongArray(64);
+
+	/**
+	 * The seats of one show, one pair of bitsets per theater it plays in.
+	 */
+	private static final class ShowSeats {
+		final long[] tids;
+		// bit sno is set when the show has that seat in the theater
+		final BitSet[] seats;
+		// bit sno is set when that seat is not assigned to a booking
+		final BitSet[] free;
+		final long loadedNanos = System.nanoTime();
+
+		ShowSeats(long[] tids, BitSet[] seats, BitSet[] free) {
+			this.tids = tids;
+			this.seats = seats;
+			this.free = free;
+		}
+
+		int indexOf(long tid) {
+			for (int i = 0; i < tids.length; ++i) {
+				if (tids[i] == tid) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		synchronized int countFree(long tid) {
+			int i = indexOf(tid);
+			return i < 0 ? 0 : free[i].cardinality();
+		}
+
+		synchronized int countFree() {
+			int count = 0;
+			for (BitSet theater : free) {
+				count += theater.cardinality();
+			}
+			return count;
+		}
+
+		synchronized boolean isFree(long tid, int sno) {
+			int i = indexOf(tid);
+			return i >= 0 && free[i].get(sno);
+		}
+
+		synchronized void set(long tid, int sno, boolean isFree) {
+			int i = indexOf(tid);
+			if (i >= 0 && seats[i].get(sno)) {
+				free[i].set(sno, isFree);
+			}
+		}
+
+		synchronized boolean sameAs(ShowSeats other) {
+			if (tids.length != other.tids.length) {
+				return false;
+			}
+			for (int i = 0; i < tids.length; ++i) {
+				int j = other.indexOf(tids[i]);
+				if (j < 0 || !seats[i].equals(other.seats[j]) || !free[i].equals(other.free[j])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		synchronized long footprint() {
+			// object headers and the three arrays, plus the words of every bitset
+			long bytes = 16 + 3 * 16 + 8L * tids.length + 2 * 8L * tids.length;
+			for (int i = 0; i < tids.length; ++i) {
+				bytes += 2 * 24 + 16 + seats[i].size() / 8 + 16 + free[i].size() / 8;
+			}
+			return bytes;
+		}
+	}
+
+	public SeatInventory(Ticketmaster esql) {
+		this.esql = esql;
+	}
+
+	/*
+	 * Returns the cached seats of a show, loading them on first use or once
+	 * they are older than the TTL.  Two threads may load the same show at
+	 * once; the first one stored wins.  The load is stored before the change
+	 * counter is checked again, so a mark either finds it in the map or
+	 * makes the load drop it.
+	 */
+	private ShowSeats get(long sid) throws SQLException {
+		ShowSeats seats = shows.get(sid);
+		if (seats != null && System.nanoTime() - seats.loadedNanos > ttlNanos) {
+			shows.remove(sid, seats);
+			seats = null;
+		}
+		if (seats == null) {
+			long version = changes.get(stripe(sid));
+			ShowSeats loaded = load(sid);
+			if (esql.isInTransaction()) {
+				return loaded;
+			}
+			if (shows.size() >= maxShows) {
+				Iterator<Long> any = shows.keySet().iterator();
+				if (any.hasNext()) {
+					shows.remove(any.next());
+				}
+			}
+			seats = shows.putIfAbsent(sid, loaded);
+			if (seats == null) {
+				seats = loaded;
+				if (changes.get(stripe(sid)) != version) {
+					shows.remove(sid, loaded);
+				}
+			}
+		}
+		return seats;
+	}
+
+	private static int stripe(long sid) {
+		return (int) (sid & 63);
+	}
+
+	private ShowSeats load(long sid) throws SQLException {
+		String query = "SELECT CS.tid, CS.sno, SS.bid IS NULL\nFROM Showseats SS, Cinemaseats CS\nWHERE SS.sid = ? AND SS.csid = CS.csid;";
+		final Map<Long, BitSet[]> theaters = new LinkedHashMap<Long, BitSet[]>();
+		esql.executeQueryForEach(query, rs -> {
+			long tid = rs.getLong(1);
+			BitSet[] bits = theaters.get(tid);
+			if (bits == null) {
+				bits = new BitSet[] { new BitSet(), new BitSet() };
+				theaters.put(tid, bits);
+			}
+			int sno = rs.getInt(2);
+			bits[0].set(sno);
+			if (rs.getBoolean(3)) {
+				bits[1].set(sno);
+			}
+		}, sid);
+
+		long[] tids = new long[theaters.size()];
+		BitSet[] seats = new BitSet[tids.length];
+		BitSet[] free = new BitSet[tids.length];
+		int i = 0;
+		for (Map.Entry<Long, BitSet[]> entry : theaters.entrySet()) {
+			tids[i] = entry.getKey();
+			seats[i] = entry.getValue()[0];
+			free[i] = entry.getValue()[1];
+			++i;
+		}
+		return new ShowSeats(tids, seats, free);
+	}
+
+	/**
+	 * Method to count the free seats of a show in one theater.
+	 *
+	 * @param sid the show
+	 * @param tid the theater
+	 * @return the number of seats not assigned to a booking
+	 * @throws java.sql.SQLException when the show had to be loaded and loading failed
+	 */
+	public int countFree(long sid, long tid) throws SQLException {
+		return get(sid).countFree(tid);
+	}
+
+	/**
+	 * Method to count the free seats of a show in all of its theaters.
+	 */
+	public int countFree(long sid) throws SQLException {
+		return get(sid).countFree();
+	}
+
+	/**
+	 * Method to check whether one seat of a show is free.
+	 */
+	public boolean isFree(long sid, long tid, int sno) throws SQLException {
+		return get(sid).isFree(tid, sno);
+	}
+
+	/**
+	 * Method to record seats that were assigned to a booking.  Shows that are
+	 * not cached are ignored; they are read fresh when first asked about.
+	 *
+	 * @param sid the show
+	 * @param seats rows whose columns tidCol and snoCol hold the theater and seat number
+	 */
+	public void markTaken(long sid, TypedResult seats, int tidCol, int snoCol) {
+		mark(sid, seats, tidCol, snoCol, false);
+	}
+
+	/**
+	 * Method to record seats of one show that were released.
+	 */
+	public void markFree(long sid, TypedResult seats, int tidCol, int snoCol) {
+		mark(sid, seats, tidCol, snoCol, true);
+	}
+
+	/**
+	 * Method to record released seats spread over several shows.
+	 *
+	 * @param seats rows whose columns sidCol, tidCol and snoCol hold the show, theater and seat number
+	 */
+	public void markFree(TypedResult seats, int sidCol, int tidCol, int snoCol) {
+		for (int row = 0; row < seats.size(); ++row) {
+			changes.incrementAndGet(stripe(seats.getLong(row, sidCol)));
+			ShowSeats show = shows.get(seats.getLong(row, sidCol));
+			if (show != null) {
+				show.set(seats.getLong(row, tidCol), seats.getInt(row, snoCol), true);
+			}
+		}
+	}
+
+	private void mark(long sid, TypedResult seats, int tidCol, int snoCol, boolean isFree) {
+		changes.incrementAndGet(stripe(sid));
+		ShowSeats show = shows.get(sid);
+		if (show == null) {
+			return;
+		}
+		for (int row = 0; row < seats.size(); ++row) {
+			show.set(seats.getLong(row, tidCol), seats.getInt(row, snoCol), isFree);
+		}
+	}
+
+	/**
+	 * Method to drop a show from the cache, e.g. after its seats were deleted.
+	 */
+	public void evict(long sid) {
+		changes.incrementAndGet(stripe(sid));
+		shows.remove(sid);
+	}
+
+	/**
+	 * Method to drop every cached show.
+	 */
+	public void clear() {
+		shows.clear();
+	}
+
+	public int size() {
+		return shows.size();
+	}
+
+	/**
+	 * Method to compare every cached show with ShowSeats.  Shows that differ
+	 * are replaced with what the database holds.
+	 *
+	 * @return a one line summary of the check
+	 * @throws java.sql.SQLException when a show could not be read back
+	 */
+	public String verify() throws SQLException {
+		int checked = 0;
+		int mismatched = 0;
+		for (Map.Entry<Long, ShowSeats> entry : shows.entrySet()) {
+			ShowSeats actual = load(entry.getKey());
+			if (!entry.getValue().sameAs(actual)) {
+				++mismatched;
+				shows.replace(entry.getKey(), entry.getValue(), actual);
+			}
+			++checked;
+		}
+		return "seats.verify\t" + checked + " shows checked, " + mismatched + " out of date and reloaded";
+	}
+
+	/**
+	 * Method to estimate the memory held by the cache.
+	 *
+	 * @return cached shows, total bytes and bytes per thousand shows, one per line
+	 */
+	public String getStats() {
+		long bytes = 0;
+		int count = 0;
+		for (ShowSeats seats : shows.values()) {
+			bytes += seats.footprint() + 48; // map entry and boxed key
+			++count;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("seats.shows.cached\t").append(count).append('\n');
+		sb.append("seats.bytes.total\t").append(bytes).append('\n');
+		sb.append("seats.bytes.per1000shows\t").append(count == 0 ? 0 : bytes * 1000 / count).append('\n');
+		return sb.toString();
+	}
+}
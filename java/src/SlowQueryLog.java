@@ -0,0 +1,371 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class writes the statements that took longer than a threshold to a
+ * log file, one JSON object per line: when it ran, how long it took, the
+ * rows, the normalized template and the parameters it was run with.
+ *
+ * A sampled fraction of slow statements is run again under EXPLAIN to
+ * capture the plan.  SELECTs are run with ANALYZE and BUFFERS, so the plan
+ * has the actual rows and buffer hits next to the estimates; statements
+ * that change data, lock rows or call a function that is not known to be
+ * free of side effects (nextval, rebuild_show_schedule, ...) are only
+ * planned, since ANALYZE executes the statement.  The record then also
+ * has the plan's execution time and the node whose row estimate was off
+ * the most.  Since a template usually gets the same plan every time, a
+ * template is explained at most once per explainIntervalMs, and a plan
+ * identical to the last one logged for it is written as its fingerprint
+ * only until planIntervalMs have passed.
+ *
+ * Timing a statement costs one comparison; everything else (formatting,
+ * EXPLAIN and writing) happens on one background thread, and slow
+ * statements are dropped and counted when it falls behind.  Parameters of
+ * statements that mention the pwd column are not logged.
+ *
+ * Settings (system properties):
+ *   ticketmaster.slowQuery.thresholdMs        what counts as slow (200, 0 logs everything, -1 nothing)
+ *   ticketmaster.slowQuery.file               the log file (slow-queries.log)
+ *   ticketmaster.slowQuery.explainSample      fraction of slow statements explained (0.1)
+ *   ticketmaster.slowQuery.explainIntervalMs  pause between explains of a template (60000)
+ *   ticketmaster.slowQuery.planIntervalMs     how long an unchanged plan is not repeated (3600000)
+ *
+ */
+
+public class SlowQueryLog {
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.$])\\d+(?:\\.\\d+)?");
+	private static final Pattern READ_ONLY = Pattern.compile("(?is)\\s*SELECT\\b(?!.*\\bFOR\\s+(?:UPDATE|SHARE|NO\\s+KEY|KEY)\\b).*");
+	private static final Pattern CALL = Pattern.compile("(?i)\\b([a-z_][\\w.]*)\\s*\\(");
+	// the words a read-only SELECT may put before a parenthesis: keywords, and
+	// functions that never change anything
+	private static final Set<String> PURE = new HashSet<String>(Arrays.asList(
+		"select", "from", "in", "any", "all", "exists", "on", "as", "and", "or", "not", "where", "join", "over", "filter", "using",
+		"count", "sum", "min", "max", "avg", "coalesce", "nullif", "greatest", "least", "lower", "upper", "length", "substring",
+		"trim", "round", "abs", "now", "make_interval", "extract", "date_trunc", "to_char", "similarity", "array_agg",
+		"string_agg", "row_number"));
+	private static final Pattern PLAN_SHAPE = Pattern.compile(
+		"\"(Node Type|Parent Relationship|Join Type|Strategy|Relation Name|Index Name|Scan Direction)\": \"([^\"]*)\"");
+	private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\": (\\d+)");
+	private static final Pattern ACTUAL_ROWS = Pattern.compile("\"Actual Rows\": (\\d+)");
+	private static final Pattern ACTUAL_LOOPS = Pattern.compile("\"Actual Loops\": (\\d+)");
+	private static final Pattern EXECUTION_TIME = Pattern.compile("\"Execution Time\": ([\\d.]+)");
+	private static final Pattern SHARED_HIT = Pattern.compile("\"Shared Hit Blocks\": (\\d+)");
+	private static final Pattern SHARED_READ = Pattern.compile("\"Shared Read Blocks\": (\\d+)");
+
+	private final Ticketmaster esql;
+	private final long thresholdNanos;
+	private final String file;
+	private final double explainSample;
+	private final long explainIntervalMillis;
+	private final long planIntervalMillis;
+	private final ThreadPoolExecutor writer;
+
+	/*
+	 * The last plan logged for a template, touched by the writer thread only.
+	 */
+	private static final class PlanSeen {
+		String fingerprint;
+		long loggedMillis;
+		long explainedMillis;
+	}
+	private final Map<String, PlanSeen> plans = new LinkedHashMap<String, PlanSeen>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, PlanSeen> eldest) {
+			return size() > 1000;
+		}
+	};
+	private final ConcurrentHashMap<String, String> templates = new ConcurrentHashMap<String, String>();
+	private Writer out = null;
+
+	// counters; the first two are written by the threads running statements
+	private final AtomicLong slow = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile long explained = 0;
+	private volatile long plansRepeated = 0;
+	private volatile long errors = 0;
+
+	public SlowQueryLog(Ticketmaster esql) {
+		this.esql = esql;
+		long thresholdMillis = Long.getLong("ticketmaster.slowQuery.thresholdMs", 200L);
+		this.thresholdNanos = thresholdMillis < 0 ? Long.MAX_VALUE : thresholdMillis * 1000000L;
+		this.file = System.getProperty("ticketmaster.slowQuery.file", "slow-queries.log");
+		this.explainSample = Double.parseDouble(System.getProperty("ticketmaster.slowQuery.explainSample", "0.1"));
+		this.explainIntervalMillis = Long.getLong("ticketmaster.slowQuery.explainIntervalMs", 60000L);
+		this.planIntervalMillis = Long.getLong("ticketmaster.slowQuery.planIntervalMs", 3600000L);
+		this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(256), r -> {
+			Thread t = new Thread(r, "slow-query-log");
+			t.setDaemon(true);
+			return t;
+		}, (r, executor) -> dropped.incrementAndGet());
+	}
+
+	/**
+	 * Method to look at one finished statement, and log it when it was slow.
+	 *
+	 * @param sql the template, as passed to the helper
+	 * @param params the values bound to it
+	 * @param nanos how long it took
+	 * @param rows the rows returned or changed
+	 * @param failure what it threw, or null
+	 */
+	public void record(String sql, Object[] params, long nanos, long rows, SQLException failure) {
+		if (nanos < thresholdNanos || sql.startsWith("EXPLAIN")) {
+			return;
+		}
+		slow.incrementAndGet();
+		final long finished = System.currentTimeMillis();
+		final Object[] values = params == null ? new Object[0] : params.clone();
+		final String error = failure == null ? null : failure.getSQLState() + " " + failure.getMessage();
+		writer.execute(() -> {
+			try {
+				write(sql, values, nanos, rows, error, finished);
+			} catch (IOException | RuntimeException e) {
+				++errors;
+				System.err.println("Slow query log failed: " + e.getMessage());
+			}
+		});
+	}
+
+	/*
+	 * Formats, explains and writes one slow statement.  Runs on the writer
+	 * thread.
+	 */
+	private void write(String sql, Object[] params, long nanos, long rows, String error, long finished) throws IOException {
+		String template = normalize(sql);
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("time", Instant.ofEpochMilli(finished).toString());
+		entry.put("ms", Math.round(nanos / 1e4) / 100.0);
+		entry.put("rows", rows);
+		if (error != null) {
+			entry.put("error", error);
+		}
+		entry.put("template", template);
+		entry.put("params", template.toLowerCase().contains("pwd") ? "(not logged)" : paramList(params));
+
+		String plan = null;
+		PlanSeen seen = plans.computeIfAbsent(template, t -> new PlanSeen());
+		if (error == null && finished - seen.explainedMillis >= explainIntervalMillis
+				&& ThreadLocalRandom.current().nextDouble() < explainSample) {
+			seen.explainedMillis = System.currentTimeMillis();
+			plan = explain(sql, params, entry);
+			if (plan != null) {
+				++explained;
+				String fingerprint = fingerprint(plan);
+				entry.put("plan.fingerprint", fingerprint);
+				if (fingerprint.equals(seen.fingerprint) && finished - seen.loggedMillis < planIntervalMillis) {
+					++plansRepeated;
+					entry.put("plan.repeated", true);
+					plan = null;
+				} else {
+					seen.fingerprint = fingerprint;
+					seen.loggedMillis = finished;
+				}
+			}
+		}
+
+		StringBuilder line = new StringBuilder(Json.write(entry));
+		if (plan != null) {
+			// the plan is JSON already
+			line.setLength(line.length() - 1);
+			line.append(",\"plan\":").append(plan.replaceAll("\\s*\n\\s*", " ")).append('}');
+		}
+		line.append('\n');
+		if (out == null) {
+			out = new FileWriter(file, true);
+		}
+		out.write(line.toString());
+		out.flush();
+	}
+
+	/*
+	 * Runs the statement again under EXPLAIN and adds what stands out to the
+	 * entry.  Returns the plan as JSON text, or null when it cannot be had.
+	 */
+	private String explain(String sql, Object[] params, Map<String, Object> entry) {
+		boolean analyze = isReadOnly(sql);
+		String options = analyze ? "(ANALYZE, BUFFERS, FORMAT JSON) " : "(FORMAT JSON) ";
+		String plan;
+		try {
+			List<List<String>> result = esql.executeQueryAndReturnResult("EXPLAIN " + options + sql, params);
+			plan = result.isEmpty() ? null : result.get(0).get(0);
+		} catch (SQLException e) {
+			entry.put("plan.error", e.getMessage());
+			return null;
+		}
+		if (plan == null) {
+			return null;
+		}
+		entry.put("plan.analyzed", analyze);
+		if (analyze) {
+			putFirst(entry, "plan.ms", EXECUTION_TIME, plan);
+			putFirst(entry, "plan.sharedHit", SHARED_HIT, plan);
+			putFirst(entry, "plan.sharedRead", SHARED_READ, plan);
+			worstEstimate(plan, entry);
+		}
+		return plan;
+	}
+
+	/*
+	 * True when running the statement cannot change anything: a SELECT that
+	 * locks no rows and calls only functions known to be pure.
+	 */
+	static boolean isReadOnly(String sql) {
+		if (!READ_ONLY.matcher(sql).matches()) {
+			return false;
+		}
+		Matcher call = CALL.matcher(sql);
+		while (call.find()) {
+			if (!PURE.contains(call.group(1).toLowerCase())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void putFirst(Map<String, Object> entry, String name, Pattern pattern, String text) {
+		Matcher m = pattern.matcher(text);
+		if (m.find()) {
+			entry.put(name, Double.parseDouble(m.group(1)));
+		}
+	}
+
+	/*
+	 * Finds the plan node whose row estimate is furthest from the rows it
+	 * returned per loop.  A node's own fields come before its children's, so
+	 * the text between two "Node Type"s holds one node's numbers.
+	 */
+	private static void worstEstimate(String plan, Map<String, Object> entry) {
+		String[] nodes = plan.split("\"Node Type\": ");
+		double worst = 1;
+		for (int i = 1; i < nodes.length; ++i) {
+			Matcher estimated = PLAN_ROWS.matcher(nodes[i]);
+			Matcher actual = ACTUAL_ROWS.matcher(nodes[i]);
+			Matcher loops = ACTUAL_LOOPS.matcher(nodes[i]);
+			if (!estimated.find() || !actual.find() || !loops.find() || Long.parseLong(loops.group(1)) == 0) {
+				continue;
+			}
+			double planRows = Math.max(1, Long.parseLong(estimated.group(1)));
+			double actualRows = Math.max(1, Long.parseLong(actual.group(1)));
+			double factor = Math.max(planRows / actualRows, actualRows / planRows);
+			if (factor > worst) {
+				worst = factor;
+				entry.put("plan.worstNode", nodes[i].substring(1, Math.max(1, nodes[i].indexOf('"', 1))));
+				entry.put("plan.worstEstimatedRows", (long) planRows);
+				entry.put("plan.worstActualRows", (long) actualRows);
+			}
+		}
+	}
+
+	/*
+	 * The plan's shape: its nodes, joins and the relations and indexes they
+	 * use, without any of the numbers.
+	 */
+	static String fingerprint(String plan) {
+		StringBuilder shape = new StringBuilder();
+		Matcher m = PLAN_SHAPE.matcher(plan);
+		while (m.find()) {
+			shape.append(m.group(1)).append('=').append(m.group(2)).append(';');
+		}
+		return Integer.toHexString(shape.toString().hashCode());
+	}
+
+	/*
+	 * The template on one line, with any literals written into it replaced
+	 * by ?, so statements that differ only in those log alike.
+	 */
+	private String normalize(String sql) {
+		String template = templates.get(sql);
+		if (template == null) {
+			template = sql.replaceAll("\\s+", " ").trim();
+			template = STRING_LITERAL.matcher(template).replaceAll("?");
+			template = NUMBER_LITERAL.matcher(template).replaceAll("?");
+			if (templates.size() < 1000) {
+				templates.put(sql, template);
+			}
+		}
+		return template;
+	}
+
+	private static List<Object> paramList(Object[] params) {
+		List<Object> values = new ArrayList<Object>(params.length);
+		for (Object param : params) {
+			if (param instanceof Object[]) {
+				values.add(Arrays.asList((Object[]) param));
+			} else if (param == null || param instanceof Number || param instanceof Boolean || param instanceof long[]) {
+				values.add(param);
+			} else {
+				values.add(param.toString());
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Method to stop the background thread, after it has written what is
+	 * queued.
+	 */
+	public void close() {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if (out != null) {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Slow query log failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to report what the log has done.
+	 *
+	 * @return settings and counters, one per line
+	 */
+	public String getStats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("slowquery.threshold.ms\t").append(thresholdNanos == Long.MAX_VALUE ? -1 : thresholdNanos / 1000000).append('\n');
+		sb.append("slowquery.logged\t").append(slow.get()).append('\n');
+		sb.append("slowquery.explained\t").append(explained).append('\n');
+		sb.append("slowquery.plans.repeated\t").append(plansRepeated).append('\n');
+		sb.append("slowquery.dropped\t").append(dropped.get()).append('\n');
+		sb.append("slowquery.errors\t").append(errors).append('\n');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps the prepared statements of one physical connection, keyed
+ * by their SQL text, and closes the least recently used one once the cache is
+ * full.  It is only ever used by the thread that currently holds the
+ * connection, so it does no locking of its own.
+ *
+ * Statements handed out by the cache are reused across calls, which lets the
+ * driver switch a template to a named server-side prepared statement once it
+ * has been executed prepareThreshold times.  Hot templates are therefore
+ * parsed and planned once per connection while rarely used ones never pay
+ * for a server-side prepare.
+ *
+ */
+
+public class StatementCache {
+	private final Connection connection;
+	private final int prepareThreshold;
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	// metrics, read without locking by the pool's stats report
+	private volatile long hits = 0;
+	private volatile long misses = 0;
+	private volatile long evictions = 0;
+
+	/**
+	 * Creates an empty cache for a connection.
+	 *
+	 * @param connection the physical connection the statements belong to
+	 * @param maxSize maximum number of statements kept open
+	 * @param prepareThreshold executions before the driver uses a server-side prepare
+	 */
+	public StatementCache(Connection connection, final int maxSize, int prepareThreshold) {
+		this.connection = connection;
+		this.prepareThreshold = prepareThreshold;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= maxSize) {
+					return false;
+				}
+				++evictions;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to get a prepared statement for the given SQL text, reusing the
+	 * cached one when there is one.  The caller must not close the statement.
+	 *
+	 * @param sql the SQL template with ? placeholders
+	 * @return a prepared statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (stmt != null && !stmt.isClosed()) {
+			++hits;
+			stmt.clearParameters();
+			return stmt;
+		}
+		++misses;
+		stmt = connection.prepareStatement(sql);
+		if (stmt.isWrapperFor(PGStatement.class)) {
+			stmt.unwrap(PGStatement.class).setPrepareThreshold(prepareThreshold);
+		}
+		statements.put(sql, stmt);
+		return stmt;
+	}
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public void close() {
+		Iterator<PreparedStatement> it = statements.values().iterator();
+		while (it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}
+	}
+
+	public long getHits() { return hits; }
+	public long getMisses() { return misses; }
+	public long getEvictions() { return evictions; }
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
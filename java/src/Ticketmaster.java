@@ -17,6 +17,7 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -26,7 +27,11 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.math.BigInteger;
 
 import java.sql.Time;
@@ -42,19 +47,93 @@ import java.time.ZonedDateTime;
  */
 
 public class Ticketmaster{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by all operations
+	private ConnectionPool _pool = null;
+	//connection of the transaction open on each thread, if any
+	private final ThreadLocal<Connection> _transaction = new ThreadLocal<Connection>();
+	//transactions begun inside the open one on each thread
+	private final ThreadLocal<Nesting> _nesting = ThreadLocal.withInitial(Nesting::new);
+	//hi-lo key allocators, one per sequence
+	private final Map<String, IdAllocator> _allocators = new ConcurrentHashMap<String, IdAllocator>();
+	//free seats of the shows looked at so far, kept in step with Showseats
+	private final SeatInventory _seats = new SeatInventory(this);
+	//movie titles, theaters and cinemas, read through
+	private final ReferenceCache _reference = new ReferenceCache(this);
+	//movie titles for type-ahead and "did you mean"
+	private final TitleIndex _titles = new TitleIndex(this);
+	//every cinema's shows by day, for the schedule listings
+	private final ScheduleIndex _schedule = new ScheduleIndex(this);
+	//latency, rows and failures per SQL template and per operation
+	private final Metrics _metrics = new Metrics();
+	//statements over the slow query threshold, with sampled plans
+	private final SlowQueryLog _slowQueries = new SlowQueryLog(this);
+	//the operations behind the menu, shared with the HTTP server
+	private final Operations _operations = new Operations(this);
+	//cancels bookings left Pending past the checkout window, once started
+	private final PendingBookingExpirer _expirer = new PendingBookingExpirer(this);
+	//rows fetched per round trip when streaming a result
+	private int _fetchSize = Integer.getInteger("ticketmaster.fetchSize", 1000);
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+
+	//key sequences from sql/create.sql, all created with INCREMENT BY ID_BLOCK_SIZE
+	public static final String BOOKINGS_SEQ = "bookings_bid_seq";
+	public static final String MOVIES_SEQ = "movies_mvid_seq";
+	public static final String SHOWS_SEQ = "shows_sid_seq";
+	public static final int ID_BLOCK_SIZE = 50;
+
+	/**
+	 * Callback that receives the rows of a streamed query one at a time.
+	 */
+	public interface RowHandler {
+		void handle(ResultSet rs) throws SQLException;
+
+		/**
+		 * Called once after the last row, e.g. to flush buffered output.
+		 */
+		default void end() throws SQLException {
+		}
+
+		/**
+		 * Whether a slow run may go to the slow query log.  A handler that
+		 * writes every row out makes the loop as slow as its output, so its
+		 * runs are only counted.
+		 */
+		default boolean isSlowQueryLogged() {
+			return true;
+		}
+	}
+
+	/*
+	 * How many beginTransaction calls are open inside the outermost one,
+	 * whether one of them was rolled back, and what to run once the outermost
+	 * one commits.
+	 */
+	private static final class Nesting {
+		int depth = 0;
+		boolean rollbackOnly = false;
+		final List<Runnable> afterCommit = new ArrayList<Runnable>();
+	}
 	
 	public Ticketmaster(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			// let the server infer the type of string parameters bound to date/time columns
+			String url_options = "?stringtype=unspecified";
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// open the pool of physical connections
+			this._pool = new ConnectionPool(url + url_options, user, passwd,
+				Integer.getInteger("ticketmaster.pool.min", 1),
+				Integer.getInteger("ticketmaster.pool.max", 8));
+			this._pool.setBorrowTimeout(Long.getLong("ticketmaster.pool.borrowTimeoutMs", 30000L));
+			this._pool.setIdleTimeout(Long.getLong("ticketmaster.pool.idleTimeoutMs", 600000L));
+			this._pool.setLeakThreshold(Long.getLong("ticketmaster.pool.leakThresholdMs", 60000L));
+			this._pool.setLeakStackTraces(Boolean.getBoolean("ticketmaster.pool.leakStackTraces"));
+			this._pool.setStatementCacheSize(Integer.getInteger("ticketmaster.statementCacheSize", 64));
+			this._pool.setPrepareThreshold(Integer.getInteger("ticketmaster.prepareThreshold", 5));
+			this._metrics.registerMBean();
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -62,23 +141,305 @@ public class Ticketmaster{
 	        System.exit(-1);
 		}
 	}
+
+	/*
+	 * Borrows a connection from the pool for the duration of one helper call.
+	 */
+	private Connection getConnection() throws SQLException {
+		Connection conn = this._transaction.get();
+		return conn != null ? conn : this._pool.borrow();
+	}
+
+	/*
+	 * True when the connection belongs to the transaction open on this thread,
+	 * in which case the helpers must leave commit and release to its owner.
+	 */
+	private boolean inTransaction(Connection conn) {
+		return conn == this._transaction.get();
+	}
+
+	/*
+	 * Returns a connection to the pool.  When the statement failed because the
+	 * connection itself is gone (SQLState class 08) the connection is dropped so
+	 * the next caller gets a fresh one instead of the whole program exiting.
+	 */
+	private void releaseConnection(Connection conn, SQLException failure) {
+		if (inTransaction(conn)) {
+			return;
+		}
+		if (failure != null && failure.getSQLState() != null && failure.getSQLState().startsWith("08")) {
+			this._pool.invalidate(conn);
+		} else {
+			this._pool.release(conn);
+		}
+	}
+
+	/**
+	 * Method to start a transaction on the calling thread.  Until it is
+	 * committed or rolled back every helper called from this thread runs on
+	 * the same connection with autocommit off.
+	 * 
+	 * A transaction begun while one is already open joins it: its commit
+	 * leaves the work to the outer commit, and its rollback makes the outer
+	 * commit fail and roll everything back.  This lets a caller run several
+	 * operations, each with its own transaction, as one.
+	 * 
+	 * @throws java.sql.SQLException when no connection is available
+	 */
+	public void beginTransaction() throws SQLException {
+		if (this._transaction.get() != null) {
+			this._nesting.get().depth++;
+			return;
+		}
+		Connection conn = this._pool.borrow();
+		try {
+			conn.setAutoCommit(false);
+		} catch (SQLException e) {
+			this._pool.invalidate(conn);
+			throw e;
+		}
+		this._transaction.set(conn);
+	}
+
+	/**
+	 * Method to commit the transaction open on the calling thread and give
+	 * its connection back to the pool.  Committing a nested transaction only
+	 * closes it; the work is committed with the outermost one.
+	 * 
+	 * @throws java.sql.SQLException when no transaction is open, a nested
+	 *         transaction was rolled back, or the commit failed
+	 */
+	public void commitTransaction() throws SQLException {
+		Connection conn = this._transaction.get();
+		if (conn == null) {
+			throw new SQLException("No transaction is open on this thread");
+		}
+		Nesting nesting = this._nesting.get();
+		if (nesting.depth > 0) {
+			nesting.depth--;
+			return;
+		}
+		this._transaction.remove();
+		List<Runnable> actions = new ArrayList<Runnable>(nesting.afterCommit);
+		nesting.afterCommit.clear();
+		SQLException failure = null;
+		try {
+			if (nesting.rollbackOnly) {
+				nesting.rollbackOnly = false;
+				conn.rollback();
+				throw new SQLException("The transaction was rolled back because a nested transaction failed");
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			releaseConnection(conn, failure);
+		}
+		for (Runnable action : actions) {
+			action.run();
+		}
+	}
+
+	/**
+	 * Method to roll back the transaction open on the calling thread, if
+	 * any, and give its connection back to the pool.  Rolling back a nested
+	 * transaction closes it and marks the outer one to be rolled back.
+	 */
+	public void rollbackTransaction() {
+		Connection conn = this._transaction.get();
+		if (conn == null) {
+			return;
+		}
+		Nesting nesting = this._nesting.get();
+		if (nesting.depth > 0) {
+			nesting.depth--;
+			nesting.rollbackOnly = true;
+			return;
+		}
+		nesting.rollbackOnly = false;
+		nesting.afterCommit.clear();
+		this._transaction.remove();
+		// the pool rolls back whatever is still open when the connection is released
+		this._pool.release(conn);
+	}
+
+	/**
+	 * Method to run an action once the work of the calling thread is
+	 * committed, e.g. to bring a cache in line with rows just written.  With
+	 * a transaction open the action waits for the outermost commit and is
+	 * dropped if the transaction is rolled back; otherwise it runs at once.
+	 */
+	public void afterCommit(Runnable action) {
+		if (this._transaction.get() == null) {
+			action.run();
+		} else {
+			this._nesting.get().afterCommit.add(action);
+		}
+	}
+
+	/**
+	 * Method to tell whether a transaction is open on the calling thread, in
+	 * which case the helpers see its uncommitted rows.
+	 */
+	public boolean isInTransaction() {
+		return this._transaction.get() != null;
+	}
+
+	/**
+	 * Method to report the state of the connection pool.
+	 * 
+	 * @return pool size and usage counters, one per line
+	 */
+	public String getPoolStats() {
+		return this._pool.getStats();
+	}
+
+	/**
+	 * Method to get the in-memory seat availability of the shows.
+	 * 
+	 * @return the seat inventory the operations keep up to date
+	 */
+	public SeatInventory getSeatInventory() {
+		return this._seats;
+	}
+
+	/**
+	 * Method to get the cache of movies, theaters, cinemas and cities.
+	 * 
+	 * @return the cache the lookups of rarely changing rows go through
+	 */
+	public ReferenceCache getReferenceCache() {
+		return this._reference;
+	}
+
+	/**
+	 * Method to get the in-memory index of movie titles.
+	 * 
+	 * @return the index title suggestions are made from
+	 */
+	public TitleIndex getTitleIndex() {
+		return this._titles;
+	}
+
+	/**
+	 * Method to get the in-memory show schedule.
+	 * 
+	 * @return the index the listings of shows by date are answered from
+	 */
+	public ScheduleIndex getScheduleIndex() {
+		return this._schedule;
+	}
+
+	/**
+	 * Method to get the operations the menu and the HTTP server run.
+	 * 
+	 * @return the operations bound to this connection pool
+	 */
+	public Operations getOperations() {
+		return this._operations;
+	}
+
+	/**
+	 * Method to get the background expiry of pending bookings.  It only runs
+	 * after its start() is called.
+	 * 
+	 * @return the expirer bound to this connection pool
+	 */
+	public PendingBookingExpirer getPendingBookingExpirer() {
+		return this._expirer;
+	}
+
+	/**
+	 * Method to get the statement and operation counters.
+	 * 
+	 * @return the metrics every helper and operation records into
+	 */
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * Method to get the log of slow statements.
+	 * 
+	 * @return the log every helper reports its statements to
+	 */
+	public SlowQueryLog getSlowQueryLog() {
+		return this._slowQueries;
+	}
+
+	/**
+	 * Method to get the largest number of connections the pool opens.
+	 */
+	public int getPoolSize() {
+		return this._pool.getMaxSize();
+	}
 	
+	/*
+	 * Gets the cached prepared statement for a template on the given
+	 * connection and binds the parameters in order.  A long[] parameter is
+	 * bound as a bigint array.
+	 */
+	private PreparedStatement prepare(Connection conn, String sql, Object[] params) throws SQLException {
+		PreparedStatement stmt = this._pool.getStatementCache(conn).prepare(sql);
+		for (int i = 0; i < params.length; ++i) {
+			if (params[i] instanceof long[]) {
+				//a list of keys, matched in SQL with = ANY(?)
+				long[] values = (long[]) params[i];
+				Long[] boxed = new Long[values.length];
+				for (int j = 0; j < values.length; ++j) {
+					boxed[j] = values[j];
+				}
+				stmt.setArray(i + 1, conn.createArrayOf("bigint", boxed));
+			} else {
+				stmt.setObject(i + 1, params[i]);
+			}
+		}
+		return stmt;
+	}
+
+	/*
+	 * Counts one helper call, and logs it when it was slow.
+	 */
+	private void recordStatement(String sql, Object[] params, long start, long rows, SQLException failure) {
+		recordStatement(sql, params, System.nanoTime() - start, rows, failure, true);
+	}
+
+	private void recordStatement(String sql, Object[] params, long nanos, long rows, SQLException failure, boolean slowLogged) {
+		this._metrics.recordStatement(sql, nanos, rows, failure != null);
+		if (slowLogged) {
+			this._slowQueries.record(sql, params, nanos, rows, failure);
+		}
+	}
+
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		Connection conn = getConnection();
+		SQLException failure = null;
+		long start = System.nanoTime();
+		int rowCount = 0;
+		try {
+			// gets the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare(conn, sql, params);
+
+			// issues the update instruction
+			rowCount = stmt.executeUpdate ();
+			return rowCount;
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			releaseConnection(conn, failure);
+			recordStatement(sql, params, start, rowCount, failure);
+		}
 	}//end executeUpdate
 
 	/**
@@ -86,135 +447,294 @@ public class Ticketmaster{
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		//streams the rows so large results are printed in constant memory
+		return executeQueryForEach(query, printRows(), params);
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Method to get a row handler that prints the rows to standard out,
+	 * buffered, in the format set by ticketmaster.render.format (an aligned
+	 * table by default).  Nothing is printed for an empty result.
+	 * 
+	 * @return a new handler, to be used for one query
+	 */
+	public static RowHandler printRows() {
+		return ResultRenderer.toStream(System.out);
 	}
 	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * hand the rows to a callback as they arrive.  The query runs with
+	 * autocommit off and a fetch size, so the driver reads the result through
+	 * a server-side cursor and holds at most one batch of rows in memory no
+	 * matter how large the result is.
+	 *
+	 * The handler must not keep the result set after it returns.  Statements
+	 * issued from inside the handler run on another pooled connection, or on
+	 * the same one when a transaction is open on this thread.
+	 * 
+	 * @param query the input query string with ? placeholders
+	 * @param handler called once per row with the result set positioned on it
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryForEach (String query, RowHandler handler, Object... params) throws SQLException {
+		Connection conn = getConnection();
+		SQLException failure = null;
+		long start = System.nanoTime();
+		long nanos = -1;
+		int rowCount = 0;
+		try {
+			//the driver only uses a cursor for a fetch size inside a transaction
+			boolean own_transaction = !inTransaction(conn);
+			if (own_transaction) {
+				conn.setAutoCommit(false);
+			}
+
+			//gets the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare(conn, query, params);
+			stmt.setFetchSize(this._fetchSize);
+
+			try {
+				//issues the query instruction and walks the cursor
+				ResultSet rs = stmt.executeQuery ();
+				while (rs.next()){
+					handler.handle(rs);
+					++rowCount;
+				}//end while
+				rs.close ();
+				//the time is the fetch's; whatever end() still has to write is not
+				nanos = System.nanoTime() - start;
+				handler.end();
+			} finally {
+				//the statement is cached, so do not leak the fetch size to other callers
+				stmt.setFetchSize(0);
+			}
+			if (own_transaction) {
+				conn.commit();
+			}
+			return rowCount;
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			releaseConnection(conn, failure);
+			recordStatement(query, params, nanos < 0 ? System.nanoTime() - start : nanos, rowCount, failure,
+				handler.isSlowQueryLogged());
+		}
+	}//end executeQueryForEach
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		Connection conn = getConnection();
+		SQLException failure = null;
+		long start = System.nanoTime();
 		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+		try {
+			//gets the cached statement object and binds the parameters 
+			PreparedStatement stmt = prepare(conn, query, params); 
+			
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (); 
+		 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+		 
+			//iterates through the result set and saves the data returned by the query. 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i) 
+					record.add(rs.getString (i)); 
+				result.add(record); 
+			}//end while 
+			rs.close (); 
+			return result; 
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			releaseConnection(conn, failure);
+			recordStatement(query, params, start, result.size(), failure);
+		}
 	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results in typed
+	 * columns, so numeric values are read straight into primitive arrays
+	 * instead of being turned into strings and parsed again.
+	 * 
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result held column by column
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public TypedResult executeQueryAndReturnTyped (String query, Object... params) throws SQLException {
+		Connection conn = getConnection();
+		SQLException failure = null;
+		long start = System.nanoTime();
+		TypedResult result = null;
+		try {
+			//read through a cursor so the driver does not buffer the raw rows as well
+			boolean own_transaction = !inTransaction(conn);
+			if (own_transaction) {
+				conn.setAutoCommit(false);
+			}
+
+			//gets the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare(conn, query, params);
+			stmt.setFetchSize(this._fetchSize);
+
+			try {
+				//issues the query instruction and decodes each row into the columns
+				ResultSet rs = stmt.executeQuery ();
+				result = new TypedResult(rs.getMetaData ());
+				while (rs.next()){
+					result.add(rs);
+				}//end while
+				rs.close ();
+			} finally {
+				stmt.setFetchSize(0);
+			}
+			if (own_transaction) {
+				conn.commit();
+			}
+			return result;
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			releaseConnection(conn, failure);
+			recordStatement(query, params, start, result == null ? 0 : result.size(), failure);
+		}
+	}//end executeQueryAndReturnTyped
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with ? placeholders
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
+	public int executeQuery (String query, Object... params) throws SQLException {
+		Connection conn = getConnection();
+		SQLException failure = null;
+		long start = System.nanoTime();
 		int rowCount = 0;
-
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+		try {
+			//gets the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare(conn, query, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			return rowCount;
+		} catch (SQLException e) {
+			failure = e;
+			throw e;
+		} finally {
+			releaseConnection(conn, failure);
+			recordStatement(query, params, start, rowCount, failure);
+		}
 	}
 	
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * Method to assign free seats of one show in one theater to a booking.
+	 * The seats are picked and claimed by a single set-based UPDATE, lowest
+	 * seat numbers first, so the cost does not grow with the theater size.
+	 * Candidate seats are locked as they are picked and seats already locked
+	 * by another session are skipped instead of waited on, so concurrent
+	 * buyers for the same show each get different seats without blocking.
+	 * Seats taken by someone else in the meantime are never overwritten.
+	 * 
+	 * The claimed seats are returned rather than counted, so the caller can
+	 * report them to the seat inventory once the transaction commits.
+	 * 
+	 * @param bid the booking the seats are assigned to
+	 * @param sid the show the booking is for
+	 * @param tid the theater the customer picked
+	 * @param count the number of seats requested
+	 * @return the claimed seats as (ssid, tid, sno), at most count rows
+	 * @throws java.sql.SQLException when the update failed
+	 */
+	public TypedResult claimSeats(long bid, long sid, long tid, int count) throws SQLException {
+		String query = "UPDATE Showseats SS SET bid = ?\n"
+					+ "FROM Cinemaseats CS\n"
+					+ "WHERE SS.csid = CS.csid AND SS.bid IS NULL AND SS.ssid IN (SELECT SS2.ssid FROM Showseats SS2, Cinemaseats CS2\n"
+					+ "WHERE SS2.sid = ? AND SS2.csid = CS2.csid AND CS2.tid = ? AND SS2.bid IS NULL\n"
+					+ "ORDER BY CS2.sno LIMIT ? FOR UPDATE OF SS2 SKIP LOCKED)\n"
+					+ "RETURNING SS.ssid, CS.tid, CS.sno;";
+		return executeQueryAndReturnTyped(query, bid, sid, tid, count);
+	}
+
+	/**
+	 * Method to advance a sequence. This method issues the query to the
+	 * DBMS and returns the next value of a sequence used for autogenerated
+	 * keys
 	 * 
 	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
+	 * @return next value of a sequence
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	public long getNextSeqVal(String sequence) throws SQLException {
+		return executeQueryAndReturnTyped("Select nextval(?)", sequence).getLong(0, 0);
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to get a new primary key from one of the key sequences.  Keys
+	 * are reserved from the database ID_BLOCK_SIZE at a time, so most calls
+	 * are answered from memory.
+	 * 
+	 * @param sequence name of the DB sequence, e.g. BOOKINGS_SEQ
+	 * @return a key that has not been handed out before
+	 * @throws java.sql.SQLException when a new block could not be reserved
+	 */
+	public long nextId(String sequence) throws SQLException {
+		IdAllocator allocator = this._allocators.get(sequence);
+		if (allocator == null) {
+			allocator = this._allocators.computeIfAbsent(sequence,
+				name -> new IdAllocator(name, ID_BLOCK_SIZE, this::getNextSeqVal));
+		}
+		return allocator.next();
+	}
+
+	/**
+	 * Method to close the physical connections if they are open.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		this._expirer.stop();
+		this._slowQueries.close();
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -250,6 +770,8 @@ public class Ticketmaster{
 			String user = args[2];
 			
 			esql = new Ticketmaster (dbname, dbport, user, "");
+			esql.getPendingBookingExpirer().start();
+			esql.getScheduleIndex().start();
 			
 			boolean keepon = true;
 			while(keepon){
@@ -265,11 +787,13 @@ public class Ticketmaster{
 				System.out.println("8. Remove Shows on a Given Date");
 				System.out.println("9. List all Theaters in a Cinema Playing a Given Show");
 				System.out.println("10. List all Shows that Start at a Given Time and Date");
-				System.out.println("11. List Movie Titles Containing \"love\" Released After 2010");
+				System.out.println("11. List Movie Titles Containing a Word (\"love\") Released After a Date (2010)");
 				System.out.println("12. List the First Name, Last Name, and Email of Users with a Pending Booking");
 				System.out.println("13. List the Title, Duration, Date, and Time of Shows Playing a Given Movie at a Given Cinema During a Date Range");
 				System.out.println("14. List the Movie Title, Show Date & Start Time, Theater Name, and Cinema Seat Number for all Bookings of a Given User");
 				System.out.println("15. EXIT");
+				System.out.println("16. Show Diagnostics");
+				System.out.println("17. Check the Show Schedule");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
@@ -290,6 +814,8 @@ public class Ticketmaster{
 					case 13: ListMovieAndShowInfoAtCinemaInDateRange(esql); break;
 					case 14: ListBookingInfoForUser(esql); break;
 					case 15: keepon = false; break;
+					case 16: PrintDiagnostics(esql); break;
+					case 17: CheckShowSchedule(esql); break;
 				}
 			}
 		}catch(Exception e){
@@ -418,10 +944,10 @@ public class Ticketmaster{
 
 		//insert into table
 		try {
-			String query = "INSERT INTO Users (email, lname, fname, phone, pwd) VALUES ('" + email + "', '" + lname + "', '" + fname + "', '" + phone + "', '" + pwd + "');";
-			esql.executeUpdate(query);
+			esql.getOperations().addUser(email, lname, fname, phone, pwd);
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
+			return;
 		}
 		
 		System.out.println("User successfully created");
@@ -467,9 +993,7 @@ public class Ticketmaster{
 
 		//insert into table
 		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String query_user = "SELECT *\n FROM Users\n WHERE email = '" + user_email + "'and pwd = '" + password + "';";
-			if (esql.executeQuery(query_user) == 0) {
+			if (!esql.getOperations().authenticate(user_email, password)) {
 				System.out.println("This user does not exist");
 				AddUser(esql); // no user found, so add user
 			}
@@ -481,55 +1005,46 @@ public class Ticketmaster{
 		System.out.println("Welcome back, " + user_email + "!");
 
 		String movie; // MOVIE
+		long mvid;
 		do{
-			System.out.println("Which movie does the customer want to watch?: ");
-			try {
-				movie = in.readLine();
-				if(movie.length() > 128 || movie.length() == 0)  {
-					throw new RuntimeException("Movie cannot be empty and has to be less than 128 characters.");
-				}
-				else {
-					break;
+			do{
+				System.out.println("Which movie does the customer want to watch?: ");
+				try {
+					movie = in.readLine();
+					if(movie.length() > 128 || movie.length() == 0)  {
+						throw new RuntimeException("Movie cannot be empty and has to be less than 128 characters.");
+					}
+					else {
+						break;
+					}
+
+				} catch(Exception e) {
+					System.out.println("Your input is invalid!");
+					continue;
 				}
+			} while(true);
 
+			try {
+				mvid = esql.getOperations().findMovie(movie);
+				break;
+			} catch(NoSuchElementException e) {
+				//a mistyped title is asked again, with suggestions
+				System.out.println(e.getMessage());
 			} catch(Exception e) {
-				System.out.println("Your input is invalid!");
-				continue;
-			}
-		} while(true);
-
-		List<List<String>> movie_id_list = new ArrayList<List<String>>();
-
-		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String query_mvid = "SELECT mvid\n FROM Movies\n WHERE title = '" + movie + "';";
-			movie_id_list = esql.executeQueryAndReturnResult(query_mvid);
-			//esql.executeQueryAndPrintResult(query_mvid);
-
-			if (movie_id_list.size() == 0) {
-				System.out.println("This movie does not exist."); 
+				System.out.println(e.getMessage());
 				return;
 			}
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		String item = movie_id_list.get(0).get(0);
-		Integer mvid = Integer.parseInt(item);
+		} while(true);
 
 		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String query_mvid_show_times = "SELECT *\n FROM Shows\n WHERE mvid = '" + mvid + "';";
-			if (esql.executeQueryAndPrintResult(query_mvid_show_times) == 0) {
+			if (esql.getOperations().listShowsOfMovie(mvid, printRows()) == 0) {
 				System.out.println("Shows for this movie do not exist.");
 				return;
 			}
-			
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
+			return;
 		}
-		//System.out.println(mvid);
 
 		//NOW WE HAVE THE MOVIE ID
 
@@ -555,35 +1070,19 @@ public class Ticketmaster{
 			}
 		} while(true);
 
-		List<List<String>> date_time = new ArrayList<List<String>>();
-
+		long sid;
 		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String query_mvid = "SELECT sid\n FROM Shows\n WHERE mvid = '" + mvid + "'and sdate= '" + date + 
-								"'and sttime = '" + time + "';";
-
-			date_time = esql.executeQueryAndReturnResult(query_mvid);
-			//esql.executeQueryAndPrintResult(query_mvid);
-
-			if (date_time.size() == 0) {
-				System.out.println("A Show for this Date and Time does not exist."); 
-				return;
-			}
-			
+			sid = esql.getOperations().findShow(mvid, date, time);
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
+			return;
 		}
 
-		String item1 = date_time.get(0).get(0);
-		Integer sid = Integer.parseInt(item1);
-
 		//NOW WE KNOW THE SHOW ID THE CUSTOMER WANTS TO ATTEND
 
 		System.out.println("Here are the theaters that are showing the movie at this time.");
 		try {// Shows the us
-			String query_theaters = "SELECT SS.sid, SS.ssid, SS.price, SS.csid, CS.tid, T.tname, C.cname FROM Showseats SS, Cinemaseats CS, Theaters T, Cinemas C\n WHERE SS.sid = '" 
-											+ sid + "' and SS.csid=CS.csid and CS.tid=T.tid and C.cid=T.cid;";
-			if (esql.executeQueryAndPrintResult(query_theaters) == 0) {
+			if (esql.getOperations().listShowSeats(sid, null, printRows()) == 0) {
 				System.out.println("Shows for this movie do not exist.");
 				return;
 			}
@@ -612,23 +1111,21 @@ public class Ticketmaster{
 			}
 		} while(true);
 
-		List<List<String>> csid_list = new ArrayList<List<String>>();
-
 		Integer max_possible_seats = 0;
 		System.out.println("The following are the seats available:");
 		try {// Shows the us
-			String query_mvid_show_times = "SELECT SS.sid, SS.ssid, SS.price, SS.csid, CS.tid, T.tname, C.cname FROM Showseats SS, Cinemaseats CS, Theaters T, Cinemas C\n WHERE SS.sid = '" 
-											+ sid + "' and SS.csid=CS.csid and CS.tid=T.tid and C.cid=T.cid and T.tid = " + theater_id + ";";
-			
-			max_possible_seats = esql.executeQueryAndPrintResult(query_mvid_show_times);
-			if (max_possible_seats == 0) {
+			if (esql.getOperations().listShowSeats(sid, theater_id, printRows()) == 0) {
 				System.out.println("You have entered an invalid Theater ID.");
 				return;
 			}
+			//the list shows every seat, the limit only counts the free ones, read fresh like the list
+			esql.getSeatInventory().evict(sid);
+			max_possible_seats = esql.getSeatInventory().countFree(sid, theater_id);
+			if (max_possible_seats == 0) {
+				System.out.println("There are no seats left in this theater for this show.");
+				return;
+			}
 
-			String query_csid = "SELECT SS.csid\n FROM Showseats SS, Cinemaseats CS, Theaters T, Cinemas C\n WHERE SS.sid = '" 
-								+ sid + "' and SS.csid=CS.csid and CS.tid=T.tid and C.cid=T.cid and T.tid = " + theater_id + ";";
-			csid_list = esql.executeQueryAndReturnResult(query_csid);
 			
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
@@ -652,56 +1149,15 @@ public class Ticketmaster{
 			}
 		} while(true);
 		
-		String status = "Pending"; //START CREATING THE BOOKING
-
-		ZonedDateTime zone_date_time = ZonedDateTime.now();
-		DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ssx");
-		
-		String zdt = dtf.format(zone_date_time);
-
-		List<List<String>> booking_id_list = new ArrayList<List<String>>(); //want to find out maximum number customer can reserve
-
-		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String booking_id_query = "SELECT max(bid) from bookings";
-
-			booking_id_list = esql.executeQueryAndReturnResult(booking_id_query);
-			//esql.executeQueryAndPrintResult(booking_id_query);
-
-			if (booking_id_list.size() == 0) {
-				System.out.println("This does not exist"); 
-				return;
-			}
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		Integer booking_id = Integer.parseInt(booking_id_list.get(0).get(0)) + 1;
-		System.out.println("Here is the customer's booking ID: " + booking_id);
-
+		//START CREATING THE BOOKING: the booking and its seats are created in one transaction
 		try {
-			String query = "INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email) VALUES ('" + booking_id + "', '" + status + "', '" + zdt
-							 + "', '" + seat_no + "', '" + sid + "', '" + user_email + "');";
-			esql.executeUpdate(query);
+			Map<String, Object> booking = esql.getOperations().addBooking(user_email, sid, theater_id, seat_no);
+			System.out.println("Here is the customer's booking ID: " + booking.get("bid"));
+			System.out.println("Booking successfully added! " + booking.get("seats") + " seats reserved.");
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
 
-
-		//Update the bid for the seats that the customer has reserved
-		for (int i = 0; i < csid_list.size(); ++i) {
-			//show_seat_ids.get(0).get(i)
-			//System.out.println("Iteration" + i);
-			try {
-				String query = "UPDATE Showseats SET bid = '" + booking_id + "' WHERE csid='" + Integer.parseInt(csid_list.get(i).get(0)) + "';";
-				esql.executeUpdate(query);
-			} catch(Exception e) {
-				System.out.println(e.getMessage());
-			}
-		}
-		System.out.println("Booking successfully added!");
-
 	}
 	
 	public static void AddMovieShowingToTheater(Ticketmaster esql){//3 works
@@ -709,7 +1165,6 @@ public class Ticketmaster{
 		show(i.e. start time) and checks if the provided information is valid based 
 		on the constraints of the database schema.*/
 		//create movie
-		Integer mvid;
 		String title;
 		String rdate;
 		String country;
@@ -718,27 +1173,6 @@ public class Ticketmaster{
 		String lang = "";
 		String genre = "";
 
-		List<List<String>> generate_mvid = new ArrayList<List<String>>(); //want to find out maximum number customer can reserve
-
-		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String new_mvid = "SELECT max(mvid) from Movies";
-
-			generate_mvid = esql.executeQueryAndReturnResult(new_mvid);
-			//esql.executeQueryAndPrintResult(booking_id_query);
-
-			if (generate_mvid.size() == 0) {
-				System.out.println("Something went wrong."); 
-				return;
-			}
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		mvid = Integer.parseInt(generate_mvid.get(0).get(0)) + 1;
-		System.out.println("The new mvid is: " + mvid);
-
 		do{
 			System.out.println("Title of movie: ");
 			try {
@@ -880,39 +1314,11 @@ public class Ticketmaster{
 			System.out.println("Your input is invalid!");
 		}
 
-		try {
-			String queryOne = "INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre) VALUES ('" + mvid + "', '" + title + "', '" + rdate + "', '" + country + "', '" + description + "', '" + duration + "', '" + lang + "', '" + genre + "');";
-			esql.executeUpdate(queryOne);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
 		//create show
-		Integer sid;
 		String sdate;
 		String sttime;
 		String edtime;
 
-		List<List<String>> generate_sid = new ArrayList<List<String>>(); //want to find out maximum number customer can reserve
-
-		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String new_sid = "SELECT max(sid) FROM shows";
-
-			generate_sid = esql.executeQueryAndReturnResult(new_sid);
-			//esql.executeQueryAndPrintResult(new_sid);
-
-			if (generate_sid.size() == 0) {
-				System.out.println("Something went wrong."); 
-				return;
-			}
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		sid = Integer.parseInt(generate_sid.get(0).get(0)) + 1;
-		System.out.println("The sid is: " + sid);
-
 		do{
 			System.out.println("Enter Show date (YYYY-MM-DD): ");
 			try {
@@ -946,13 +1352,6 @@ public class Ticketmaster{
 			}
 		} while(true);
 
-		try {
-			String queryTwo = "INSERT INTO Shows (sid, mvid, sdate, sttime, edtime) VALUES ('" + sid + "', '" + mvid + "', '" + sdate + "', '" + sttime + "', '" + edtime + "');";
-			esql.executeUpdate(queryTwo);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
 		//connect show and theater
 		int tid;
 		do{
@@ -966,11 +1365,15 @@ public class Ticketmaster{
 			}
 		} while(true);
 
+		//the movie, the show and its theater are inserted in one transaction
 		try {
-			String queryThree = "INSERT INTO Plays (sid, tid) VALUES ('" + sid + "', '" + tid + "');";
-			esql.executeUpdate(queryThree);
+			Map<String, Object> showing = esql.getOperations().addMovieShowing(title, rdate, country, description,
+				duration, lang, genre, sdate, sttime, edtime, tid);
+			System.out.println("The new mvid is: " + showing.get("mvid"));
+			System.out.println("The sid is: " + showing.get("sid"));
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
+			return;
 		}
 		
 		System.out.println("Movie showing successfully added!");
@@ -979,14 +1382,11 @@ public class Ticketmaster{
 	public static void CancelPendingBookings(Ticketmaster esql){//4 works!
 
 		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String query_pending_bid = "UPDATE Bookings\n SET status = 'Cancelled' WHERE status = 'Pending'";
-
-			esql.executeUpdate(query_pending_bid);
-			//esql.executeQueryAndPrintResult(query_pending_bid);
-			
+			Map<String, Object> cancelled = esql.getOperations().cancelPendingBookings();
+			System.out.println(cancelled.get("cancelled") + " bookings cancelled.");
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
+			return;
 		}
 		System.out.println("Pending bookings successfully cancelled!");
 	}
@@ -1020,28 +1420,20 @@ public class Ticketmaster{
 			}
 		} while(true);
 
-		List<List<String>> booking_list = new ArrayList<List<String>>();
-
+		TypedResult booking_list;
 		try {
-			String query_seats_booked = "SELECT seats, sid\n FROM Bookings\n WHERE bid = '" + booking_id + "';";
-			
-			booking_list = esql.executeQueryAndReturnResult(query_seats_booked);
-			esql.executeQueryAndPrintResult(query_seats_booked);
-
-			if (booking_list.size() == 0) {
-				System.out.println("There are no seats booked");
-				return;
-			}
-			
+			booking_list = esql.getOperations().getBooking(booking_id);
+			booking_list.print(System.out);
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
+			return;
 		}
 
 		//See how many seats
-		Integer total_seats_booked = Integer.parseInt(booking_list.get(0).get(0));
+		int total_seats_booked = booking_list.getInt(0, 0);
 		System.out.println("This booking contains " + total_seats_booked + " seats");
 
-		Integer show_id = Integer.parseInt(booking_list.get(0).get(1));
+		long show_id = booking_list.getLong(0, 1);
 		System.out.println("The show ID is: " + show_id);
 
 		Integer change_seat_no;
@@ -1061,103 +1453,14 @@ public class Ticketmaster{
 				continue;
 			}
 		} while(true);
-		
-		List<List<String>> price_query = new ArrayList<List<String>>(); 
-
-		try {
-			String query_sum_price = "SELECT sum(PRICE) from Showseats WHERE bid = '" + booking_id + "';";
-
-			price_query = esql.executeQueryAndReturnResult(query_sum_price);
-			//esql.executeQueryAndPrintResult(query_sum_price);
-
-			if (price_query.size() == 0) {
-				System.out.println("This booking does not exist"); 
-				return;
-			}
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		Integer total_booking_price = Integer.parseInt(price_query.get(0).get(0));
-		//This is the total price of the booking in question
-
-		List<List<String>> new_price_list = new ArrayList<List<String>>(); 
 
+		//Price the booking, pick the new seats and swap them in one transaction
 		try {
-			String query_new_prices = "SELECT sum(price) FROM (SELECT price FROM Showseats WHERE sid = '" + show_id + 
-									"' and bid IS NULL OR bid=null LIMIT " + change_seat_no + " ) ALIAS;";
-
-			new_price_list = esql.executeQueryAndReturnResult(query_new_prices);
-			esql.executeQueryAndPrintResult(query_new_prices);
-
-			if (new_price_list.size() == 0) {
-				System.out.println("This does not exist"); 
-				return;
-			}
-			
+			Map<String, Object> changed = esql.getOperations().changeSeats(booking_id, change_seat_no);
+			System.out.println("The booking now holds " + changed.get("seats") + " new seats.");
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
-
-		Integer new_price_total = Integer.parseInt(new_price_list.get(0).get(0));
-
-		if (new_price_total >= total_booking_price) { //No changes are made if we execute this statement
-			System.out.println("The customer's seats are the cheapest possible for this show.");
-			return;
-		}
-		//We delete the current bookings
-		//Now we have to actually input the ids.
-
-		//String query_show_seat_id = "SELECT ssid\n FROM Showseats\n WHERE sid = '" + sid + "' and bid IS NULL OR bid = null LIMIT '" + seat_no + "';";
-
-
-		List<List<String>> new_ssid_list = new ArrayList<List<String>>(); 
-
-		try {
-			String query_new_ssid = "SELECT ssid from Showseats WHERE sid = '" + show_id + "'and bid IS NULL OR bid=null LIMIT " + change_seat_no + ";";
-			new_ssid_list = esql.executeQueryAndReturnResult(query_new_ssid);
-			esql.executeQueryAndPrintResult(query_new_ssid);
-
-			if (price_query.size() == 0) {
-				System.out.println("This does not exist"); 
-				return;
-			}
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		//We have the new ssids stored. Now we can set the old ssids to bid=null
-
-		try {
-			String query_pending_bid = "UPDATE Showseats\n SET bid = null WHERE bid = '" + booking_id + "';";
-
-			esql.executeQuery(query_pending_bid);
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		System.out.println("The size of the ssid_list is: " + new_ssid_list.size());
-
-		// System.out.println(Integer.parseInt(new_ssid_list.get(0).get(0)));
-		// System.out.println(Integer.parseInt(new_ssid_list.get(1).get(0)));
-		// System.out.println(Integer.parseInt(new_ssid_list.get(2).get(0)));
-
-		for (int i = 0; i < new_ssid_list.size(); ++i) {
-			//show_seat_ids.get(0).get(i)
-			//System.out.println("Iteration" + i);
-			try {
-				String query = "UPDATE Showseats SET bid = " + booking_id + " WHERE ssid=" + Integer.parseInt(new_ssid_list.get(i).get(0)) + ";";
-				esql.executeUpdate(query);
-			} catch(Exception e) {
-				System.out.println(e.getMessage());
-			}
-		}
-
-
-
 	}
 	
 	public static void RemovePayment(Ticketmaster esql){//6 works! 
@@ -1174,63 +1477,40 @@ public class Ticketmaster{
 			}
 		} while(true);
 		
-		//find booking to change status to cancelled
-		String status = "Cancelled";
-		try {
-			String queryUpdate = "UPDATE Bookings SET status = '" + status + "' WHERE bid = '" + pid + "';";
-			esql.executeUpdate(queryUpdate);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		//remove payment
+		//change the status of the booking it paid for to cancelled and remove the payment
 		try {
-			String queryDelete = "DELETE FROM Payments WHERE pid = '" + pid + "';";
-			esql.executeUpdate(queryDelete);
+			Map<String, Object> removed = esql.getOperations().removePayment(pid);
+			if (removed.get("removed").equals(0)) {
+				System.out.println("There is no payment with this id.");
+				return;
+			}
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
+			return;
 		}
 		System.out.println("Payment Successfully Removed!");
 	}
 	
 	public static void ClearCancelledBookings(Ticketmaster esql){//7 works!
-		List<List<String>> canceled_pending_list = new ArrayList<List<String>>();
-
+		//Bookings are purged in chunks of consecutive bids, each chunk in its own short
+		//transaction, so an interrupted purge is resumed by simply running it again.
+		Map<String, Object> purged;
 		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String query_canceled_bid = "SELECT bid\n FROM bookings \nWHERE status = 'Cancelled'";
-
-			canceled_pending_list = esql.executeQueryAndReturnResult(query_canceled_bid);
-			//esql.executeQueryAndPrintResult(query_canceled_bid);
-
-			if (canceled_pending_list.size() == 0) {
-				System.out.println("There are no pending bookings."); 
-				return;
-			}
-			
+			purged = esql.getOperations().clearCancelledBookings();
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
+			return;
 		}
 
-		for (int i = 0; i < canceled_pending_list.size(); ++i) {
-			//System.out.println("Iteration" + i);
-			try {
-				String query = "UPDATE Showseats SET bid = null WHERE bid = '" + Integer.parseInt(canceled_pending_list.get(i).get(0)) + "';";
-				esql.executeUpdate(query);
-			} catch(Exception e) {
-				System.out.println(e.getMessage());
-			}
-		}
-
-		for (int i = 0; i < canceled_pending_list.size(); ++i) {
-			//System.out.println("Iteration" + i);
-			try {
-				String query = "DELETE from bookings WHERE bid = '" + Integer.parseInt(canceled_pending_list.get(i).get(0)) + "';";
-				esql.executeUpdate(query);
-			} catch(Exception e) {
-				System.out.println(e.getMessage());
-			}
+		long bookings_removed = (Long) purged.get("bookings");
+		long seats_freed = (Long) purged.get("seats");
+		if (bookings_removed == 0) {
+			System.out.println("There are no cancelled bookings."); 
+			return;
 		}
+		double seconds = Math.max((Double) purged.get("seconds"), 1e-9);
+		System.out.println(String.format("Removed %d cancelled bookings and freed %d seats in %.2f s (%.0f seats freed/s).",
+			bookings_removed, seats_freed, seconds, seats_freed / seconds));
 		System.out.println("Cancelled Bookings Successfully removed!");
 	}
 	
@@ -1274,48 +1554,11 @@ public class Ticketmaster{
 			}
 		} while(true);
 
-		List<List<String>> sid_list = new ArrayList<List<String>>();
-
+		//Delete the shows from Showseats, then from Plays, then from Shows, all in one transaction
 		try {
-			String query_sid = "SELECT S.sid\n FROM Shows S, Theaters T, Plays P \nWHERE S.sdate = '" + 
-								date + "' and T.tid=P.tid and S.sid=P.sid and T.cid = '" + cid + "';"; 
-
-			sid_list = esql.executeQueryAndReturnResult(query_sid);
-			esql.executeQueryAndPrintResult(query_sid);
-
-			if (sid_list.size() == 0) {
-				System.out.println("There are no such Shows at Cinema " + cid + " on " + date + "."); 
-				return;
-			}
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		Integer sid = Integer.parseInt(sid_list.get(0).get(0));
-		System.out.println("Deleting Show with ID " + sid + "...");
-
-		//1. Get show ID
-		//2. Delete show ID from Showseats, then from Plays, then from Shows
-
-		//Remove show Showseats
-		try {
-			String query_delete_showseat = "DELETE FROM Showseats WHERE sid = '" + sid + "';";
-			esql.executeUpdate(query_delete_showseat);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-		//Remove from Plays
-		try {
-			String query_delete_play = "DELETE FROM Plays WHERE sid = '" + sid + "';";
-			esql.executeUpdate(query_delete_play);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-		//Remove from Shows
-		try {
-			String query_delete_show = "DELETE FROM Shows WHERE sid = '" + sid + "';";
-			esql.executeUpdate(query_delete_show);
+			Map<String, Object> removed = esql.getOperations().removeShowsOnDate(cid, date);
+			long[] sids = (long[]) removed.get("removed");
+			System.out.println("Deleted " + sids.length + " shows: " + Arrays.toString(sids));
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -1336,8 +1579,9 @@ public class Ticketmaster{
 		} while(true);
 		
 		try {
-			String query = "SELECT T.tid, T.tname, C.cname\nFROM Theaters T, Plays P, Cinemas C\nWHERE T.tid = P.tid\nAND P.sid = '" + sid + "'and T.cid=C.cid;";
-			esql.executeQueryAndPrintResult(query);
+			if (esql.getOperations().listTheatersPlayingShow(sid, printRows()) == 0) {
+				System.out.println("No theater is playing this show.");
+			}
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -1368,9 +1612,11 @@ public class Ticketmaster{
 		} while(true);
 
 		try {
-			String query = "SELECT S.sid, M.mvid, M.title, S.sdate, S.sttime, S.edtime FROM Shows S, Movies M WHERE S.sdate = '" + date + "' AND S.sttime = '" + time + "' AND M.mvid = S.mvid;";
-			if (esql.executeQueryAndPrintResult(query) == 0) {
+			TypedResult shows = esql.getOperations().listShowsStartingOnTimeAndDate(date, time);
+			if (shows.size() == 0) {
 				System.out.println("There are no shows playing on this time and date.");
+			} else {
+				shows.print(System.out);
 			}
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
@@ -1379,9 +1625,21 @@ public class Ticketmaster{
 	}
 
 	public static void ListMovieTitlesContainingLoveReleasedAfter2010(Ticketmaster esql){//11 works
+		String keyword;
+		String released_after;
+		try {
+			System.out.println("Which word should the titles contain? (love): ");
+			keyword = in.readLine().trim();
+			System.out.println("Released after which date? (2010-12-31): ");
+			released_after = in.readLine().trim();
+		} catch(Exception e) {
+			System.out.println("Your input is invalid!");
+			return;
+		}
 		try {
-			String query = "SELECT title FROM Movies WHERE genre = 'Love' and rdate >= '2010-12-31'";
-			if (esql.executeQueryAndPrintResult(query) == 0) {
+			int count = esql.getOperations().searchMovieTitles(keyword.isEmpty() ? "love" : keyword,
+				released_after.isEmpty() ? "2010-12-31" : released_after, Long.MAX_VALUE, printRows());
+			if (count == 0) {
 				System.out.println("There are no such movie listings.");
 			}
 		} catch(Exception e) {
@@ -1390,11 +1648,10 @@ public class Ticketmaster{
 	}
 
 	public static void ListUsersWithPendingBooking(Ticketmaster esql){//12 works!
-		String status = "Pending";
-		
 		try {
-			String query = "SELECT U.fname, U.lname, U.email\nFROM Users U, Bookings B\nWHERE B.email =  U.email\nAND B.status = '" + status + "';";
-			esql.executeQueryAndPrintResult(query);
+			if (esql.getOperations().listUsersWithPendingBooking(printRows()) == 0) {
+				System.out.println("There are no users with a pending booking.");
+			}
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -1402,41 +1659,36 @@ public class Ticketmaster{
 
 	public static void ListMovieAndShowInfoAtCinemaInDateRange(Ticketmaster esql){//13 works!
 		String movie; // MOVIE
+		long mvid;
 		do{
-			System.out.println("Which movie does the customer want to watch?: ");
-			try {
-				movie = in.readLine();
-				if(movie.length() > 128 || movie.length() == 0)  {
-					throw new RuntimeException("Movie cannot be empty and has to be less than 128 characters.");
-				}
-				else {
-					break;
+			do{
+				System.out.println("Which movie does the customer want to watch?: ");
+				try {
+					movie = in.readLine();
+					if(movie.length() > 128 || movie.length() == 0)  {
+						throw new RuntimeException("Movie cannot be empty and has to be less than 128 characters.");
+					}
+					else {
+						break;
+					}
+
+				} catch(Exception e) {
+					System.out.println("Your input is invalid!");
+					continue;
 				}
+			} while(true);
 
+			try {
+				mvid = esql.getOperations().findMovie(movie);
+				break;
+			} catch(NoSuchElementException e) {
+				//a mistyped title is asked again, with suggestions
+				System.out.println(e.getMessage());
 			} catch(Exception e) {
-				System.out.println("Your input is invalid!");
-				continue;
-			}
-		} while(true);
-		
-		List<List<String>> movie_id_list = new ArrayList<List<String>>();
-
-		try {
-			String query_mvid = "SELECT mvid\n FROM Movies\n WHERE title = '" + movie + "';";
-			movie_id_list = esql.executeQueryAndReturnResult(query_mvid);
-			//esql.executeQueryAndPrintResult(query_mvid);
-
-			if (movie_id_list.size() == 0) {
-				System.out.println("This movie does not exist");
+				System.out.println(e.getMessage());
 				return;
 			}
-			
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-
-		String item = movie_id_list.get(0).get(0);
-		Integer mvid = Integer.parseInt(item);
+		} while(true);
 		
 		
 		String lowest_date = "";
@@ -1462,9 +1714,7 @@ public class Ticketmaster{
 		} while(true);
 
 		try {
-			String query = "SELECT M.title, M.duration, S.sid, S.sdate, S.sttime, C.cname FROM Shows S, Movies M, Theaters T, Cinemas C, Plays P WHERE M.mvid=S.mvid and S.mvid= '" 
-							+ mvid + "' and S.sdate <= '" + highest_date + "' and S.sdate >= '" + lowest_date + "' and P.tid=T.tid and S.sid=P.sid and T.cid=C.cid;";
-			esql.executeQueryAndPrintResult(query);
+			esql.getOperations().listMovieAndShowInfoAtCinemaInDateRange(mvid, lowest_date, highest_date, null).print(System.out);
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -1488,9 +1738,12 @@ public class Ticketmaster{
 		} while(true);
 
 		try {
-			String query = "SELECT M.title, M.duration, S.sid, S.sdate, S.sttime FROM Shows S, Movies M, Theaters T, Cinemas C, Plays P WHERE M.mvid=S.mvid and S.mvid= '" 
-							+ mvid + "' and S.sdate <= '" + highest_date + "' and S.sdate >= '" + lowest_date + "' and C.cname = '" + cinema_name + "' and P.tid=T.tid and S.sid=P.sid and T.cid=C.cid;";
-			esql.executeQueryAndPrintResult(query);
+			TypedResult shows = esql.getOperations().listMovieAndShowInfoAtCinemaInDateRange(mvid, lowest_date, highest_date, cinema_name);
+			if (shows.size() == 0) {
+				System.out.println("There are no shows of this movie at this cinema in this date range.");
+			} else {
+				shows.print(System.out);
+			}
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
@@ -1540,9 +1793,7 @@ public class Ticketmaster{
 
 		//insert into table
 		try {
-			//String query_user = "SELECT *\n FROM Users\n WHERE email = + user_email;
-			String query_user = "SELECT *\n FROM Users\n WHERE email = '" + email + "'and pwd = '" + pwd + "';";
-			if (esql.executeQuery(query_user) == 0) {
+			if (!esql.getOperations().authenticate(email, pwd)) {
 				System.out.println("This user does not exist");
 				AddUser(esql); // no user found, so add user
 				System.out.println("Would you like to create a booking since you are a new user? (Y/N");
@@ -1560,32 +1811,86 @@ public class Ticketmaster{
 				}
 			}
 
-			List<List<String>> bookingsList = new ArrayList<List<String>>();
-			String query_booking = "SELECT bid\nFROM bookings\nWHERE email = '" + email + "';";
-			bookingsList = esql.executeQueryAndReturnResult(query_booking);
-			if (bookingsList.size() == 0) {
-				System.out.println("There are no pending bookings."); 
-				return;
-			}
-			for(int i = 0; i < bookingsList.size(); ++i)  {
-				try {
-					String queryBookingInfo = "SELECT M.title, S1.sdate, S1.sttime, T.tname, C.sno\n"
-											+ "FROM movies M, shows S1, bookings B, cinemaseats C, showseats S2, theaters T\n"
-											+ "WHERE M.mvid = S1.mvid\n"
-											+ "AND S1.sid = B.sid\n"
-											+ "AND B.email = '" + email + "'\n"
-											+ "AND B.bid = S2.bid\n"
-											+ "AND S2.csid = C.csid\n"
-											+ "AND T.tid = C.tid;";
-					esql.executeQueryAndPrintResult(queryBookingInfo);
-				} catch(Exception e) {
-					System.out.println(e.getMessage());
+			//One grouped query per page: each booking with its show and all of its seat numbers.
+			int page_size = Integer.getInteger("ticketmaster.pageSize", 20);
+			long last_bid = Long.MIN_VALUE;
+			int booking_count = 0;
+			while (true) {
+				TypedResult page = esql.getOperations().listBookingInfoForUser(email, last_bid, page_size);
+				if (page.size() == 0) {
+					break;
+				}
+				page.print(System.out);
+				booking_count += page.size();
+				last_bid = page.getLong(page.size() - 1, 0);
+				if (page.size() < page_size) {
+					break;
+				}
+				System.out.println("Show more bookings? (Y/N)");
+				answer = in.readLine();
+				if (answer == null || !answer.equalsIgnoreCase("Y")) {
+					break;
 				}
 			}
+			if (booking_count == 0) {
+				System.out.println("There are no bookings for this account."); 
+				return;
+			}
 		} catch(Exception e) {
 			System.out.println(e.getMessage());
 		}
 
 	}
 	
+	public static void PrintDiagnostics(Ticketmaster esql){//16
+		System.out.println("CONNECTION POOL");
+		System.out.println("---------------");
+		System.out.print(esql.getPoolStats());
+		System.out.println();
+		System.out.println("SEAT INVENTORY");
+		System.out.println("--------------");
+		System.out.print(esql.getSeatInventory().getStats());
+		try {
+			System.out.println(esql.getSeatInventory().verify());
+		} catch(Exception e) {
+			System.out.println(e.getMessage());
+		}
+		System.out.println();
+		System.out.println("REFERENCE DATA CACHE");
+		System.out.println("--------------------");
+		System.out.print(esql.getReferenceCache().getStats());
+		System.out.print(esql.getTitleIndex().getStats());
+		System.out.print(esql.getScheduleIndex().getStats());
+		System.out.println();
+		System.out.println("PENDING BOOKING EXPIRY");
+		System.out.println("----------------------");
+		System.out.print(esql.getPendingBookingExpirer().getStats());
+		System.out.println();
+		System.out.println("SLOW QUERIES");
+		System.out.println("------------");
+		System.out.print(esql.getSlowQueryLog().getStats());
+		System.out.println();
+		System.out.println("OPERATIONS AND STATEMENTS");
+		System.out.println("-------------------------");
+		System.out.print(esql.getMetrics().getReport(10));
+	}
+
+	public static void CheckShowSchedule(Ticketmaster esql){//17
+		try {
+			TypedResult problems = esql.getOperations().checkShowSchedule();
+			if (problems.size() == 0) {
+				System.out.println("The show schedule matches Shows, Plays, Movies, Theaters and Cinemas.");
+				return;
+			}
+			problems.print(System.out);
+			System.out.println(problems.size() + " rows of the show schedule differ. Rebuild it? (Y/N)");
+			String answer = in.readLine();
+			if (answer != null && answer.trim().equalsIgnoreCase("Y")) {
+				System.out.println("Rebuilt the show schedule with " + esql.getOperations().rebuildShowSchedule().get("rows") + " rows.");
+			}
+		} catch(Exception e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	
 }
@@ -0,0 +1,225 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the fourteen operations as JSON over HTTP, using the
+ * JDK's built-in server, so one process can take requests from many box
+ * office and kiosk clients at once.  Each request runs on its own virtual
+ * thread when the JVM has them (Java 21 and later) and on a bounded pool
+ * of platform threads otherwise.
+ *
+ * Requests wait for a permit before touching the database.  There are as
+ * many permits as pooled connections, so thousands of waiting requests park
+ * cheaply here instead of piling up inside the connection pool.
+ *
+ * Endpoints are the operation names in kebab case.  Listings are GET with
+ * query string parameters; changes, and listings that take a password
+ * (list-booking-info-for-user), are POST with the parameters in a flat
+ * JSON object (query string parameters are accepted too).  Successful
+ * responses are the operation's summary, or {"count": n, "rows": [...]}
+ * for listings; failures are {"error": message} with a 4xx or 5xx status.
+ * Request bodies are read before a permit is taken, so they are limited to
+ * ticketmaster.server.maxBodyBytes (65536); a larger one is answered 413.
+ *
+ * GET /metrics answers in the Prometheus text format with the latency,
+ * rows and failures of every operation and SQL template, and the pool,
+ * seat inventory, reference cache, expiry and slow query counters.  It
+ * does not wait for a permit, so it can be scraped while the database is
+ * saturated.
+ *
+ * Usage: ./serve.sh [http port]
+ *
+ */
+
+public class TicketmasterServer {
+	private final Ticketmaster esql;
+	private final Commands commands;
+	private final Semaphore admission;
+	private final long admissionTimeout;
+	private final int maxBodyBytes;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	public TicketmasterServer(Ticketmaster esql, int port) throws IOException {
+		this.esql = esql;
+		this.commands = new Commands(esql.getOperations());
+		this.admission = new Semaphore(esql.getPoolSize(), true);
+		this.admissionTimeout = Long.getLong("ticketmaster.server.queueTimeoutMs", 30000L);
+		this.maxBodyBytes = Integer.getInteger("ticketmaster.server.maxBodyBytes", 1 << 16);
+		this.executor = newRequestExecutor();
+		this.server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("ticketmaster.server.backlog", 1024));
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", this::handle);
+		this.server.createContext("/metrics", this::metrics);
+	}
+
+	/*
+	 * A virtual thread per request when the JVM has them, found by
+	 * reflection so the program still builds and runs on older JDKs.
+	 */
+	private static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(Integer.getInteger("ticketmaster.server.threads", 256));
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		int status = 200;
+		Object body;
+		try {
+			String name = exchange.getRequestURI().getPath().substring(1);
+			String method = exchange.getRequestMethod();
+			Commands.Command command = "POST".equals(method) ? commands.getChange(name)
+				: "GET".equals(method) ? commands.getListing(name) : null;
+			if (command == null) {
+				boolean known = commands.get(name) != null;
+				throw new HttpError(known ? 405 : 404, known ? "Method " + method + " not allowed" : "No such endpoint: /" + name);
+			}
+			Commands.Params params = readParams(exchange);
+			if (!admission.tryAcquire(admissionTimeout, TimeUnit.MILLISECONDS)) {
+				throw new HttpError(503, "The server is busy, try again later.");
+			}
+			try {
+				body = command.run(params);
+			} finally {
+				admission.release();
+			}
+		} catch (HttpError e) {
+			status = e.status;
+			body = error(e.getMessage());
+		} catch (Exception e) {
+			status = Commands.statusOf(e);
+			body = error(String.valueOf(e.getMessage()));
+		}
+
+		byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private void metrics(HttpExchange exchange) throws IOException {
+		String text = esql.getMetrics().scrape(esql.getPoolStats(), esql.getSeatInventory().getStats(), esql.getReferenceCache().getStats(),
+			esql.getTitleIndex().getStats(), esql.getScheduleIndex().getStats(), esql.getPendingBookingExpirer().getStats(),
+			esql.getSlowQueryLog().getStats());
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static final class HttpError extends Exception {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpError(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private static Map<String, Object> error(String message) {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("error", message);
+		return result;
+	}
+
+	private Commands.Params readParams(HttpExchange exchange) throws IOException, HttpError {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				if (pair.isEmpty()) {
+					continue;
+				}
+				int eq = pair.indexOf('=');
+				String name = eq < 0 ? pair : pair.substring(0, eq);
+				String value = eq < 0 ? "" : pair.substring(eq + 1);
+				values.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+			}
+		}
+		try (InputStream in = exchange.getRequestBody()) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			int n;
+			while ((n = in.read(chunk)) > 0) {
+				if (buffer.size() + n > maxBodyBytes) {
+					throw new HttpError(413, "The request body is larger than " + maxBodyBytes + " bytes.");
+				}
+				buffer.write(chunk, 0, n);
+			}
+			values.putAll(Json.parseObject(buffer.toString(StandardCharsets.UTF_8.name())));
+		}
+		return new Commands.Params(values);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Method to stop taking requests, wait up to delay seconds for the ones
+	 * in flight, and stop the request threads.
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] " + TicketmasterServer.class.getName()
+				+ " <dbname> <port> <user> [http port]");
+			return;
+		}
+		int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+		try {
+			final Ticketmaster esql = new Ticketmaster(args[0], args[1], args[2], "");
+			final TicketmasterServer server = new TicketmasterServer(esql, httpPort);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				server.stop(2);
+				esql.cleanup();
+			}));
+			server.start();
+			esql.getPendingBookingExpirer().start();
+			esql.getScheduleIndex().start();
+			System.out.println("Serving on http://localhost:" + httpPort + "/");
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,535 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class answers type-ahead lookups of movie titles from memory: "the
+ * dar" finds "The Dark Knight", and "godfater" finds "The Godfather".
+ *
+ * Titles are split into lower case words.  The index keeps the sorted
+ * vocabulary of those words, for each word the titles that contain it, and
+ * for each trigram of a word (padded like pg_trgm does) the words that
+ * contain it.  A query is split the same way; every word but the last has
+ * to match a title word exactly or, failing that, closely enough by
+ * trigram similarity, and the last one may also be the start of a title
+ * word, since it is probably still being typed.  Matching titles are ranked
+ * by how well their words matched, titles starting with the query first,
+ * then shorter titles.  The postings are per word, not per title, so the
+ * index stays a few ints per title even for millions of titles.
+ *
+ * The index is built from Movies on first use, and built again in the
+ * background when it is older than refreshSeconds; the old one answers
+ * until the new one is ready.  Movies added by this process in between
+ * are searched one by one.
+ *
+ * Settings (system properties):
+ *   ticketmaster.titleIndex.refreshSeconds  how long an index is used (600)
+ *
+ */
+
+public class TitleIndex {
+	// pg_trgm's default similarity threshold
+	private static final double FUZZY_THRESHOLD = 0.3;
+	// titles looked at per query, so a one letter query stays cheap
+	private static final int MAX_CANDIDATES = 5000;
+
+	private final Ticketmaster esql;
+	private final long refreshNanos;
+	private volatile Snapshot snapshot = null;
+	private boolean rebuilding = false;
+	private final List<Added> added = new CopyOnWriteArrayList<Added>();
+
+	/**
+	 * One suggested title.
+	 */
+	public static final class Match implements Comparable<Match> {
+		public final long mvid;
+		public final String title;
+		public final double score;
+
+		Match(long mvid, String title, double score) {
+			this.mvid = mvid;
+			this.title = title;
+			this.score = score;
+		}
+
+		public int compareTo(Match other) {
+			int c = Double.compare(other.score, score);
+			if (c == 0) {
+				c = Integer.compare(title.length(), other.title.length());
+			}
+			return c != 0 ? c : Long.compare(mvid, other.mvid);
+		}
+	}
+
+	private static final class Added {
+		final long mvid;
+		final String title;
+		final long when;
+
+		Added(long mvid, String title, long when) {
+			this.mvid = mvid;
+			this.title = title;
+			this.when = when;
+		}
+	}
+
+	/*
+	 * An immutable index of every title at one point in time.
+	 */
+	private static final class Snapshot {
+		final long built;
+		final long[] mvids;
+		final String[] titles;
+		// sorted, and for each word the titles with it, ascending
+		final String[] words;
+		final int[][] titlesOfWord;
+		// the words of title t are titleWords[titleStart[t]] up to titleStart[t + 1]
+		final int[] titleStart;
+		final int[] titleWords;
+		// trigram to the words with it, and each word's trigram count
+		final Map<Long, int[]> wordsOfGram;
+		final int[] gramCount;
+
+		Snapshot(long built, long[] mvids, String[] titles, String[] words, int[][] titlesOfWord,
+				int[] titleStart, int[] titleWords, Map<Long, int[]> wordsOfGram, int[] gramCount) {
+			this.built = built;
+			this.mvids = mvids;
+			this.titles = titles;
+			this.words = words;
+			this.titlesOfWord = titlesOfWord;
+			this.titleStart = titleStart;
+			this.titleWords = titleWords;
+			this.wordsOfGram = wordsOfGram;
+			this.gramCount = gramCount;
+		}
+	}
+
+	public TitleIndex(Ticketmaster esql) {
+		this.esql = esql;
+		this.refreshNanos = Long.getLong("ticketmaster.titleIndex.refreshSeconds", 600L) * 1000000000L;
+	}
+
+	/*
+	 * Lower case words of letters and digits.
+	 */
+	static List<String> words(String text) {
+		List<String> words = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); ++i) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && start < 0) {
+				start = i;
+			} else if (!inWord && start >= 0) {
+				words.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	/*
+	 * The distinct trigrams of "  word ", three chars packed in a long.
+	 */
+	static long[] grams(String word) {
+		String padded = "  " + word + " ";
+		long[] grams = new long[padded.length() - 2];
+		for (int i = 0; i < grams.length; ++i) {
+			grams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+		}
+		Arrays.sort(grams);
+		int n = 0;
+		for (int i = 0; i < grams.length; ++i) {
+			if (i == 0 || grams[i] != grams[i - 1]) {
+				grams[n++] = grams[i];
+			}
+		}
+		return Arrays.copyOf(grams, n);
+	}
+
+	/*
+	 * Collects titles in mvid order and turns them into a Snapshot.
+	 */
+	private static final class Builder {
+		final List<Long> mvids = new ArrayList<Long>();
+		final List<String> titles = new ArrayList<String>();
+		final TreeMap<String, List<Integer>> postings = new TreeMap<String, List<Integer>>();
+
+		void add(long mvid, String title) {
+			int id = titles.size();
+			mvids.add(mvid);
+			titles.add(title);
+			for (String word : words(title)) {
+				List<Integer> posting = postings.computeIfAbsent(word, w -> new ArrayList<Integer>(2));
+				if (posting.isEmpty() || posting.get(posting.size() - 1) != id) {
+					posting.add(id);
+				}
+			}
+		}
+
+		Snapshot finish(long built) {
+			String[] words = postings.keySet().toArray(new String[0]);
+			int[][] titlesOfWord = new int[words.length][];
+			int[] gramCount = new int[words.length];
+			Map<Long, List<Integer>> gramPostings = new HashMap<Long, List<Integer>>();
+			for (int w = 0; w < words.length; ++w) {
+				List<Integer> posting = postings.get(words[w]);
+				titlesOfWord[w] = new int[posting.size()];
+				for (int i = 0; i < posting.size(); ++i) {
+					titlesOfWord[w][i] = posting.get(i);
+				}
+				long[] grams = grams(words[w]);
+				gramCount[w] = grams.length;
+				for (long gram : grams) {
+					gramPostings.computeIfAbsent(gram, g -> new ArrayList<Integer>(4)).add(w);
+				}
+			}
+			Map<Long, int[]> wordsOfGram = new HashMap<Long, int[]>(gramPostings.size() * 2);
+			for (Map.Entry<Long, List<Integer>> entry : gramPostings.entrySet()) {
+				int[] ids = new int[entry.getValue().size()];
+				for (int i = 0; i < ids.length; ++i) {
+					ids[i] = entry.getValue().get(i);
+				}
+				wordsOfGram.put(entry.getKey(), ids);
+			}
+			int[] titleStart = new int[titles.size() + 1];
+			for (int[] posting : titlesOfWord) {
+				for (int title : posting) {
+					++titleStart[title + 1];
+				}
+			}
+			for (int t = 0; t < titles.size(); ++t) {
+				titleStart[t + 1] += titleStart[t];
+			}
+			int[] titleWords = new int[titleStart[titles.size()]];
+			int[] filled = Arrays.copyOf(titleStart, titles.size());
+			for (int w = 0; w < words.length; ++w) {
+				for (int title : titlesOfWord[w]) {
+					titleWords[filled[title]++] = w;
+				}
+			}
+			long[] mvidArray = new long[mvids.size()];
+			for (int i = 0; i < mvidArray.length; ++i) {
+				mvidArray[i] = mvids.get(i);
+			}
+			return new Snapshot(built, mvidArray, titles.toArray(new String[0]), words, titlesOfWord,
+				titleStart, titleWords, wordsOfGram, gramCount);
+		}
+	}
+
+	private Snapshot build() throws SQLException {
+		long start = System.nanoTime();
+		final Builder builder = new Builder();
+		esql.executeQueryForEach("SELECT mvid, title FROM Movies ORDER BY mvid;", new Ticketmaster.RowHandler() {
+			public void handle(ResultSet rs) throws SQLException {
+				builder.add(rs.getLong(1), rs.getString(2));
+			}
+		});
+		return builder.finish(start);
+	}
+
+	/*
+	 * Returns the current index, building it on first use and starting a
+	 * rebuild in the background when it is too old.
+	 */
+	private Snapshot current() throws SQLException {
+		Snapshot s = snapshot;
+		if (s == null) {
+			synchronized (this) {
+				if (snapshot == null) {
+					install(build());
+				}
+				return snapshot;
+			}
+		}
+		if (System.nanoTime() - s.built > refreshNanos) {
+			synchronized (this) {
+				if (!rebuilding) {
+					rebuilding = true;
+					Thread t = new Thread(this::rebuild, "title-index");
+					t.setDaemon(true);
+					t.start();
+				}
+			}
+		}
+		return s;
+	}
+
+	private void rebuild() {
+		try {
+			install(build());
+		} catch (SQLException e) {
+			System.err.println("Title index rebuild failed: " + e.getMessage());
+		} finally {
+			synchronized (this) {
+				rebuilding = false;
+			}
+		}
+	}
+
+	private void install(Snapshot s) {
+		snapshot = s;
+		// movies added before the build started are in it now
+		for (Added movie : added) {
+			if (movie.when < s.built) {
+				added.remove(movie);
+			}
+		}
+	}
+
+	/**
+	 * Method to add a movie this process just inserted, so it can be found
+	 * before the next rebuild.
+	 */
+	public void add(long mvid, String title) {
+		added.add(new Added(mvid, title, System.nanoTime()));
+	}
+
+	/**
+	 * Method to forget the index; the next lookup builds it again.
+	 */
+	public synchronized void invalidate() {
+		snapshot = null;
+	}
+
+	/*
+	 * What one word of a query matches in the vocabulary: the same word,
+	 * the words it starts (for the last word of the query only), and the
+	 * words whose trigram similarity with it is high enough.
+	 */
+	private static final class Term {
+		final String text;
+		final boolean prefix;
+		final int exact;
+		// the range of words starting with text, when prefix
+		final int prefixFrom;
+		final int prefixTo;
+		// the close words, ascending, and their similarity
+		final int[] similar;
+		final double[] similarity;
+		private List<Integer> matches = null;
+
+		Term(Snapshot s, String text, boolean prefix) {
+			this.text = text;
+			this.prefix = prefix;
+			int at = Arrays.binarySearch(s.words, text);
+			this.exact = at;
+			int from = at >= 0 ? at : -at - 1;
+			int to = from;
+			while (prefix && to < s.words.length && s.words[to].startsWith(text)) {
+				++to;
+			}
+			this.prefixFrom = from;
+			this.prefixTo = to;
+
+			long[] grams = grams(text);
+			Map<Integer, Integer> shared = new HashMap<Integer, Integer>();
+			for (long gram : grams) {
+				int[] ids = s.wordsOfGram.get(gram);
+				if (ids != null) {
+					for (int w : ids) {
+						shared.merge(w, 1, Integer::sum);
+					}
+				}
+			}
+			int[] close = new int[shared.size()];
+			int n = 0;
+			for (Map.Entry<Integer, Integer> entry : shared.entrySet()) {
+				int common = entry.getValue();
+				if (common / (double) (grams.length + s.gramCount[entry.getKey()] - common) >= FUZZY_THRESHOLD) {
+					close[n++] = entry.getKey();
+				}
+			}
+			this.similar = Arrays.copyOf(close, n);
+			Arrays.sort(this.similar);
+			this.similarity = new double[n];
+			for (int i = 0; i < n; ++i) {
+				int common = shared.get(similar[i]);
+				similarity[i] = common / (double) (grams.length + s.gramCount[similar[i]] - common);
+			}
+		}
+
+		/*
+		 * How well a vocabulary word matches: 1 when equal, 0.9 when it
+		 * starts with the term, 0.8 times the similarity when close, else 0.
+		 */
+		double score(int word) {
+			if (word == exact) {
+				return 1;
+			}
+			if (word >= prefixFrom && word < prefixTo) {
+				return 0.9;
+			}
+			int i = Arrays.binarySearch(similar, word);
+			return i < 0 ? 0 : 0.8 * similarity[i];
+		}
+
+		/*
+		 * The matching words, best first: the word itself, its shortest
+		 * completions, then the closest words.
+		 */
+		List<Integer> matches(Snapshot s) {
+			if (matches != null) {
+				return matches;
+			}
+			List<Integer> words = new ArrayList<Integer>();
+			if (exact >= 0) {
+				words.add(exact);
+			}
+			List<Integer> completions = new ArrayList<Integer>();
+			for (int w = prefixFrom; w < prefixTo; ++w) {
+				if (w != exact) {
+					completions.add(w);
+				}
+			}
+			completions.sort((a, b) -> Integer.compare(s.words[a].length(), s.words[b].length()));
+			words.addAll(completions);
+			List<Integer> close = new ArrayList<Integer>();
+			for (int i = 0; i < similar.length; ++i) {
+				if (similar[i] != exact && !(similar[i] >= prefixFrom && similar[i] < prefixTo)) {
+					close.add(i);
+				}
+			}
+			close.sort((a, b) -> Double.compare(similarity[b], similarity[a]));
+			for (int i : close) {
+				words.add(similar[i]);
+			}
+			matches = words;
+			return words;
+		}
+
+		long postings(Snapshot s) {
+			long total = 0;
+			for (int w : matches(s)) {
+				total += s.titlesOfWord[w].length;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Method to suggest titles for what has been typed so far.
+	 *
+	 * The titles of the query word with the fewest are the candidates (at
+	 * most MAX_CANDIDATES of them, the best matches first), and a candidate
+	 * is kept when each query word matches one of its words.
+	 *
+	 * @param query the words typed, the last one possibly unfinished
+	 * @param limit the most suggestions to return
+	 * @return the best matches first
+	 */
+	public List<Match> suggest(String query, int limit) throws SQLException {
+		List<String> texts = words(query);
+		if (texts.isEmpty() || limit <= 0) {
+			return Collections.emptyList();
+		}
+		Snapshot s = current();
+		List<Term> terms = new ArrayList<Term>();
+		Term seed = null;
+		long seedPostings = Long.MAX_VALUE;
+		for (int t = 0; t < texts.size(); ++t) {
+			Term term = new Term(s, texts.get(t), t == texts.size() - 1);
+			terms.add(term);
+			long postings = term.postings(s);
+			if (postings < seedPostings) {
+				seed = term;
+				seedPostings = postings;
+			}
+		}
+
+		// the worst of the best limit matches on top
+		PriorityQueue<Match> best = new PriorityQueue<Match>(limit + 1, Collections.reverseOrder());
+		BitSet seen = new BitSet(s.titles.length);
+		String lowered = query.trim().toLowerCase();
+		int candidates = 0;
+		for (int w : seed.matches(s)) {
+			for (int title : s.titlesOfWord[w]) {
+				if (candidates >= MAX_CANDIDATES) {
+					break;
+				}
+				if (seen.get(title)) {
+					continue;
+				}
+				seen.set(title);
+				++candidates;
+				double total = 0;
+				for (Term term : terms) {
+					double termScore = 0;
+					for (int i = s.titleStart[title]; i < s.titleStart[title + 1]; ++i) {
+						termScore = Math.max(termScore, term.score(s.titleWords[i]));
+					}
+					if (termScore == 0) {
+						total = -1;
+						break;
+					}
+					total += termScore;
+				}
+				if (total < 0) {
+					continue;
+				}
+				double score = total / terms.size();
+				if (s.titles[title].regionMatches(true, 0, lowered, 0, lowered.length())) {
+					score += 0.5;
+				}
+				offer(best, limit, new Match(s.mvids[title], s.titles[title], score));
+			}
+		}
+		for (Added movie : added) {
+			String title = movie.title.toLowerCase();
+			// a rebuild running when the movie was added may have it already
+			if (title.contains(lowered) && Arrays.binarySearch(s.mvids, movie.mvid) < 0) {
+				offer(best, limit, new Match(movie.mvid, movie.title, title.startsWith(lowered) ? 1.5 : 1.0));
+			}
+		}
+		List<Match> matches = new ArrayList<Match>(best);
+		Collections.sort(matches);
+		return matches;
+	}
+
+	private static void offer(PriorityQueue<Match> best, int limit, Match match) {
+		if (best.size() < limit) {
+			best.add(match);
+		} else if (match.compareTo(best.peek()) < 0) {
+			best.poll();
+			best.add(match);
+		}
+	}
+
+	/**
+	 * Method to report the size of the index.
+	 *
+	 * @return titles, words, trigrams and age, one per line
+	 */
+	public String getStats() {
+		Snapshot s = snapshot;
+		StringBuilder sb = new StringBuilder();
+		sb.append("titleindex.titles\t").append(s == null ? 0 : s.titles.length).append('\n');
+		sb.append("titleindex.words\t").append(s == null ? 0 : s.words.length).append('\n');
+		sb.append("titleindex.trigrams\t").append(s == null ? 0 : s.wordsOfGram.size()).append('\n');
+		sb.append("titleindex.added\t").append(added.size()).append('\n');
+		sb.append("titleindex.age.seconds\t").append(s == null ? -1 : (System.nanoTime() - s.built) / 1000000000L).append('\n');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class holds a query result column by column.  Integer columns are
+ * read with getLong into a long[], floating point columns with getDouble
+ * into a double[], and only the remaining columns are kept as strings, so
+ * reading IDs and prices allocates no per-row objects.  Floating point
+ * values read as strings the way PostgreSQL writes them (10, 12.3, 1e+20),
+ * REAL columns with float precision, so printing a result looks the same
+ * as printing the query's text.
+ *
+ * Rows and columns are numbered from 0, the same as the lists returned by
+ * executeQueryAndReturnResult.
+ *
+ */
+
+public class TypedResult {
+	public static final int LONG = 0;
+	public static final int DOUBLE = 1;
+	public static final int STRING = 2;
+
+	private final String[] names;
+	private final int[] kinds;
+	private final long[][] longs;
+	private final double[][] doubles;
+	// REAL (float4) columns, printed with float precision
+	private final boolean[] reals;
+	private final String[][] strings;
+	private final BitSet[] nulls;
+	private int capacity;
+	private int size = 0;
+
+	/**
+	 * Creates an empty result shaped after the columns of a query.
+	 *
+	 * @param rsmd the metadata of the result set that will be added
+	 * @throws java.sql.SQLException when the metadata cannot be read
+	 */
+	public TypedResult(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		this.names = new String[numCol];
+		this.kinds = new int[numCol];
+		this.longs = new long[numCol][];
+		this.doubles = new double[numCol][];
+		this.reals = new boolean[numCol];
+		this.strings = new String[numCol][];
+		this.nulls = new BitSet[numCol];
+		this.capacity = 16;
+		for (int i = 0; i < numCol; ++i) {
+			names[i] = rsmd.getColumnLabel(i + 1);
+			kinds[i] = kindOf(rsmd, i + 1);
+			reals[i] = rsmd.getColumnType(i + 1) == Types.REAL;
+			nulls[i] = new BitSet();
+			switch (kinds[i]) {
+				case LONG: longs[i] = new long[capacity]; break;
+				case DOUBLE: doubles[i] = new double[capacity]; break;
+				default: strings[i] = new String[capacity]; break;
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty result with the given columns, for rows that are not
+	 * read from the database.
+	 *
+	 * @param names the column labels
+	 * @param kinds LONG, DOUBLE or STRING per column
+	 */
+	public TypedResult(String[] names, int[] kinds) {
+		this.names = names.clone();
+		this.kinds = kinds.clone();
+		this.longs = new long[kinds.length][];
+		this.doubles = new double[kinds.length][];
+		this.reals = new boolean[kinds.length];
+		this.strings = new String[kinds.length][];
+		this.nulls = new BitSet[kinds.length];
+		this.capacity = 16;
+		for (int i = 0; i < kinds.length; ++i) {
+			nulls[i] = new BitSet();
+			switch (kinds[i]) {
+				case LONG: longs[i] = new long[capacity]; break;
+				case DOUBLE: doubles[i] = new double[capacity]; break;
+				default: strings[i] = new String[capacity]; break;
+			}
+		}
+	}
+
+	private static int kindOf(ResultSetMetaData rsmd, int col) throws SQLException {
+		switch (rsmd.getColumnType(col)) {
+			case Types.BIGINT:
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.TINYINT:
+				return LONG;
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return DOUBLE;
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				// e.g. NUMERIC(10, 0) phone numbers fit a long, aggregates of unknown scale do not
+				int precision = rsmd.getPrecision(col);
+				return rsmd.getScale(col) == 0 && precision > 0 && precision <= 18 ? LONG : DOUBLE;
+			default:
+				return STRING;
+		}
+	}
+
+	/**
+	 * Method to append the row the result set is positioned on.
+	 *
+	 * @param rs a result set with the same columns this result was created for
+	 * @throws java.sql.SQLException when a column cannot be read
+	 */
+	public void add(ResultSet rs) throws SQLException {
+		if (size == capacity) {
+			grow();
+		}
+		for (int i = 0; i < kinds.length; ++i) {
+			switch (kinds[i]) {
+				case LONG:
+					longs[i][size] = rs.getLong(i + 1);
+					break;
+				case DOUBLE:
+					doubles[i][size] = rs.getDouble(i + 1);
+					break;
+				default:
+					strings[i][size] = rs.getString(i + 1);
+					break;
+			}
+			if (rs.wasNull()) {
+				nulls[i].set(size);
+			}
+		}
+		++size;
+	}
+
+	/**
+	 * Method to append a row of values.  A null is SQL NULL; otherwise
+	 * LONG and DOUBLE columns take a Number and STRING columns any object,
+	 * as its toString().
+	 *
+	 * @param values one value per column
+	 */
+	public void addRow(Object... values) {
+		if (values.length != kinds.length) {
+			throw new IllegalArgumentException(values.length + " values for " + kinds.length + " columns");
+		}
+		if (size == capacity) {
+			grow();
+		}
+		for (int i = 0; i < kinds.length; ++i) {
+			if (values[i] == null) {
+				nulls[i].set(size);
+				continue;
+			}
+			switch (kinds[i]) {
+				case LONG:
+					longs[i][size] = ((Number) values[i]).longValue();
+					break;
+				case DOUBLE:
+					doubles[i][size] = ((Number) values[i]).doubleValue();
+					break;
+				default:
+					strings[i][size] = values[i].toString();
+					break;
+			}
+		}
+		++size;
+	}
+
+	private void grow() {
+		capacity *= 2;
+		for (int i = 0; i < kinds.length; ++i) {
+			switch (kinds[i]) {
+				case LONG: longs[i] = Arrays.copyOf(longs[i], capacity); break;
+				case DOUBLE: doubles[i] = Arrays.copyOf(doubles[i], capacity); break;
+				default: strings[i] = Arrays.copyOf(strings[i], capacity); break;
+			}
+		}
+	}
+
+	public int size() { return size; }
+	public int getColumnCount() { return kinds.length; }
+	public String getColumnName(int col) { return names[col]; }
+	public int getColumnKind(int col) { return kinds[col]; }
+
+	public boolean isNull(int row, int col) {
+		checkRow(row);
+		return nulls[col].get(row);
+	}
+
+	/**
+	 * Method to read a value as a long.  SQL NULL reads as 0.
+	 */
+	public long getLong(int row, int col) {
+		checkRow(row);
+		switch (kinds[col]) {
+			case LONG: return longs[col][row];
+			case DOUBLE: return (long) doubles[col][row];
+			default: return nulls[col].get(row) ? 0 : Long.parseLong(strings[col][row]);
+		}
+	}
+
+	public int getInt(int row, int col) {
+		return (int) getLong(row, col);
+	}
+
+	/**
+	 * Method to read a value as a double.  SQL NULL reads as 0.
+	 */
+	public double getDouble(int row, int col) {
+		checkRow(row);
+		switch (kinds[col]) {
+			case LONG: return longs[col][row];
+			case DOUBLE: return doubles[col][row];
+			default: return nulls[col].get(row) ? 0 : Double.parseDouble(strings[col][row]);
+		}
+	}
+
+	/**
+	 * Method to read a value as a string.  SQL NULL reads as null.
+	 */
+	public String getString(int row, int col) {
+		checkRow(row);
+		if (nulls[col].get(row)) {
+			return null;
+		}
+		switch (kinds[col]) {
+			case LONG: return Long.toString(longs[col][row]);
+			case DOUBLE: return formatDouble(doubles[col][row], reals[col]);
+			default: return strings[col][row];
+		}
+	}
+
+	/*
+	 * The shortest text that reads back as the value, written the way
+	 * PostgreSQL does: no ".0" on whole numbers, and "e+20" for "E20".
+	 */
+	static String formatDouble(double value, boolean real) {
+		String text = real ? Float.toString((float) value) : Double.toString(value);
+		int e = text.indexOf('E');
+		String mantissa = e < 0 ? text : text.substring(0, e);
+		if (mantissa.endsWith(".0")) {
+			mantissa = mantissa.substring(0, mantissa.length() - 2);
+		}
+		if (e < 0) {
+			return mantissa;
+		}
+		String exponent = text.substring(e + 1);
+		boolean negative = exponent.startsWith("-");
+		String digits = negative ? exponent.substring(1) : exponent;
+		return mantissa + (negative ? "e-" : "e+") + (digits.length() < 2 ? "0" : "") + digits;
+	}
+
+	/**
+	 * Method to get the backing array of an integer column.  Only the first
+	 * size() entries are valid.
+	 */
+	public long[] getLongColumn(int col) {
+		if (kinds[col] != LONG) {
+			throw new IllegalArgumentException("Column " + names[col] + " is not an integer column");
+		}
+		return longs[col];
+	}
+
+	/**
+	 * Method to print the result the same way executeQueryAndPrintResult
+	 * does, in the format set by ticketmaster.render.format.
+	 *
+	 * @param out where the rows are printed
+	 */
+	public void print(PrintStream out) {
+		ResultRenderer.toStream(out).write(this);
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+	}
+}
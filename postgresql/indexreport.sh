@@ -0,0 +1,44 @@
+#!/bin/bash
+folder=/tmp/$(logname)/mydb
+PGDATA=$folder/data
+PGSOCKETS=$folder/sockets
+export PGDATA
+export PGSOCKETS
+
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_idx
+factor=${1:-100}
+out=$folder/indexreport
+mkdir -p $out
+
+# Example: ./indexreport.sh 100
+echo "creating scratch db named ... $dbname"
+dropdb -h localhost --if-exists $dbname
+createdb -h localhost $dbname
+cp $root/data/*.csv $PGDATA/
+
+echo "Loading and scaling data ${factor}x .. "
+psql -q -h localhost $dbname < $root/sql/create.sql > /dev/null
+psql -q -h localhost -v factor=$factor $dbname < $root/sql/scale.sql
+
+echo "Plans without secondary indexes .. "
+grep -E '^CREATE INDEX' $root/sql/create.sql | sed -E 's/^CREATE INDEX ([a-z_]+) .*/DROP INDEX \1;/' | psql -q -h localhost $dbname
+psql -q -h localhost -c 'ANALYZE' $dbname
+psql -h localhost $dbname < $root/sql/hotpaths.sql > $out/before.txt 2>&1
+
+echo "Plans with secondary indexes .. "
+grep -E '^CREATE INDEX' $root/sql/create.sql | psql -q -h localhost $dbname
+psql -q -h localhost -c 'ANALYZE' $dbname
+psql -h localhost $dbname < $root/sql/hotpaths.sql > $out/after.txt 2>&1
+
+# one line per statement: name, execution time before, execution time after
+summarize() {
+	awk '/^== /{name=substr($0, 4)} /Execution Time/{print name "\t" $3}' $1
+}
+echo
+printf "%-55s %12s %12s\n" "statement" "before (ms)" "after (ms)"
+paste <(summarize $out/before.txt) <(summarize $out/after.txt | cut -f2) | \
+	awk -F'\t' '{printf "%-55s %12s %12s\n", $1, $2, $3}'
+echo
+echo "Full plans: $out/before.txt $out/after.txt"
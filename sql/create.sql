@@ -1,3 +1,4 @@
+DROP TABLE IF EXISTS show_schedule;
 DROP TABLE IF EXISTS Plays;
 DROP TABLE IF EXISTS ShowSeats;
 DROP TABLE IF EXISTS Payments;
@@ -10,6 +11,10 @@ DROP TABLE IF EXISTS Theaters;
 DROP TABLE IF EXISTS Cinemas;
 DROP TABLE IF EXISTS Cities;
 
+-- Trigram matching for the title search (op 11): similarity operators and
+-- the GIN operator class that indexes ILIKE '%...%' and word similarity
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
 -- Entities
 
 CREATE TABLE Cities (
@@ -128,6 +133,152 @@ CREATE TABLE Plays (
 );
 
 
+-- Denormalized show schedule
+-- One row per show and theater playing it, with the movie, theater and
+-- cinema, so the schedule listings (ops 9, 10, 13) read one table. Statement
+-- triggers on Plays, Shows, Movies, Theaters and Cinemas keep it current
+-- inside the writing transaction; a bulk COPY into Plays is one INSERT here.
+-- A rename racing with a new Plays row can leave that row's name stale, so
+-- check_show_schedule() lists the differences and rebuild_show_schedule()
+-- refills the table from the base tables.
+
+CREATE TABLE show_schedule (
+    sid BIGINT NOT NULL,  -- Show ID
+    mvid BIGINT NOT NULL,  -- Movie ID
+    title VARCHAR(128) NOT NULL,
+    duration INTEGER,
+    sdate DATE NOT NULL,
+    sttime TIME NOT NULL,
+    edtime TIME NOT NULL,
+    tid BIGINT NOT NULL,  -- Theater ID
+    tname VARCHAR(64) NOT NULL,
+    cid BIGINT NOT NULL,  -- Cinema ID
+    cname VARCHAR(64) NOT NULL
+);
+
+CREATE OR REPLACE FUNCTION show_schedule_plays() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        DELETE FROM show_schedule X USING old_rows O WHERE X.sid = O.sid AND X.tid = O.tid;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO show_schedule (sid, mvid, title, duration, sdate, sttime, edtime, tid, tname, cid, cname)
+        SELECT S.sid, S.mvid, M.title, M.duration, S.sdate, S.sttime, S.edtime, T.tid, T.tname, C.cid, C.cname
+        FROM new_rows P, Shows S, Movies M, Theaters T, Cinemas C
+        WHERE S.sid = P.sid AND M.mvid = S.mvid AND T.tid = P.tid AND C.cid = T.cid;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION show_schedule_shows() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        DELETE FROM show_schedule X USING old_rows O WHERE X.sid = O.sid;
+    ELSE
+        UPDATE show_schedule X
+        SET mvid = S.mvid, title = M.title, duration = M.duration, sdate = S.sdate, sttime = S.sttime, edtime = S.edtime
+        FROM new_rows S, Movies M
+        WHERE X.sid = S.sid AND M.mvid = S.mvid
+        AND (X.mvid, X.sdate, X.sttime, X.edtime) IS DISTINCT FROM (S.mvid, S.sdate, S.sttime, S.edtime);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION show_schedule_movies() RETURNS trigger AS $$
+BEGIN
+    UPDATE show_schedule X SET title = M.title, duration = M.duration
+    FROM new_rows M
+    WHERE X.mvid = M.mvid AND (X.title, X.duration) IS DISTINCT FROM (M.title, M.duration);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION show_schedule_theaters() RETURNS trigger AS $$
+BEGIN
+    UPDATE show_schedule X SET tname = T.tname, cid = C.cid, cname = C.cname
+    FROM new_rows T, Cinemas C
+    WHERE X.tid = T.tid AND C.cid = T.cid AND (X.tname, X.cid) IS DISTINCT FROM (T.tname, T.cid);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION show_schedule_cinemas() RETURNS trigger AS $$
+BEGIN
+    UPDATE show_schedule X SET cname = C.cname
+    FROM new_rows C
+    WHERE X.cid = C.cid AND X.cname <> C.cname;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Transition tables need one trigger per event. Inserts into Shows, Movies,
+-- Theaters and Cinemas need nothing: no Plays row can reference them yet.
+CREATE TRIGGER plays_schedule_insert AFTER INSERT ON Plays
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE show_schedule_plays();
+CREATE TRIGGER plays_schedule_update AFTER UPDATE ON Plays
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE show_schedule_plays();
+CREATE TRIGGER plays_schedule_delete AFTER DELETE ON Plays
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE show_schedule_plays();
+CREATE TRIGGER shows_schedule_update AFTER UPDATE ON Shows
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE show_schedule_shows();
+CREATE TRIGGER shows_schedule_delete AFTER DELETE ON Shows
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE show_schedule_shows();
+CREATE TRIGGER movies_schedule_update AFTER UPDATE ON Movies
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE show_schedule_movies();
+CREATE TRIGGER theaters_schedule_update AFTER UPDATE ON Theaters
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE show_schedule_theaters();
+CREATE TRIGGER cinemas_schedule_update AFTER UPDATE ON Cinemas
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE show_schedule_cinemas();
+
+-- Refills show_schedule from the base tables and returns its row count.
+-- Writers of the base tables wait until it commits; readers do not.
+CREATE OR REPLACE FUNCTION rebuild_show_schedule() RETURNS bigint AS $$
+DECLARE
+    n bigint;
+BEGIN
+    LOCK TABLE Plays, Shows, Movies, Theaters, Cinemas IN SHARE MODE;
+    DELETE FROM show_schedule;
+    INSERT INTO show_schedule (sid, mvid, title, duration, sdate, sttime, edtime, tid, tname, cid, cname)
+    SELECT S.sid, S.mvid, M.title, M.duration, S.sdate, S.sttime, S.edtime, T.tid, T.tname, C.cid, C.cname
+    FROM Plays P, Shows S, Movies M, Theaters T, Cinemas C
+    WHERE S.sid = P.sid AND M.mvid = S.mvid AND T.tid = P.tid AND C.cid = T.cid;
+    GET DIAGNOSTICS n = ROW_COUNT;
+    RETURN n;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Lists the rows of show_schedule that are missing, extra or differ from
+-- the base tables; none when it is consistent.
+CREATE OR REPLACE FUNCTION check_show_schedule() RETURNS TABLE (problem text, show_id bigint, theater_id bigint) AS $$
+    WITH expected AS (
+        SELECT S.sid, S.mvid, M.title, M.duration, S.sdate, S.sttime, S.edtime, T.tid, T.tname, C.cid, C.cname
+        FROM Plays P, Shows S, Movies M, Theaters T, Cinemas C
+        WHERE S.sid = P.sid AND M.mvid = S.mvid AND T.tid = P.tid AND C.cid = T.cid
+    )
+    SELECT CASE WHEN X.sid IS NULL THEN 'missing' WHEN E.sid IS NULL THEN 'extra' ELSE 'different' END,
+           coalesce(E.sid, X.sid), coalesce(E.tid, X.tid)
+    FROM expected E FULL JOIN show_schedule X ON X.sid = E.sid AND X.tid = E.tid
+    WHERE X.sid IS NULL OR E.sid IS NULL
+    OR (E.mvid, E.title, E.duration, E.sdate, E.sttime, E.edtime, E.tname, E.cid, E.cname)
+       IS DISTINCT FROM (X.mvid, X.title, X.duration, X.sdate, X.sttime, X.edtime, X.tname, X.cid, X.cname)
+    ORDER BY 2, 3;
+$$ LANGUAGE sql STABLE;
+
+
+-- Key sequences
+-- Each nextval reserves a block of 50 keys that the application hands out
+-- from memory (IdAllocator.java), so INCREMENT BY must match ID_BLOCK_SIZE
+-- in Ticketmaster.java. Dropping a table drops its sequence.
+
+CREATE SEQUENCE bookings_bid_seq INCREMENT BY 50 OWNED BY Bookings.bid;
+CREATE SEQUENCE movies_mvid_seq INCREMENT BY 50 OWNED BY Movies.mvid;
+CREATE SEQUENCE shows_sid_seq INCREMENT BY 50 OWNED BY Shows.sid;
+CREATE SEQUENCE payments_pid_seq INCREMENT BY 50 OWNED BY Payments.pid;
+CREATE SEQUENCE showseats_ssid_seq INCREMENT BY 50 OWNED BY ShowSeats.ssid;
+
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -239,3 +390,58 @@ COPY Plays (
 )
 FROM 'Plays.csv'
 WITH DELIMITER ',';
+
+
+-----------------------
+-- SECONDARY INDEXES --
+-----------------------
+-- Created after the data is loaded so COPY does not maintain them row by row.
+-- Keep each CREATE INDEX on one line: postgresql/indexreport.sh greps them.
+
+-- Bookings: pending/cancelled sweeps (ops 4, 7, 12) and a user's bookings (op 14)
+CREATE INDEX bookings_pending_idx ON Bookings (bdatetime, email) WHERE status = 'Pending';
+CREATE INDEX bookings_cancelled_idx ON Bookings (bid) WHERE status = 'Cancelled';
+CREATE INDEX bookings_email_bid_idx ON Bookings (email, bid);
+CREATE INDEX bookings_sid_idx ON Bookings (sid);
+
+-- Shows: by start date and time (ops 8, 10) and by movie (ops 2, 13)
+CREATE INDEX shows_sdate_sttime_idx ON Shows (sdate, sttime, mvid);
+CREATE INDEX shows_mvid_sdate_idx ON Shows (mvid, sdate, sttime);
+
+-- ShowSeats: seats of a booking (ops 5, 7, 14) and free seats of a show (ops 2, 5)
+CREATE INDEX showseats_bid_idx ON ShowSeats (bid) WHERE bid IS NOT NULL;
+CREATE INDEX showseats_free_idx ON ShowSeats (sid, csid, ssid, price) WHERE bid IS NULL;
+
+-- Join paths from a theater or cinema to its seats and shows
+CREATE INDEX cinemaseats_tid_sno_idx ON CinemaSeats (tid, sno, csid);
+CREATE INDEX plays_tid_idx ON Plays (tid, sid);
+CREATE INDEX theaters_cid_idx ON Theaters (cid, tid);
+
+-- Show schedule: theaters of a show (op 9), shows by start (op 10), and a
+-- movie's shows by date (op 13); the unique key is Plays' primary key
+ALTER TABLE show_schedule ADD PRIMARY KEY (sid, tid);
+CREATE INDEX show_schedule_sdate_sttime_idx ON show_schedule (sdate, sttime, sid);
+CREATE INDEX show_schedule_mvid_sdate_idx ON show_schedule (mvid, sdate, sttime);
+
+-- Lookups by name (ops 2, 13)
+CREATE INDEX movies_title_idx ON Movies (title, mvid);
+CREATE INDEX cinemas_cname_idx ON Cinemas (cname, cid);
+
+-- Title search (op 11): trigrams for substrings and misspellings, full text
+-- over title and description for words. The expression has to stay the same
+-- as the one in Operations.searchMovieTitles.
+CREATE INDEX movies_title_trgm_idx ON Movies USING gin (title gin_trgm_ops);
+CREATE INDEX movies_search_idx ON Movies USING gin ((setweight(to_tsvector('english', title), 'A') || setweight(to_tsvector('english', coalesce(description, '')), 'B')));
+
+ANALYZE;
+
+
+---------------------------
+-- SEQUENCE START VALUES --
+---------------------------
+
+SELECT setval('bookings_bid_seq', COALESCE(max(bid), 0) + 1, false) FROM Bookings;
+SELECT setval('movies_mvid_seq', COALESCE(max(mvid), 0) + 1, false) FROM Movies;
+SELECT setval('shows_sid_seq', COALESCE(max(sid), 0) + 1, false) FROM Shows;
+SELECT setval('payments_pid_seq', COALESCE(max(pid), 0) + 1, false) FROM Payments;
+SELECT setval('showseats_ssid_seq', COALESCE(max(ssid), 0) + 1, false) FROM ShowSeats;
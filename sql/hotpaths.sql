@@ -0,0 +1,71 @@
+-- EXPLAIN (ANALYZE, BUFFERS) of the statements behind the menu operations.
+-- Used by postgresql/indexreport.sh to compare plans with and without the
+-- secondary indexes in create.sql. Statements that modify data run inside a
+-- transaction that is rolled back.
+
+\pset pager off
+
+-- representative parameters taken from the loaded data
+SELECT sid AS show_id, mvid AS movie_id, sdate AS show_date, sttime AS show_time FROM Shows ORDER BY sid LIMIT 1 \gset
+SELECT title AS movie_title FROM Movies WHERE mvid = :movie_id \gset
+SELECT tid AS theater_id FROM Plays WHERE sid = :show_id LIMIT 1 \gset
+SELECT T.cid AS cinema_id, C.cname AS cinema_name FROM Theaters T, Cinemas C WHERE T.cid = C.cid AND T.tid = :theater_id \gset
+SELECT array_agg(tid) AS cinema_tids FROM Theaters WHERE cid = :cinema_id \gset
+SELECT email AS user_email FROM Bookings GROUP BY email ORDER BY count(*) DESC LIMIT 1 \gset
+SELECT bid AS booking_id FROM ShowSeats WHERE bid IS NOT NULL LIMIT 1 \gset
+
+\echo '== op 2: movie by title'
+EXPLAIN (ANALYZE, BUFFERS) SELECT mvid FROM Movies WHERE title = :'movie_title';
+
+\echo '== op 2: shows of a movie'
+EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM Shows WHERE mvid = :movie_id;
+
+\echo '== op 2: show at a date and time'
+EXPLAIN (ANALYZE, BUFFERS) SELECT sid FROM Shows WHERE mvid = :movie_id AND sdate = :'show_date' AND sttime = :'show_time';
+
+\echo '== op 2: seats of a show in a theater'
+EXPLAIN (ANALYZE, BUFFERS) SELECT SS.sid, SS.ssid, SS.price, SS.csid, CS.tid, T.tname, C.cname FROM Showseats SS, Cinemaseats CS, Theaters T, Cinemas C WHERE SS.sid = :show_id AND SS.csid = CS.csid AND CS.tid = T.tid AND C.cid = T.cid AND T.tid = :theater_id;
+
+\echo '== op 2: claim free seats'
+BEGIN;
+EXPLAIN (ANALYZE, BUFFERS) UPDATE Showseats SS SET bid = :booking_id FROM Cinemaseats CS WHERE SS.csid = CS.csid AND SS.bid IS NULL AND SS.ssid IN (SELECT SS2.ssid FROM Showseats SS2, Cinemaseats CS2 WHERE SS2.sid = :show_id AND SS2.csid = CS2.csid AND CS2.tid = :theater_id AND SS2.bid IS NULL ORDER BY CS2.sno LIMIT 2 FOR UPDATE OF SS2 SKIP LOCKED) RETURNING SS.ssid, CS.tid, CS.sno;
+ROLLBACK;
+
+\echo '== op 4: cancel pending bookings'
+BEGIN;
+EXPLAIN (ANALYZE, BUFFERS) UPDATE Bookings SET status = 'Cancelled' WHERE status = 'Pending';
+ROLLBACK;
+
+\echo '== op 5: seats and price of a booking'
+BEGIN;
+EXPLAIN (ANALYZE, BUFFERS) SELECT sum(price) FROM (SELECT price FROM Showseats WHERE bid = :booking_id FOR UPDATE) ALIAS;
+ROLLBACK;
+
+\echo '== op 5: free seats of a show'
+BEGIN;
+EXPLAIN (ANALYZE, BUFFERS) SELECT ssid, price FROM Showseats WHERE sid = :show_id AND bid IS NULL LIMIT 2 FOR UPDATE SKIP LOCKED;
+ROLLBACK;
+
+\echo '== op 7: cancelled bookings'
+EXPLAIN (ANALYZE, BUFFERS) SELECT bid FROM Bookings WHERE status = 'Cancelled';
+
+\echo '== op 8: shows at a cinema on a date'
+EXPLAIN (ANALYZE, BUFFERS) SELECT S.sid FROM Shows S, Plays P WHERE S.sdate = :'show_date' AND S.sid = P.sid AND P.tid = ANY(:'cinema_tids');
+
+\echo '== op 9: theaters playing a show'
+EXPLAIN (ANALYZE, BUFFERS) SELECT tid, tname, cname FROM show_schedule WHERE sid = :show_id;
+
+\echo '== op 10: shows starting at a date and time'
+EXPLAIN (ANALYZE, BUFFERS) SELECT DISTINCT ON (sid) sid, mvid, title, sdate, sttime, edtime FROM show_schedule WHERE sdate = :'show_date' AND sttime = :'show_time' ORDER BY sid;
+
+\echo '== op 11: movies with love in the title after 2010'
+EXPLAIN (ANALYZE, BUFFERS) SELECT M.mvid, M.title, M.rdate, round((ts_rank_cd((setweight(to_tsvector('english', M.title), 'A') || setweight(to_tsvector('english', coalesce(M.description, '')), 'B')), Q.q) + word_similarity('love', M.title))::numeric, 4) AS rank FROM Movies M, plainto_tsquery('english', 'love') Q(q) WHERE M.rdate > '2010-12-31' AND ((setweight(to_tsvector('english', M.title), 'A') || setweight(to_tsvector('english', coalesce(M.description, '')), 'B')) @@ Q.q OR M.title ILIKE '%love%' OR 'love' <% M.title) ORDER BY rank DESC, M.mvid;
+
+\echo '== op 12: users with a pending booking'
+EXPLAIN (ANALYZE, BUFFERS) SELECT U.fname, U.lname, U.email FROM Users U, Bookings B WHERE B.email = U.email AND B.status = 'Pending';
+
+\echo '== op 13: shows of a movie at a cinema in a date range'
+EXPLAIN (ANALYZE, BUFFERS) SELECT title, duration, sid, sdate, sttime FROM show_schedule WHERE mvid = :movie_id AND sdate <= '2030-01-01' AND sdate >= '1900-01-01' AND cname = :'cinema_name';
+
+\echo '== op 14: bookings of a user, first page'
+EXPLAIN (ANALYZE, BUFFERS) SELECT B.bid, M.title, S1.sdate, S1.sttime, string_agg(DISTINCT T.tname, ',') AS tname, string_agg(C.sno::text, ',' ORDER BY C.sno) AS seats FROM (SELECT bid, sid FROM bookings WHERE email = :'user_email' AND bid > -1 ORDER BY bid LIMIT 20) B JOIN shows S1 ON S1.sid = B.sid JOIN movies M ON M.mvid = S1.mvid LEFT JOIN showseats S2 ON S2.bid = B.bid LEFT JOIN cinemaseats C ON C.csid = S2.csid LEFT JOIN theaters T ON T.tid = C.tid GROUP BY B.bid, M.title, S1.sdate, S1.sttime ORDER BY B.bid;
@@ -0,0 +1,64 @@
+-- Multiplies the loaded data set by :factor (psql -v factor=100).
+-- Copy k of every row gets its key shifted by k times the current maximum
+-- key of its table, so keys, foreign keys and UNIQUE(sid, csid) stay valid.
+-- Run it on a scratch database only, e.g. through postgresql/indexreport.sh.
+
+CREATE TEMP TABLE scale_base AS
+SELECT (SELECT max(city_id) FROM Cities) AS city_id,
+       (SELECT max(cid) FROM Cinemas) AS cid,
+       (SELECT max(tid) FROM Theaters) AS tid,
+       (SELECT max(csid) FROM CinemaSeats) AS csid,
+       (SELECT max(mvid) FROM Movies) AS mvid,
+       (SELECT max(sid) FROM Shows) AS sid,
+       (SELECT max(bid) FROM Bookings) AS bid,
+       (SELECT max(pid) FROM Payments) AS pid,
+       (SELECT max(ssid) FROM ShowSeats) AS ssid;
+
+CREATE TEMP TABLE scale_copies AS
+SELECT k FROM generate_series(1, :factor - 1) k;
+
+INSERT INTO Cities
+SELECT c.city_id + k * b.city_id, c.city_name, c.city_state, c.zip_code
+FROM Cities c, scale_base b, scale_copies;
+
+INSERT INTO Cinemas
+SELECT c.cid + k * b.cid, c.city_id + k * b.city_id, c.cname, c.tnum
+FROM Cinemas c, scale_base b, scale_copies;
+
+INSERT INTO Theaters
+SELECT t.tid + k * b.tid, t.cid + k * b.cid, t.tname, t.tseats
+FROM Theaters t, scale_base b, scale_copies;
+
+INSERT INTO CinemaSeats
+SELECT s.csid + k * b.csid, s.tid + k * b.tid, s.sno, s.stype
+FROM CinemaSeats s, scale_base b, scale_copies;
+
+INSERT INTO Movies
+SELECT m.mvid + k * b.mvid, m.title || ' ' || k, m.rdate, m.country, m.description, m.duration, m.lang, m.genre
+FROM Movies m, scale_base b, scale_copies;
+
+INSERT INTO Users
+SELECT k || '.' || u.email, u.lname, u.fname, u.phone, u.pwd
+FROM Users u, scale_copies;
+
+INSERT INTO Shows
+SELECT s.sid + k * b.sid, s.mvid + k * b.mvid, s.sdate, s.sttime, s.edtime
+FROM Shows s, scale_base b, scale_copies;
+
+INSERT INTO Plays
+SELECT p.sid + k * b.sid, p.tid + k * b.tid
+FROM Plays p, scale_base b, scale_copies;
+
+INSERT INTO Bookings
+SELECT o.bid + k * b.bid, o.status, o.bdatetime, o.seats, o.sid + k * b.sid, k || '.' || o.email
+FROM Bookings o, scale_base b, scale_copies;
+
+INSERT INTO Payments
+SELECT p.pid + k * b.pid, p.bid + k * b.bid, p.pmethod, p.pdatetime, p.amount, p.trid
+FROM Payments p, scale_base b, scale_copies;
+
+INSERT INTO ShowSeats
+SELECT s.ssid + k * b.ssid, s.sid + k * b.sid, s.csid + k * b.csid, s.bid + k * b.bid, s.price
+FROM ShowSeats s, scale_base b, scale_copies;
+
+ANALYZE;